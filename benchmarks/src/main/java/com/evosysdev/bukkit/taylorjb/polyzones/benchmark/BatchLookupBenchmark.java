@@ -0,0 +1,106 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneManager;
+
+/**
+ * Looking up the zones of an area's blocks one at a time against a single batch lookup, scores are per block
+ * 
+ * @author taylorjb
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchLookupBenchmark
+{
+    private static final int AREAS = 16; // areas we cycle through
+    private static final int WIDTH = 32, HEIGHT = 4; // size of an area in blocks, WIDTH x HEIGHT x WIDTH
+    private static final int BLOCKS = WIDTH * WIDTH * HEIGHT; // blocks in an area
+
+    @Param({ "1000", "100000" })
+    public int zones; // number of zones under everywhere
+
+    @Param({ "4" })
+    public int depth; // depth of the zone hierarchy under everywhere
+
+    private ZoneManager manager;
+    private Location[][] locations; // blocks of each area as locations
+    private int[][] xs, ys, zs; // blocks of each area as coordinates
+    private int next; // next area to use
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        manager = new ZoneManager(new ZoneSets.MemoryZoneStore(ZoneSets.generate(zones, depth)));
+        Random random = new Random(ZoneSets.SEED);
+        World world = ZoneSets.world(ZoneSets.WORLD);
+        int extent = ZoneSets.extent(zones, depth);
+
+        locations = new Location[AREAS][BLOCKS];
+        xs = new int[AREAS][BLOCKS];
+        ys = new int[AREAS][BLOCKS];
+        zs = new int[AREAS][BLOCKS];
+        for (int a = 0; a < AREAS; a++)
+        {
+            int baseX = random.nextInt(extent) - extent / 2, baseY = random.nextInt(256 - HEIGHT), baseZ = random.nextInt(extent) - extent / 2;
+
+            int i = 0;
+            for (int x = 0; x < WIDTH; x++)
+                for (int y = 0; y < HEIGHT; y++)
+                    for (int z = 0; z < WIDTH; z++, i++)
+                    {
+                        xs[a][i] = baseX + x;
+                        ys[a][i] = baseY + y;
+                        zs[a][i] = baseZ + z;
+                        locations[a][i] = new Location(world, xs[a][i], ys[a][i], zs[a][i]);
+                    }
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public void singleLookups(Blackhole blackhole)
+    {
+        Location[] area = locations[next++ % AREAS];
+        for (Location location : area)
+            blackhole.consume(manager.getContainedInZone(location));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BLOCKS)
+    public Zone[] batchLookup()
+    {
+        int a = next++ % AREAS;
+        return manager.getContainedInZones(ZoneSets.WORLD, xs[a], ys[a], zs[a]);
+    }
+}
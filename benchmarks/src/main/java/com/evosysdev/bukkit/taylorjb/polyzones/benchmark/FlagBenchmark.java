@@ -0,0 +1,95 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneManager;
+
+/**
+ * Resolving a zone's flag states through its parents
+ * 
+ * @author taylorjb
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlagBenchmark
+{
+    private static final int SAMPLES = 4096; // pre-made queries we cycle through, a power of 2
+
+    @Param({ "10", "1000", "100000" })
+    public int zones; // number of zones under everywhere
+
+    @Param({ "1", "4", "16" })
+    public int depth; // depth of the zone hierarchy under everywhere
+
+    private ZoneManager manager;
+    private Zone root; // everywhere
+    private Zone deepest; // a zone at the bottom of a tower
+    private Zone[] sampleZones; // zones we query
+    private Flag[] sampleFlags; // flags we query
+    private int next; // next sample to use
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        manager = new ZoneManager(new ZoneSets.MemoryZoneStore(ZoneSets.generate(zones, depth)));
+        Random random = new Random(ZoneSets.SEED);
+
+        root = manager.getZone("everywhere");
+        deepest = manager.getZone("zone" + (Math.min(zones, depth) - 1));
+
+        sampleZones = new Zone[SAMPLES];
+        sampleFlags = new Flag[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            sampleZones[i] = manager.getZone("zone" + random.nextInt(zones));
+            sampleFlags[i] = Flag.values()[random.nextInt(Flag.values().length)];
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.close();
+    }
+
+    /**
+     * Flag state of zones which haven't changed
+     */
+    @Benchmark
+    public Zone.State getFlagState()
+    {
+        int i = next++ & (SAMPLES - 1);
+        return sampleZones[i].getFlagState(sampleFlags[i]);
+    }
+
+    /**
+     * Flag state of a deep zone right after a flag of everywhere changed
+     */
+    @Benchmark
+    public Zone.State getFlagStateAfterRootChange()
+    {
+        root.setFlag(Flag.PVP, ((next++ & 1) == 0) ? Zone.State.ON : Zone.State.OFF);
+        return deepest.getFlagState(Flag.PVP);
+    }
+}
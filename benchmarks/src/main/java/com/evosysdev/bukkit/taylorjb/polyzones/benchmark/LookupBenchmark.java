@@ -0,0 +1,125 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.benchmark;
+
+import java.awt.Point;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneManager;
+
+/**
+ * Finding the zone a location is in, and testing if a point is in a single zone
+ * 
+ * @author taylorjb
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LookupBenchmark
+{
+    private static final int SAMPLES = 4096; // pre-made lookups we cycle through, a power of 2
+
+    @Param({ "10", "1000", "100000" })
+    public int zones; // number of zones under everywhere
+
+    @Param({ "1", "4", "16" })
+    public int depth; // depth of the zone hierarchy under everywhere
+
+    private ZoneManager manager;
+    private World world; // world stand-in the zones are in
+    private Location[] locations; // locations we look up, spread over the zones and around them
+    private Zone[] sampleZones; // zones we test points against
+    private int[] sampleX, sampleZ, sampleY; // points we test against sampleZones, around each zone's bounds
+    private int next; // next sample to use
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        manager = new ZoneManager(new ZoneSets.MemoryZoneStore(ZoneSets.generate(zones, depth)));
+        Random random = new Random(ZoneSets.SEED);
+        world = ZoneSets.world(ZoneSets.WORLD);
+
+        int extent = ZoneSets.extent(zones, depth) + 2 * ZoneSets.cellSize(depth);
+        locations = new Location[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++)
+            locations[i] = new Location(world, random.nextInt(extent) - extent / 2, random.nextInt(256), random.nextInt(extent) - extent / 2);
+
+        sampleZones = new Zone[SAMPLES];
+        sampleX = new int[SAMPLES];
+        sampleZ = new int[SAMPLES];
+        sampleY = new int[SAMPLES];
+        for (int i = 0; i < SAMPLES; i++)
+        {
+            Zone zone = manager.getZone("zone" + random.nextInt(zones));
+            List<Point> points = zone.getPoints();
+
+            int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for (Point p : points)
+            {
+                minX = Math.min(minX, p.x);
+                minZ = Math.min(minZ, p.y);
+                maxX = Math.max(maxX, p.x);
+                maxZ = Math.max(maxZ, p.y);
+            }
+
+            sampleZones[i] = zone;
+            sampleX[i] = minX - 2 + random.nextInt(maxX - minX + 5);
+            sampleZ[i] = minZ - 2 + random.nextInt(maxZ - minZ + 5);
+            sampleY[i] = random.nextInt(256);
+        }
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        manager.close();
+    }
+
+    @Benchmark
+    public Zone getContainedInZone()
+    {
+        return manager.getContainedInZone(locations[next++ & (SAMPLES - 1)]);
+    }
+
+    @Benchmark
+    public Zone getContainedInZoneCoords()
+    {
+        Location location = locations[next++ & (SAMPLES - 1)];
+        return manager.getContainedInZone(world, location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+
+    @Benchmark
+    public boolean isFlagOn()
+    {
+        Location location = locations[next++ & (SAMPLES - 1)];
+        return manager.isFlagOn(world, location.getBlockX(), location.getBlockY(), location.getBlockZ(), Flag.PVP);
+    }
+
+    @Benchmark
+    public boolean inZone()
+    {
+        int i = next++ & (SAMPLES - 1);
+        return sampleZones[i].inZone(sampleX[i], sampleZ[i], sampleY[i], ZoneSets.WORLD);
+    }
+}
@@ -0,0 +1,99 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.BinaryZoneStore;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.JournalZoneStore;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.YamlZoneStore;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneManager;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneRecord;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneStore;
+
+/**
+ * Saving and loading zones with each storage format, zones are kept in a temporary directory
+ * 
+ * @author taylorjb
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark
+{
+    @Param({ "yaml", "binary", "journal" })
+    public String format; // storage format, as in the config
+
+    @Param({ "10", "1000", "10000" })
+    public int zones; // number of zones under everywhere
+
+    @Param({ "4" })
+    public int depth; // depth of the zone hierarchy under everywhere
+
+    private Path dir; // directory zones are stored in
+    private ZoneStore store;
+    private ZoneManager manager; // manager loaded from the store
+    private Random random;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("polyzones");
+        if (format.equals("binary")) store = new BinaryZoneStore(dir.toString());
+        else if (format.equals("journal")) store = new JournalZoneStore(dir.toString());
+        else store = new YamlZoneStore(dir.toString());
+        store.save(ZoneSets.generate(zones, depth), Collections.<String> emptyList());
+
+        manager = new ZoneManager(store);
+        random = new Random(ZoneSets.SEED);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        manager.close();
+        ZoneSets.delete(dir);
+    }
+
+    /**
+     * Writing a changed zone, saveZone hands the zone's record to the store on the writer thread so this times that write
+     */
+    @Benchmark
+    public void saveZone() throws IOException
+    {
+        Zone zone = manager.getZone("zone" + random.nextInt(zones));
+        store.save(Collections.singletonList(ZoneRecord.of(zone)), Collections.<String> emptyList());
+    }
+
+    /**
+     * Loading every zone into a new manager
+     */
+    @Benchmark
+    public ZoneManager loadZones() throws Exception
+    {
+        ZoneManager loaded = new ZoneManager(store);
+        loaded.close();
+        return loaded;
+    }
+}
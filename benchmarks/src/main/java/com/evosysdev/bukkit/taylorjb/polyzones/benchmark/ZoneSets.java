@@ -0,0 +1,207 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.benchmark;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import org.bukkit.World;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneRecord;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneStore;
+
+/**
+ * Generated zone sets and stand-ins for the server, shared by the benchmarks
+ * 
+ * Zones are laid out as a grid of towers. Each tower is a zone under everywhere with a chain of zones nested inside it, one per level of
+ * depth. Zones are rectangles with cut corners so lookups near their edges can't be answered per chunk.
+ * 
+ * @author taylorjb
+ * 
+ */
+public final class ZoneSets
+{
+    public static final String WORLD = "world"; // world the generated zones are in
+    public static final long SEED = 42; // seed of every generated set, so runs are comparable
+
+    private static final int LEVEL_INSET = 4; // blocks each level of a tower is inset from the level it's in
+    private static final int CORNER = 2; // blocks cut off each corner of a zone
+
+    private ZoneSets()
+    {
+    }
+
+    /**
+     * Size of a grid cell holding one tower of zones
+     * 
+     * @param depth
+     *            zones in each tower
+     * @return width of a cell in blocks
+     */
+    public static int cellSize(int depth)
+    {
+        return 16 + 2 * LEVEL_INSET * (depth + 1);
+    }
+
+    /**
+     * Width of the area covered by a generated set, centered on 0,0
+     * 
+     * @param count
+     *            number of zones in the set, not counting everywhere
+     * @param depth
+     *            zones in each tower
+     * @return width of the area in blocks
+     */
+    public static int extent(int count, int depth)
+    {
+        return gridSide(count, depth) * cellSize(depth);
+    }
+
+    /**
+     * Generate a zone set
+     * 
+     * @param count
+     *            number of zones, not counting everywhere
+     * @param depth
+     *            zones in each tower, the depth of the hierarchy under everywhere
+     * @return records of everywhere and the generated zones, parents first
+     */
+    public static List<ZoneRecord> generate(int count, int depth)
+    {
+        Random random = new Random(SEED);
+        List<ZoneRecord> records = new ArrayList<ZoneRecord>(count + 1);
+
+        // everywhere sets every flag so the rest can inherit
+        State[] rootFlags = new State[Flag.values().length];
+        for (Flag f : Flag.values())
+            rootFlags[f.ordinal()] = random.nextBoolean() ? State.ON : State.OFF;
+        records.add(new ZoneRecord("everywhere", null, "everywhere", null, null, 0, 128, new int[0], new int[0], rootFlags));
+
+        int side = gridSide(count, depth), cell = cellSize(depth), origin = -side * cell / 2;
+        for (int i = 0; i < count; i++)
+        {
+            int tower = i / depth, level = i % depth;
+            int inset = LEVEL_INSET * (level + 1);
+            int minX = origin + (tower % side) * cell + inset, minZ = origin + (tower / side) * cell + inset;
+            int maxX = minX + cell - 2 * inset, maxZ = minZ + cell - 2 * inset;
+
+            int[] xs = { minX + CORNER, maxX - CORNER, maxX, maxX, maxX - CORNER, minX + CORNER, minX, minX };
+            int[] zs = { minZ, minZ, minZ + CORNER, maxZ - CORNER, maxZ, maxZ, maxZ - CORNER, minZ + CORNER };
+
+            // set about a quarter of the flags, the rest are inherited
+            State[] flags = new State[Flag.values().length];
+            for (Flag f : Flag.values())
+                if (random.nextInt(4) == 0) flags[f.ordinal()] = random.nextBoolean() ? State.ON : State.OFF;
+
+            String parent = (level == 0) ? "everywhere" : "zone" + (i - 1);
+            records.add(new ZoneRecord("zone" + i, parent, WORLD, "Welcome to zone" + i, null, level, 255 - level, xs, zs, flags));
+        }
+
+        return records;
+    }
+
+    /**
+     * Number of towers along each side of the grid
+     */
+    private static int gridSide(int count, int depth)
+    {
+        int towers = (count + depth - 1) / depth;
+        return Math.max(1, (int) Math.ceil(Math.sqrt(towers)));
+    }
+
+    /**
+     * Make a world stand-in, only its name can be asked for
+     * 
+     * @param name
+     *            name of the world
+     * @return the world
+     */
+    public static World world(final String name)
+    {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class }, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getName")) return name;
+                if (method.getName().equals("equals")) return proxy == args[0];
+                if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                if (method.getName().equals("toString")) return "World{" + name + "}";
+
+                throw new UnsupportedOperationException("World stand-in doesn't support " + method.getName());
+            }
+        });
+    }
+
+    /**
+     * Delete a directory and everything in it
+     * 
+     * @param dir
+     *            directory to delete
+     * @throws IOException
+     *             if something couldn't be deleted
+     */
+    public static void delete(Path dir) throws IOException
+    {
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException
+            {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException
+            {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Zone store holding zones in memory, saving does nothing
+     * 
+     * @author taylorjb
+     * 
+     */
+    public static class MemoryZoneStore implements ZoneStore
+    {
+        private final List<ZoneRecord> records; // zones the store loads
+
+        /**
+         * Initialize the store
+         * 
+         * @param records
+         *            zones the store loads
+         */
+        public MemoryZoneStore(List<ZoneRecord> records)
+        {
+            this.records = records;
+        }
+
+        @Override
+        public List<ZoneRecord> load()
+        {
+            return new ArrayList<ZoneRecord>(records);
+        }
+
+        @Override
+        public void save(Collection<ZoneRecord> changed, Collection<String> deleted)
+        {
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.evosysdev.bukkit.taylorjb.polyzones;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.entity.Player;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Access;
+
+/**
+ * Remembers what each player may do in each zone, so block events don't ask the player's permissions every time
+ *
+ * Asking a player for a permission goes through whatever permissions plugin is installed, which can be slow. A player's decisions are kept
+ * until they quit or change world(permissions can differ per world), and at most ttl long as permissions can change without telling us.
+ * Only used from the main thread.
+ *
+ * @author taylorjb
+ *
+ */
+public class PermissionCache
+{
+    private final Map<UUID, Decisions> players; // decisions of each player, by player id
+    private final ZoneMetrics metrics; // where we count decisions
+    private final long ttl; // millis a player's decisions are kept
+
+    /**
+     * Initialize the cache with no decisions
+     *
+     * @param metrics
+     *            where to count decisions
+     * @param seconds
+     *            seconds a player's decisions are kept
+     */
+    public PermissionCache(ZoneMetrics metrics, int seconds)
+    {
+        players = new HashMap<UUID, Decisions>();
+        this.metrics = metrics;
+        ttl = seconds * 1000L;
+    }
+
+    /**
+     * Check if a player has an access in a zone
+     *
+     * A player has an access if they are a member of the zone with it(themselves or through a group) or have its permission node. Accesses are
+     * inherited, having one in a zone gives it in every zone inside it, and admins of a zone have every access in it.
+     *
+     * @param player
+     *            player we're checking
+     * @param zone
+     *            zone we're checking
+     * @param access
+     *            access the player wants
+     * @return if the player has the access
+     */
+    public boolean isAllowed(Player player, Zone zone, Access access)
+    {
+        long now = System.currentTimeMillis();
+
+        Decisions decisions = players.get(player.getUniqueId());
+        if (decisions == null || decisions.expires <= now)
+        {
+            decisions = new Decisions(now + ttl);
+            players.put(player.getUniqueId(), decisions);
+        }
+
+        return decide(player, zone, access, decisions);
+    }
+
+    /**
+     * Work out a decision, or take it from the player's decisions
+     *
+     * @param player
+     *            player we're checking
+     * @param zone
+     *            zone we're checking
+     * @param access
+     *            access the player wants
+     * @param decisions
+     *            player's decisions
+     * @return if the player has the access
+     */
+    private boolean decide(Player player, Zone zone, Access access, Decisions decisions)
+    {
+        int decided = 1 << (2 * access.ordinal()), allowed = decided << 1;
+
+        Byte bits = decisions.zones.get(zone);
+        if (bits != null && (bits & decided) != 0)
+        {
+            metrics.countPermissionCheck(true);
+            return (bits & allowed) != 0;
+        }
+        metrics.countPermissionCheck(false);
+
+        // members first, they're a map lookup where permission nodes go through the permissions plugin
+        boolean allow = zone.getMembers().allows(player.getUniqueId(), player, access.getBit() | Access.ADMIN.getBit())
+                || player.hasPermission(zone.getPermission(access));
+        if (!allow && access != Access.ADMIN) allow = decide(player, zone, Access.ADMIN, decisions);
+        if (!allow && zone.getParent() != null) allow = decide(player, zone.getParent(), access, decisions);
+
+        // deciding admin may have added to the zone's decisions since we looked
+        bits = decisions.zones.get(zone);
+        decisions.zones.put(zone, (byte) (((bits == null) ? 0 : bits) | decided | (allow ? allowed : 0)));
+        return allow;
+    }
+
+    /**
+     * Forget a player's decisions, e.g. when they quit
+     *
+     * @param player
+     *            player whose decisions are forgotten
+     */
+    public void invalidate(Player player)
+    {
+        players.remove(player.getUniqueId());
+    }
+
+    /**
+     * Forget every decision
+     */
+    public void clear()
+    {
+        players.clear();
+    }
+
+    /**
+     * A player's decisions
+     *
+     * @author taylorjb
+     *
+     */
+    private static class Decisions
+    {
+        private final long expires; // time the decisions expire
+        private final Map<Zone, Byte> zones; // decisions in each zone, 2 bits per access(decided, allowed) by access ordinal
+
+        private Decisions(long expires)
+        {
+            this.expires = expires;
+            zones = new IdentityHashMap<Zone, Byte>();
+        }
+    }
+}
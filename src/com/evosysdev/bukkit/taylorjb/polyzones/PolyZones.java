@@ -1,9 +1,21 @@
 package com.evosysdev.bukkit.taylorjb.polyzones;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
 import org.bukkit.ChatColor;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.World;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.configuration.InvalidConfigurationException;
@@ -13,8 +25,16 @@ import org.bukkit.plugin.java.JavaPlugin;
 import com.evosysdev.bukkit.taylorjb.polyzones.listener.PZBlockListener;
 import com.evosysdev.bukkit.taylorjb.polyzones.listener.PZEntityListener;
 import com.evosysdev.bukkit.taylorjb.polyzones.listener.PZPlayerListener;
+import com.evosysdev.bukkit.taylorjb.polyzones.listener.PZWorldListener;
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.BinaryZoneStore;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.JournalZoneStore;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.YamlZoneStore;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneManager;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneMembers;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneStore;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Access;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
 
@@ -26,7 +46,16 @@ import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
  */
 public class PolyZones extends JavaPlugin
 {
+    private static final String METRICS_NAME = "com.evosysdev.polyzones:type=ZoneMetrics"; // JMX name of our metrics
+    private static final int LIST_PAGE_SIZE = 20; // zone names on a page of /pz ls
+    private static final int MAX_COMPLETIONS = 50; // most zone names offered when tab completing
+    private static final String EXPORT_FILE = "zones-export.txt"; // file of /pz export and import if none is given
+    private static final List<String> PZ_COMMANDS = Arrays.asList("mk", "rm", "ls", "stats", "export", "import"); // /pz sub-commands to complete
+    private static final List<String> WAND_COMMANDS = Arrays.asList("edit", "save", "cancel", "reset", "setceil", "setfloor"); // same for /wand
+
     private ZoneManager zoneManager; // Zone manager
+    private PylonRenderer pylons; // shows wand pylons to editing players
+    private PermissionCache permissions; // what players may do in each zone
 
     /**
      * Set up Permissions and set up listeners
@@ -35,8 +64,8 @@ public class PolyZones extends JavaPlugin
     {
         // create listener instances
         new PZPlayerListener(this);
-        new PZBlockListener(this);
         new PZEntityListener(this);
+        new PZWorldListener(this);
         
         try
         {
@@ -50,9 +79,46 @@ public class PolyZones extends JavaPlugin
             Wand.wandId = getConfig().getInt("wand.id", 280);
         }
 
+        // seconds a wand can sit unused before its edit is cancelled
+        if (!getConfig().contains("wand.idle-timeout"))
+        {
+            getConfig().set("wand.idle-timeout", 900);
+            saveConfig();
+        }
+        Wand.idleTimeout = getConfig().getInt("wand.idle-timeout");
+
+        // building in a zone other than everywhere needs its polyzone.<zone>.build permission, off unless turned on so servers which never
+        // handed out build permissions don't lock their players out
+        if (!getConfig().contains("protection.build"))
+        {
+            getConfig().set("protection.build", false);
+            saveConfig();
+        }
+        new PZBlockListener(this, getConfig().getBoolean("protection.build", false));
+
+        // seconds a player's permission decisions are cached, permissions changed meanwhile are only seen once they expire
+        if (!getConfig().contains("protection.cache-seconds"))
+        {
+            getConfig().set("protection.cache-seconds", 30);
+            saveConfig();
+        }
+
+        // zone storage format, yaml(a .pz file per zone), binary(a single zones.pzb file) or journal(changes appended to zones.pzj, compacted
+        // into zones.pzb)
+        if (!getConfig().contains("storage.format"))
+        {
+            getConfig().set("storage.format", "yaml");
+            saveConfig();
+        }
+
+        // zones of worlds loaded later(e.g. by other plugins) are loaded along with their world
+        List<String> worlds = new ArrayList<String>();
+        for (World world : getServer().getWorlds())
+            worlds.add(world.getName());
+
         try
         {
-            zoneManager = new ZoneManager(getDataFolder().getPath());
+            zoneManager = new ZoneManager(createStore(getConfig().getString("storage.format")), worlds, getLogger());
         }
         catch (IOException ioe)
         {
@@ -67,15 +133,307 @@ public class PolyZones extends JavaPlugin
             return;
         }
         
+        permissions = new PermissionCache(zoneManager.getMetrics(), getConfig().getInt("protection.cache-seconds"));
+
+        // write changed zones in the background every second
+        getServer().getScheduler().runTaskTimer(this, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                zoneManager.flush();
+            }
+        }, 20, 20);
+
+        // make zone changes visible to lookups off the main thread every tick
+        getServer().getScheduler().runTaskTimer(this, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                zoneManager.publish();
+            }
+        }, 1, 1);
+
+        // send wand pylons to editing players a few chunks at a time
+        pylons = new PylonRenderer();
+        getServer().getScheduler().runTaskTimer(this, pylons, 1, 1);
+
+        // cancel wands left unused, every 30 seconds
+        getServer().getScheduler().runTaskTimer(this, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Wand.expireIdle();
+            }
+        }, 600, 600);
+
+        registerMetrics();
+
         // inform enable
         System.out.println(getDescription().getName() + " version " + getDescription().getVersion() + " enabled!");
     }
 
+    @Override
+    /**
+     * Complete sub-commands, zone names, flags and states of our commands
+     */
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args)
+    {
+        List<String> completions = new ArrayList<String>();
+        if (zoneManager == null || args.length == 0) return completions;
+
+        String last = args[args.length - 1];
+        if (command.getName().equalsIgnoreCase("polyzone") && sender.hasPermission("polyzone"))
+        {
+            if (args.length == 1)
+            {
+                completions.addAll(matching(last, PZ_COMMANDS));
+                completions.addAll(zoneManager.findZones(last, 0, MAX_COMPLETIONS));
+            }
+            else if (args.length == 2 && args[0].matches("(?i)rm|del|ls|list")) completions.addAll(zoneManager.findZones(last, 0, MAX_COMPLETIONS));
+            else if (args.length == 3 && args[0].matches("(?i)mk|add|create")) completions.addAll(loadedZones(last));
+            else if (zoneManager.getZone(args[0]) != null)
+            {
+                List<String> options = new ArrayList<String>();
+                if (args.length == 2)
+                {
+                    options.add("allow");
+                    options.add("revoke");
+                    options.add("members");
+                    for (Flag flag : Flag.values())
+                        options.add(flag.name());
+                }
+                else if (args.length == 3 && args[1].matches("(?i)allow|revoke")) options.addAll(ZoneMembers.accessNames());
+                else if (args.length == 3 && !args[1].equalsIgnoreCase("members")) for (State state : State.values())
+                    options.add(state.name());
+                else if (args.length > 3 && args[1].matches("(?i)allow|revoke")) for (Player online : getServer().getOnlinePlayers())
+                    options.add(online.getName());
+
+                completions.addAll(matching(last, options));
+            }
+        }
+        else if (command.getName().equalsIgnoreCase("wand") && sender.hasPermission("polyzone.edit"))
+        {
+            if (args.length == 1) completions.addAll(matching(last, WAND_COMMANDS));
+            else if (args.length == 2 && args[0].equalsIgnoreCase("edit")) completions.addAll(loadedZones(last));
+        }
+
+        return completions;
+    }
+
+    /**
+     * Get the file of an export or import, a plain file name in our folder so players can't reach anything else
+     * 
+     * @param player
+     *            player exporting or importing
+     * @param args
+     *            command arguments, export|import [file]
+     * @return the file, null if the name isn't allowed
+     */
+    private File exportFile(Player player, String[] args)
+    {
+        String name = (args.length > 1) ? args[1] : EXPORT_FILE;
+        if (!name.matches("[A-Za-z0-9_-][A-Za-z0-9_.-]*"))
+        {
+            player.sendMessage(ChatColor.RED + "Invalid file name " + name + "!");
+            return null;
+        }
+
+        return new File(getDataFolder(), name);
+    }
+
+    /**
+     * Allow or revoke players and groups permissions in a zone
+     * 
+     * @param player
+     *            player changing the members
+     * @param zone
+     *            zone whose members are changed
+     * @param args
+     *            command arguments, &lt;zone&gt; allow|revoke &lt;permissions&gt; &lt;player or g:group&gt; [...]
+     * @param allow
+     *            if the permissions are allowed, otherwise revoked
+     * @return if the arguments were valid
+     */
+    private boolean changeMembers(Player player, Zone zone, String[] args, boolean allow)
+    {
+        int accesses;
+        try
+        {
+            accesses = ZoneMembers.parse(args[2]);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            player.sendMessage(ChatColor.RED + "Unknown permission " + args[2] + ", use " + ZoneMembers.describe(-1) + "!");
+            return true;
+        }
+
+        ZoneMembers members = zone.getMembers();
+        StringBuilder changed = new StringBuilder();
+        for (int i = 3; i < args.length; i++)
+        {
+            String name = args[i];
+            if (name.regionMatches(true, 0, "g:", 0, 2))
+            { // groups are anyone with group.<name>
+                name = name.substring(2);
+                if (!name.matches("[A-Za-z0-9_.-]+"))
+                {
+                    player.sendMessage(ChatColor.RED + "Invalid group name " + name + "!");
+                    continue;
+                }
+
+                int old = members.getGroup(name);
+                members.setGroup(name, allow ? old | accesses : old & ~accesses);
+                name = "group " + name;
+            }
+            else
+            {
+                // players are kept by id, so they stay members through name changes
+                OfflinePlayer member = getServer().getPlayerExact(name);
+                if (member == null)
+                {
+                    member = getServer().getOfflinePlayer(name);
+                    if (!member.hasPlayedBefore())
+                    {
+                        player.sendMessage(ChatColor.RED + "Player " + name + " not found!");
+                        continue;
+                    }
+                }
+
+                int old = members.getPlayer(member.getUniqueId());
+                members.setPlayer(member.getUniqueId(), allow ? old | accesses : old & ~accesses);
+            }
+
+            changed.append((changed.length() == 0) ? "" : ", ").append(name);
+        }
+
+        if (changed.length() > 0)
+        {
+            zoneManager.saveZone(zone);
+            permissions.clear();
+
+            player.sendMessage(ChatColor.BLUE + "Zone " + zone.getName() + ": " + ZoneMembers.describe(accesses)
+                    + (allow ? " allowed to " : " revoked from ") + changed + "!");
+        }
+        return true;
+    }
+
+    /**
+     * Show the members of a zone and their permissions
+     * 
+     * @param player
+     *            player shown the members
+     * @param zone
+     *            zone whose members are shown
+     */
+    private void listMembers(Player player, Zone zone)
+    {
+        ZoneMembers members = zone.getMembers();
+        player.sendMessage(ChatColor.BLUE + "Members of zone " + zone.getName() + (members.isEmpty() ? ": none" : ":"));
+
+        for (UUID id : members.getPlayers())
+        {
+            String name = getServer().getOfflinePlayer(id).getName();
+            player.sendMessage(ChatColor.GRAY + ((name == null) ? id.toString() : name) + ": " + ZoneMembers.describe(members.getPlayer(id)));
+        }
+        for (String group : members.getGroups())
+            player.sendMessage(ChatColor.GRAY + "g:" + group + ": " + ZoneMembers.describe(members.getGroup(group)));
+    }
+
+    /**
+     * @return options starting with a prefix, ignoring case
+     */
+    private static List<String> matching(String prefix, List<String> options)
+    {
+        List<String> matches = new ArrayList<String>();
+        for (String option : options)
+            if (option.regionMatches(true, 0, prefix, 0, prefix.length())) matches.add(option);
+
+        return matches;
+    }
+
+    /**
+     * @return names of loaded zones starting with a prefix, zones of unloaded worlds can't be edited or be parents
+     */
+    private List<String> loadedZones(String prefix)
+    {
+        List<String> names = new ArrayList<String>();
+        for (String name : zoneManager.findZones(prefix, 0, MAX_COMPLETIONS))
+            if (zoneManager.getZone(name) != null) names.add(name);
+
+        return names;
+    }
+
+    /**
+     * Make the zone store for the configured storage format
+     * 
+     * @param format
+     *            storage format from the config
+     * @return zone store for the format, yaml if the format isn't known
+     */
+    private ZoneStore createStore(String format)
+    {
+        if (format.equalsIgnoreCase("binary")) return new BinaryZoneStore(getDataFolder().getPath(), getLogger());
+        if (format.equalsIgnoreCase("journal")) return new JournalZoneStore(getDataFolder().getPath(), getLogger());
+
+        if (!format.equalsIgnoreCase("yaml")) getLogger().warning("Unknown storage format " + format + ", using yaml");
+        return new YamlZoneStore(getDataFolder().getPath());
+    }
+
+    /**
+     * Expose our metrics over JMX for monitoring, replacing the metrics of a previous enable(e.g. after a reload)
+     */
+    private void registerMetrics()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(METRICS_NAME);
+
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+            server.registerMBean(zoneManager.getMetrics(), name);
+        }
+        catch (JMException jme)
+        {
+            getLogger().log(Level.WARNING, "Error registering metrics, they won't be available over JMX", jme);
+        }
+    }
+
+    /**
+     * Stop exposing our metrics over JMX
+     */
+    private void unregisterMetrics()
+    {
+        try
+        {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(METRICS_NAME);
+
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        }
+        catch (JMException jme)
+        {
+            getLogger().log(Level.WARNING, "Error unregistering metrics", jme);
+        }
+    }
+
     /**
      * plugin disabled
      */
     public void onDisable()
     {
+        unregisterMetrics();
+
+        // take down pylons of anyone still editing, otherwise their client shows them until the chunk is sent again
+        for (Wand wand : new ArrayList<Wand>(Wand.getWands()))
+            wand.cancel(wand.getPlayer());
+        if (pylons != null) pylons.flush();
+
+        // make sure every change is written before we go
+        if (zoneManager != null) zoneManager.close();
+
         System.out.println("PolyZones disabled!");
     }
 
@@ -112,8 +470,14 @@ public class PolyZones extends JavaPlugin
                                 String name = args[1];
                                 Zone parent = (args.length >= 3) ? zoneManager.getZone(args[2]) : zoneManager.getZone("everywhere");
 
+                                if (parent == null)
+                                {
+                                    sender.sendMessage(ChatColor.RED + "Zone " + args[2] + " not found!");
+                                    return true;
+                                }
+
                                 // check that sender has permission to admin parent zone(can make child zones)
-                                if (player.hasPermission("polyzone." + parent + ".admin"))
+                                if (permissions.isAllowed(player, parent, Access.ADMIN))
                                 {
                                     // add a wand for this player
                                     Wand.addWand(player, new Wand(new Zone(name, player.getWorld().getName(), parent, zoneManager), this, player));
@@ -133,13 +497,114 @@ public class PolyZones extends JavaPlugin
                         if (args.length > 1)
                         {
                             String name = args[1];
-                            zoneManager.deleteZone(zoneManager.getZone(name));
+                            try
+                            {
+                                zoneManager.deleteZone(zoneManager.getZone(name));
+                            }
+                            catch (IllegalArgumentException iae)
+                            {
+                                sender.sendMessage(ChatColor.RED + iae.getMessage());
+                            }
                             return true;
                         }
                     }
                     else if ((args[0].equalsIgnoreCase("ls") || args[0].equalsIgnoreCase("list")) && player.hasPermission("polyzone.list"))
-                    { // list zones managed by our manager
-                        player.sendMessage(zoneManager.toString());
+                    { // list a page of the zones, optionally only those starting with a prefix
+                        String prefix = "";
+                        int page = 1;
+
+                        try
+                        {
+                            // a lone number is a page of every zone
+                            if (args.length == 2 && args[1].matches("\\d+")) page = Integer.parseInt(args[1]);
+                            else if (args.length > 1)
+                            {
+                                prefix = args[1];
+                                if (args.length > 2) page = Integer.parseInt(args[2]);
+                            }
+                        }
+                        catch (NumberFormatException nfe)
+                        {
+                            sender.sendMessage(ChatColor.RED + "Error reading numerical input!");
+                            return false;
+                        }
+
+                        int count = zoneManager.countZones(prefix), pages = Math.max((count + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE, 1);
+                        page = Math.min(Math.max(page, 1), pages);
+
+                        player.sendMessage(ChatColor.BLUE + "Zones" + (prefix.isEmpty() ? "" : " starting with " + prefix) + ", page " + page + "/"
+                                + pages + " (" + count + " zones):");
+
+                        StringBuilder names = new StringBuilder();
+                        for (String name : zoneManager.findZones(prefix, (page - 1) * LIST_PAGE_SIZE, LIST_PAGE_SIZE))
+                            names.append((names.length() == 0) ? "" : ", ").append(name);
+                        if (names.length() > 0) player.sendMessage(ChatColor.GRAY + names.toString());
+
+                        return true;
+                    }
+                    else if (args[0].equalsIgnoreCase("stats") && player.hasPermission("polyzone.stats"))
+                    { // show what our zones are costing
+                        ZoneMetrics metrics = zoneManager.getMetrics();
+                        for (String line : metrics.report())
+                            player.sendMessage(ChatColor.GRAY + line);
+
+                        if (args.length > 1 && args[1].equalsIgnoreCase("reset"))
+                        {
+                            metrics.reset();
+                            player.sendMessage(ChatColor.BLUE + "PolyZones stats reset.");
+                        }
+                        return true;
+                    }
+                    else if (args[0].equalsIgnoreCase("export") && player.hasPermission("polyzone.export"))
+                    { // write every zone to a file in our folder
+                        File file = exportFile(player, args);
+                        if (file == null) return true;
+
+                        try
+                        {
+                            int exported = zoneManager.exportZones(file);
+                            player.sendMessage(ChatColor.BLUE + "Exported " + exported + " zones to " + file.getName() + "!");
+                        }
+                        catch (IOException ioe)
+                        {
+                            player.sendMessage(ChatColor.RED + "Error exporting zones: " + ioe.getMessage());
+                            getLogger().log(Level.WARNING, "Error exporting zones", ioe);
+                        }
+                        return true;
+                    }
+                    else if (args[0].equalsIgnoreCase("import") && player.hasPermission("polyzone.import"))
+                    { // replace every zone with those in a file in our folder
+                        File file = exportFile(player, args);
+                        if (file == null) return true;
+                        if (!file.isFile())
+                        {
+                            player.sendMessage(ChatColor.RED + "File " + file.getName() + " not found!");
+                            return true;
+                        }
+
+                        try
+                        {
+                            int imported = zoneManager.importZones(file);
+                            permissions.clear();
+
+                            // wands hold on to the zone they're editing, which has been replaced
+                            for (Wand wand : new ArrayList<Wand>(Wand.getWands()))
+                            {
+                                wand.cancel(wand.getPlayer());
+                                wand.getPlayer().sendMessage(
+                                        ChatColor.RED + "Zone " + wand.getZone().getName() + " editing cancelled, zones were imported.");
+                            }
+
+                            player.sendMessage(ChatColor.BLUE + "Imported " + imported + " zones from " + file.getName() + "!");
+                        }
+                        catch (IOException ioe)
+                        {
+                            player.sendMessage(ChatColor.RED + "Error importing zones: " + ioe.getMessage());
+                        }
+                        catch (InvalidConfigurationException ice)
+                        {
+                            player.sendMessage(ChatColor.RED + "Zones not imported, " + ice.getMessage());
+                        }
                         return true;
                     }
                     else
@@ -149,14 +614,22 @@ public class PolyZones extends JavaPlugin
                         // able to read the zone and have following arguments
                         if (zone != null && args.length > 1)
                         {
-                            // allow player or group a zone permission
-                            if (args[1].equalsIgnoreCase("allow") && player.hasPermission("polyzone." + zone.getName() + ".admin"))
+                            // allow or revoke players and groups a zone permission, or list who has them
+                            if (args[1].matches("(?i)allow|revoke|members"))
                             {
+                                if (!permissions.isAllowed(player, zone, Access.ADMIN))
+                                {
+                                    sender.sendMessage(ChatColor.RED + "You can't change members of zone " + zone.getName() + "!");
+                                    return true;
+                                }
 
-                            }
-                            else if (args[1].equalsIgnoreCase("revoke") && player.hasPermission("polyzone." + zone.getName() + ".admin"))
-                            { // revoke player or group an allowed permission
+                                if (args[1].equalsIgnoreCase("members"))
+                                {
+                                    listMembers(player, zone);
+                                    return true;
+                                }
 
+                                return args.length > 3 && changeMembers(player, zone, args, args[1].equalsIgnoreCase("allow"));
                             }
                             else
                             { // not a permissions command, try to load a flag
@@ -169,6 +642,7 @@ public class PolyZones extends JavaPlugin
                                     if (flag != null && state != null)
                                     {
                                         zone.setFlag(flag, state);
+                                        zoneManager.saveZone(zone);
                                     }
                                 }
                             }
@@ -183,19 +657,11 @@ public class PolyZones extends JavaPlugin
                     Wand playerWand = Wand.getWand(player);
                     if (playerWand != null)
                     {
+                        playerWand.touch();
+
                         if (args[0].equalsIgnoreCase("save"))
                         {
-                            try
-                            {
-                                playerWand.save(player);
-                            }
-                            catch (IOException ioe)
-                            {
-                                getLogger().log(Level.SEVERE, "Could not save zone!", ioe);
-                                return true;
-                            }
-                            
-                            sender.sendMessage(ChatColor.BLUE + "Zone " + playerWand.getZone().getName() + " saved!");
+                            if (playerWand.save(player)) sender.sendMessage(ChatColor.BLUE + "Zone " + playerWand.getZone().getName() + " saved!");
                             return true;
                         }
                         else if (args[0].equalsIgnoreCase("cancel"))
@@ -230,8 +696,9 @@ public class PolyZones extends JavaPlugin
 
                             try
                             {
-                                playerWand.getZone().setCeil(ceil);
-                                sender.sendMessage(ChatColor.BLUE + "Zone " + playerWand.getZone().getName() + " ceiling set to " + ceil + "!");
+                                playerWand.setCeil(ceil); // applied when the zone is saved, once it's checked against the zones around it
+                                sender.sendMessage(ChatColor.BLUE + "Zone " + playerWand.getZone().getName() + " ceiling will be " + ceil
+                                        + " once saved!");
                             }
                             catch (IllegalArgumentException iae)
                             {
@@ -260,8 +727,9 @@ public class PolyZones extends JavaPlugin
 
                             try
                             {
-                                playerWand.getZone().setFloor(floor);
-                                sender.sendMessage(ChatColor.BLUE + "Zone " + playerWand.getZone().getName() + " floor set to " + floor + "!");
+                                playerWand.setFloor(floor); // applied when the zone is saved, once it's checked against the zones around it
+                                sender.sendMessage(ChatColor.BLUE + "Zone " + playerWand.getZone().getName() + " floor will be " + floor
+                                        + " once saved!");
                             }
                             catch (IllegalArgumentException iae)
                             {
@@ -315,4 +783,20 @@ public class PolyZones extends JavaPlugin
     {
         return zoneManager;
     }
+
+    /**
+     * @return what players may do in each zone
+     */
+    public PermissionCache getPermissionCache()
+    {
+        return permissions;
+    }
+
+    /**
+     * @return renderer showing wand pylons to players
+     */
+    public PylonRenderer getPylonRenderer()
+    {
+        return pylons;
+    }
 }
@@ -0,0 +1,231 @@
+package com.evosysdev.bukkit.taylorjb.polyzones;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Shows wand pylons to the player editing a zone with fake block changes, the world itself is never changed
+ *
+ * Pylons are queued a chunk at a time and sent from a task run every tick, at most BLOCKS_PER_TICK blocks a tick so showing a zone with a
+ * lot of points is spread over several ticks. A chunk's pylons always go out together.
+ *
+ * @author taylorjb
+ *
+ */
+public class PylonRenderer implements Runnable
+{
+    public static final int HEIGHT = 3; // blocks in a pylon
+    public static final int OFFSET = 2; // blocks between the selected block and the bottom of its pylon
+    private static final int BLOCKS_PER_TICK = 384; // most block changes sent in a tick
+    private static final Material PYLON = Material.BEDROCK; // what pylons look like
+
+    private Deque<Batch> queue; // batches waiting to be sent, in order
+    private long tick; // ticks we've run for
+
+    /**
+     * Initialize the renderer with nothing queued
+     */
+    public PylonRenderer()
+    {
+        queue = new ArrayDeque<Batch>();
+    }
+
+    /**
+     * Queue pylons to be shown to the player editing with a wand
+     *
+     * @param wand
+     *            wand the pylons are from, pylons the wand no longer has by the time they're sent are skipped
+     * @param pylons
+     *            pylons to show, all in one chunk
+     * @param delay
+     *            ticks to wait before sending, e.g. so the chunk itself reaches the player first
+     */
+    public void show(Wand wand, Collection<Pylon> pylons, int delay)
+    {
+        queue.add(new Batch(wand, wand.getPlayer(), new ArrayList<Pylon>(pylons), true, tick + delay));
+    }
+
+    /**
+     * Queue pylons to be replaced by the real blocks they're covering
+     *
+     * @param wand
+     *            wand the pylons were from
+     * @param pylons
+     *            pylons to hide, all in one chunk
+     */
+    public void hide(Wand wand, Collection<Pylon> pylons)
+    {
+        queue.add(new Batch(wand, wand.getPlayer(), new ArrayList<Pylon>(pylons), false, tick));
+    }
+
+    /**
+     * Send queued batches which are due, until we've sent our limit for the tick
+     */
+    @Override
+    public void run()
+    {
+        tick++;
+        int sent = 0;
+
+        Iterator<Batch> it = queue.iterator();
+        while (it.hasNext() && sent < BLOCKS_PER_TICK)
+        {
+            Batch batch = it.next();
+            if (batch.due > tick) continue;
+
+            it.remove();
+            sent += send(batch);
+        }
+    }
+
+    /**
+     * Send everything queued right away, e.g. when the plugin is disabled and won't run again
+     */
+    public void flush()
+    {
+        while (!queue.isEmpty())
+            send(queue.poll());
+    }
+
+    /**
+     * Send a batch to its player
+     *
+     * @param batch
+     *            batch to send
+     * @return number of block changes sent
+     */
+    private int send(Batch batch)
+    {
+        Player player = batch.player;
+        if (!player.isOnline()) return 0;
+
+        int sent = 0;
+        for (Pylon pylon : batch.pylons)
+        {
+            // the player can't see pylons of another world, and a chunk which isn't loaded is sent again when it loads
+            World world = pylon.getWorld();
+            if (player.getWorld() != world || !world.isChunkLoaded(pylon.getX() >> 4, pylon.getZ() >> 4)) continue;
+
+            // pylon removed from the wand since it was queued
+            if (batch.show && !batch.wand.hasPylon(pylon)) continue;
+
+            for (int i = 0; i < HEIGHT; i++)
+            {
+                Block block = world.getBlockAt(pylon.getX(), pylon.getY() + OFFSET + i, pylon.getZ());
+                Location loc = block.getLocation();
+
+                if (batch.show) player.sendBlockChange(loc, PYLON, (byte) 0);
+                else player.sendBlockChange(loc, block.getType(), block.getData());
+                sent++;
+            }
+        }
+
+        return sent;
+    }
+
+    /**
+     * Pylons of a chunk to be sent to a player
+     *
+     * @author taylorjb
+     *
+     */
+    private static class Batch
+    {
+        private final Wand wand; // wand the pylons are from
+        private final Player player; // player the pylons are sent to
+        private final List<Pylon> pylons; // pylons to send
+        private final boolean show; // if we're showing the pylons, otherwise we're putting back the real blocks
+        private final long due; // tick the batch can be sent from
+
+        private Batch(Wand wand, Player player, List<Pylon> pylons, boolean show, long due)
+        {
+            this.wand = wand;
+            this.player = player;
+            this.pylons = pylons;
+            this.show = show;
+            this.due = due;
+        }
+    }
+
+    /**
+     * A pylon marking a point of a zone being edited
+     *
+     * @author taylorjb
+     *
+     */
+    public static class Pylon
+    {
+        private final World world; // world the pylon is in
+        private final int x, y, z; // block the pylon marks, the pylon stands OFFSET blocks above it
+
+        /**
+         * Initialize the pylon
+         *
+         * @param world
+         *            world the pylon is in
+         * @param x
+         *            x coord of the block the pylon marks
+         * @param y
+         *            y(height) of the block the pylon marks
+         * @param z
+         *            z coord of the block the pylon marks
+         */
+        public Pylon(World world, int x, int y, int z)
+        {
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+        /**
+         * @return world the pylon is in
+         */
+        public World getWorld()
+        {
+            return world;
+        }
+
+        /**
+         * @return x coord of the block the pylon marks
+         */
+        public int getX()
+        {
+            return x;
+        }
+
+        /**
+         * @return y(height) of the block the pylon marks
+         */
+        public int getY()
+        {
+            return y;
+        }
+
+        /**
+         * @return z coord of the block the pylon marks
+         */
+        public int getZ()
+        {
+            return z;
+        }
+
+        /**
+         * @return key of the chunk the pylon is in
+         */
+        public long getChunkKey()
+        {
+            return ((long) (x >> 4) << 32) | ((z >> 4) & 0xffffffffL);
+        }
+    }
+}
@@ -1,31 +1,49 @@
 package com.evosysdev.bukkit.taylorjb.polyzones;
 
 import java.awt.Point;
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
 
-import org.bukkit.Material;
+import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.entity.Player;
 
+import com.evosysdev.bukkit.taylorjb.polyzones.PylonRenderer.Pylon;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneCheck;
 
 public class Wand
 {
-    private static Map<Player, Wand> wands = new HashMap<Player, Wand>(); // our wands
+    private static final int RESEND_DELAY = 2; // ticks to wait before showing pylons again, so they arrive after the chunk itself
+
+    private static Map<UUID, Wand> wands = new HashMap<UUID, Wand>(); // player id -> wand
     public static int wandId = 280; // ID used for the wand
+    public static int idleTimeout = 900; // seconds a wand can go unused before it's cancelled
 
     private Zone editing; // zone this wand is editing
     private PolyZones plugin; // pluging using our wand
+    private Player player; // player using the wand, the only one who sees its pylons
+    private long lastUsed; // when the wand was last used, in ms
+    private int floor, // floor the zone gets when saved
+            ceiling; // ceiling the zone gets when saved
+
+    // selected points in order, each marked by a pylon. Removed points leave a null behind so the others keep their slots
+    private List<Pylon> vertices;
+    private Map<Long, Integer> slots; // point key -> slot of the point in vertices
+    private int removed; // nulls in vertices
 
-    // these lists should all stay parallel
-    private List<Point> points; // list of points we have selected
-    private List<LinkedList<Integer>> savedBlockMats; // saved block materials we changed with pylons
-    private List<LinkedList<Block>> savedBlocks; // saved block materials we changed with pylons
+    private Map<Long, Set<Pylon>> chunkPylons; // chunk key -> pylons in chunk
+    private Set<Long> shown; // chunks whose pylons have been sent to the player since they last got the chunk
 
     /**
      * Initialize the wand
@@ -39,40 +57,28 @@ public class Wand
     {
         this.editing = editing;
         this.plugin = plugin;
+        this.player = p;
+        lastUsed = System.currentTimeMillis();
+        floor = editing.getFloor();
+        ceiling = editing.getCeiling();
 
-        savedBlockMats = new LinkedList<LinkedList<Integer>>();
-        savedBlocks = new LinkedList<LinkedList<Block>>();
+        vertices = new ArrayList<Pylon>();
+        slots = new HashMap<Long, Integer>();
+        chunkPylons = new HashMap<Long, Set<Pylon>>();
+        shown = new HashSet<Long>();
 
-        // if we're editing a new zone, we have an empty points list
-        if (editing.isEmpty()) points = new LinkedList<Point>();
-        else
         // editing an already established zone, get existing points
+        if (!editing.isEmpty())
         {
-            points = editing.getPoints();
-            List<Block> blocks = new LinkedList<Block>();
-
-            // all the blocks we need
-            for (int i = 0; i < points.size(); i++)
-            {
-                Point curPoint = points.get(i);
-                blocks.add(plugin.getServer().getWorld(editing.getWorld()).getBlockAt(curPoint.x, p.getLocation().getBlockY(), curPoint.y));
-            }
+            World world = plugin.getServer().getWorld(editing.getWorld());
 
             // add all the pylons
-            addPylons(blocks);
-        }
-    }
+            for (Point curPoint : editing.getPoints())
+                addVertex(new Pylon(world, curPoint.x, p.getLocation().getBlockY(), curPoint.y));
 
-    /**
-     * Add pylons to all blocks in a list
-     * 
-     * @param blocks
-     *            blocks to add pylons to
-     */
-    private void addPylons(List<Block> blocks)
-    {
-        for (Block b : blocks)
-            addPylon(b);
+            // show the ones in view
+            updateView(p.getLocation(), true);
+        }
     }
 
     /**
@@ -84,61 +90,116 @@ public class Wand
      */
     public boolean togglePoint(Block block)
     {
-        Point p = new Point(block.getX(), block.getZ());
+        lastUsed = System.currentTimeMillis();
+        PylonRenderer renderer = plugin.getPylonRenderer();
 
-        if (points.contains(p))
+        Integer slot = slots.get(pointKey(block.getX(), block.getZ()));
+        if (slot != null)
         {
-            delPylon(points.indexOf(p));
-            points.remove(new Point(block.getX(), block.getZ()));
+            Pylon pylon = delVertex(slot);
+            if (shown.contains(pylon.getChunkKey())) renderer.hide(this, Collections.singletonList(pylon));
             return false;
         }
         else
         {
-            addPylon(block);
-            points.add(p);
+            Pylon pylon = new Pylon(block.getWorld(), block.getX(), block.getY(), block.getZ());
+            addVertex(pylon);
+
+            // the player is looking at the chunk, show the whole chunk if it hasn't been yet
+            long key = pylon.getChunkKey();
+            if (shown.add(key)) renderer.show(this, chunkPylons.get(key), 0);
+            else renderer.show(this, Collections.singletonList(pylon), 0);
             return true;
         }
     }
 
     /**
-     * Add a pylon above block
+     * Add a point after the others, marked by its pylon
      * 
-     * @param b
-     *            block to add a pylon above
+     * @param pylon
+     *            pylon marking the point
      */
-    private void addPylon(Block b)
+    private void addVertex(Pylon pylon)
     {
-        LinkedList<Integer> pylonMats = new LinkedList<Integer>();
-        LinkedList<Block> pylonBlocks = new LinkedList<Block>();
+        slots.put(pointKey(pylon.getX(), pylon.getZ()), vertices.size());
+        vertices.add(pylon);
 
-        // save old blocks where we are putting a pylon and change blocks to bedrock
-        for (int i = 0; i < 3; i++)
+        Set<Pylon> chunk = chunkPylons.get(pylon.getChunkKey());
+        if (chunk == null)
         {
-            Block pylonBlock = b.getRelative(BlockFace.UP, i + 2);
-            pylonMats.add(pylonBlock.getTypeId());
-            pylonBlocks.add(pylonBlock);
-            pylonBlock.setType(Material.BEDROCK);
+            chunk = new LinkedHashSet<Pylon>();
+            chunkPylons.put(pylon.getChunkKey(), chunk);
         }
-
-        savedBlockMats.add(pylonMats);
-        savedBlocks.add(pylonBlocks);
+        chunk.add(pylon);
     }
 
     /**
-     * Remove a pylon by placing original points back
+     * Remove a point, the points after it keep their order
      * 
-     * @param pylonIndex
-     *            index in the list of the pylon
+     * @param slot
+     *            slot of the point in vertices
+     * @return pylon which marked the point
      */
-    private void delPylon(int pylonIndex)
+    private Pylon delVertex(int slot)
     {
-        // set points of pylon to their saved values
-        for (int i = 0; i < 3; i++)
-            savedBlocks.get(pylonIndex).get(i).setTypeId(savedBlockMats.get(pylonIndex).get(i));
+        Pylon pylon = vertices.set(slot, null);
+        slots.remove(pointKey(pylon.getX(), pylon.getZ()));
 
-        // remove data from lists
-        savedBlockMats.remove(pylonIndex);
-        savedBlocks.remove(pylonIndex);
+        Set<Pylon> chunk = chunkPylons.get(pylon.getChunkKey());
+        chunk.remove(pylon);
+        if (chunk.isEmpty()) chunkPylons.remove(pylon.getChunkKey());
+
+        // once most slots are empty, squeeze them out so a long edit doesn't keep growing the list
+        if (++removed > vertices.size() / 2) compact();
+        return pylon;
+    }
+
+    /**
+     * Drop the empty slots left by removed points and renumber the rest
+     */
+    private void compact()
+    {
+        List<Pylon> live = new ArrayList<Pylon>(vertices.size() - removed);
+        for (Pylon pylon : vertices)
+            if (pylon != null)
+            {
+                slots.put(pointKey(pylon.getX(), pylon.getZ()), live.size());
+                live.add(pylon);
+            }
+
+        vertices = live;
+        removed = 0;
+    }
+
+    /**
+     * @return key of the point at x, z
+     */
+    private static long pointKey(int x, int z)
+    {
+        return ((long) x << 32) | (z & 0xffffffffL);
+    }
+
+    /**
+     * @return selected points in order
+     */
+    public List<Point> getPoints()
+    {
+        List<Point> points = new ArrayList<Point>(vertices.size() - removed);
+        for (Pylon pylon : vertices)
+            if (pylon != null) points.add(new Point(pylon.getX(), pylon.getZ()));
+
+        return points;
+    }
+
+    /**
+     * @param pylon
+     *            pylon to check
+     * @return if the pylon is still one of ours
+     */
+    public boolean hasPylon(Pylon pylon)
+    {
+        Set<Pylon> chunk = chunkPylons.get(pylon.getChunkKey());
+        return chunk != null && chunk.contains(pylon);
     }
 
     /**
@@ -146,37 +207,139 @@ public class Wand
      */
     public void clearPylons()
     {
-        while (!savedBlocks.isEmpty())
-            delPylon(0);
+        // only chunks we've sent pylons for need the real blocks sent back
+        for (long key : shown)
+            plugin.getPylonRenderer().hide(this, chunkPylons.get(key));
+
+        vertices.clear();
+        slots.clear();
+        removed = 0;
+        chunkPylons.clear();
+        shown.clear();
+    }
+
+    /**
+     * Show pylons in chunks which came into the player's view, and forget chunks which left it so they're shown again when they come back
+     * 
+     * @param loc
+     *            where the player is now
+     * @param reload
+     *            if the player has been sent every chunk again, e.g. after changing world or respawning
+     */
+    public void updateView(Location loc, boolean reload)
+    {
+        if (reload) shown.clear();
+
+        int view = plugin.getServer().getViewDistance();
+        int chunkX = loc.getBlockX() >> 4, chunkZ = loc.getBlockZ() >> 4;
+
+        for (Map.Entry<Long, Set<Pylon>> chunk : chunkPylons.entrySet())
+        {
+            long key = chunk.getKey();
+            int x = (int) (key >> 32), z = (int) key;
+            boolean inView = chunk.getValue().iterator().next().getWorld() == loc.getWorld() && Math.abs(x - chunkX) <= view && Math.abs(z - chunkZ) <= view;
+
+            if (!inView) shown.remove(key);
+            else if (shown.add(key)) plugin.getPylonRenderer().show(this, chunk.getValue(), RESEND_DELAY);
+        }
+    }
+
+    /**
+     * Show the pylons of a chunk again after it loaded, the player is sent the real blocks with it
+     * 
+     * @param world
+     *            world the chunk is in
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     */
+    public void chunkLoaded(World world, int chunkX, int chunkZ)
+    {
+        long key = ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+        Set<Pylon> chunk = chunkPylons.get(key);
+
+        // chunks not shown yet are sent once they're in view
+        if (chunk != null && shown.contains(key) && chunk.iterator().next().getWorld() == world) plugin.getPylonRenderer().show(this, chunk, RESEND_DELAY);
+    }
+
+    /**
+     * Set the ceiling the zone gets when saved
+     * 
+     * @param ceiling
+     *            new ceiling of the zone
+     * @throws IllegalArgumentException
+     *             if the ceiling is below the floor
+     */
+    public void setCeil(int ceiling) throws IllegalArgumentException
+    {
+        if (ceiling < floor) throw new IllegalArgumentException("Ceiling must be above the floor!");
+
+        this.ceiling = ceiling;
+    }
+
+    /**
+     * Set the floor the zone gets when saved
+     * 
+     * @param floor
+     *            new floor of the zone
+     * @throws IllegalArgumentException
+     *             if the floor is above the ceiling
+     */
+    public void setFloor(int floor) throws IllegalArgumentException
+    {
+        if (floor > ceiling) throw new IllegalArgumentException("Floor must be below the ceiling!");
+
+        this.floor = floor;
     }
 
     /**
      * Save the zone we're editing and remove the wand from the list
      * 
+     * If the points and heights don't make a valid zone the player is told why and the wand is kept so they can fix it.
+     * 
      * @param player
      *            owner of the wand
-     * @throws IOException if saving failed
+     * @return if the zone was saved
      */
-    public void save(Player player) throws IOException
+    public boolean save(Player player)
     {
-        // if a new zone, add it
-        if (editing.isEmpty()) plugin.getZoneManager().addZone(editing);
-        else
-            // if not, just reset the selection
-            editing.reset();
+        List<Point> points = getPoints();
 
-        // add all of our points to the zone before saving
-        for (Point p : points)
+        ZoneCheck check = plugin.getZoneManager().checkPoints(editing, points, floor, ceiling);
+        if (!check.isValid())
         {
-            if (p == null) throw new NullPointerException("DOH! There is a null point!");
-            if (editing == null) throw new NullPointerException("DOH! Our zone appears to be null!");
+            player.sendMessage(ChatColor.RED + check.getProblem());
+            return false;
+        }
 
-            editing.addPoint(p);
+        // the zone's own floor and ceiling have to stay in order while each is set
+        if (floor > editing.getCeiling())
+        {
+            editing.setCeil(ceiling);
+            editing.setFloor(floor);
         }
+        else
+        {
+            editing.setFloor(floor);
+            editing.setCeil(ceiling);
+        }
+
+        // if a new zone, add it
+        if (editing.isEmpty()) plugin.getZoneManager().addZone(editing);
+
+        // replace the zone's points with ours, the manager re-indexes the zone
+        plugin.getZoneManager().setPoints(editing, points);
 
         clearPylons();
-        wands.remove(player); // let's remove ourselves from the map
+        wands.remove(player.getUniqueId()); // let's remove ourselves from the map
         plugin.getZoneManager().saveZone(editing); // save the zone
+
+        // overlapping siblings are allowed, but only one of them is found in the shared area
+        for (Zone sibling : check.getOverlaps())
+            player.sendMessage(ChatColor.GRAY + "Zone " + editing.getName() + " overlaps zone " + sibling.getName());
+
+        return true;
     }
 
     /**
@@ -184,8 +347,8 @@ public class Wand
      */
     public void reset()
     {
+        lastUsed = System.currentTimeMillis();
         clearPylons();
-        points = new LinkedList<Point>();
     }
 
     /**
@@ -197,7 +360,15 @@ public class Wand
     public void cancel(Player player)
     {
         clearPylons();
-        wands.remove(player); // let's remove ourselves from the map
+        wands.remove(player.getUniqueId()); // let's remove ourselves from the map
+    }
+
+    /**
+     * Note the wand is being used, so it isn't cancelled for being idle
+     */
+    public void touch()
+    {
+        lastUsed = System.currentTimeMillis();
     }
 
     /**
@@ -208,6 +379,14 @@ public class Wand
         return editing;
     }
 
+    /**
+     * @return player using the wand
+     */
+    public Player getPlayer()
+    {
+        return player;
+    }
+
     /**
      * Add a wand to the map
      * 
@@ -220,9 +399,9 @@ public class Wand
     public static boolean addWand(Player player, Wand wand)
     {
         // if we already have a wand for the player, return false and don't add
-        if (wands.containsKey(player)) return false;
+        if (wands.containsKey(player.getUniqueId())) return false;
 
-        wands.put(player, wand);
+        wands.put(player.getUniqueId(), wand);
         return true;
     }
 
@@ -235,6 +414,30 @@ public class Wand
      */
     public static Wand getWand(Player p)
     {
-        return wands.get(p);
+        return wands.get(p.getUniqueId());
+    }
+
+    /**
+     * Cancel wands which haven't been used for idleTimeout seconds
+     */
+    public static void expireIdle()
+    {
+        long cutoff = System.currentTimeMillis() - idleTimeout * 1000L;
+
+        for (Wand wand : new ArrayList<Wand>(wands.values()))
+            if (wand.lastUsed < cutoff)
+            {
+                wand.cancel(wand.player);
+                if (wand.player.isOnline())
+                    wand.player.sendMessage(ChatColor.RED + "Zone " + wand.editing.getName() + " editing cancelled, wand unused for too long.");
+            }
+    }
+
+    /**
+     * @return wands in use, not to be modified
+     */
+    public static Collection<Wand> getWands()
+    {
+        return wands.values();
     }
 }
@@ -1,23 +1,34 @@
 package com.evosysdev.bukkit.taylorjb.polyzones.listener;
 
+import org.bukkit.ChatColor;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.block.BlockDamageEvent;
 import org.bukkit.event.block.BlockPlaceEvent;
 
 import com.evosysdev.bukkit.taylorjb.polyzones.PolyZones;
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics.Handler;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Access;
 
 public class PZBlockListener extends PZListener
 {
+    private final boolean protectBuilds; // if building in a zone other than everywhere needs the zone's build permission
+
     /**
      * Initialize the block listener
      * 
      * @param plugin
      *            the plugin we are a listener for
+     * @param protectBuilds
+     *            if building in a zone other than everywhere needs the zone's build permission
      */
-    public PZBlockListener(PolyZones plugin)
+    public PZBlockListener(PolyZones plugin, boolean protectBuilds)
     {
         super(plugin);
+        this.protectBuilds = protectBuilds;
     }
 
     /**
@@ -26,10 +37,12 @@ public class PZBlockListener extends PZListener
      * @param event
      *            block place event
      */
-    @EventHandler(priority = EventPriority.HIGHEST)
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onBlockPlace(BlockPlaceEvent event)
     {
-
+        long start = System.nanoTime();
+        if (!canBuild(event.getPlayer(), event.getBlock())) event.setCancelled(true);
+        recordHandler(Handler.BUILD, start);
     }
 
     /**
@@ -38,9 +51,32 @@ public class PZBlockListener extends PZListener
      * @param even
      *            block break event
      */
-    @EventHandler(priority = EventPriority.HIGHEST)
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onBlockDamage(BlockDamageEvent event)
     {
+        long start = System.nanoTime();
+        if (!canBuild(event.getPlayer(), event.getBlock())) event.setCancelled(true);
+        recordHandler(Handler.BUILD, start);
+    }
+
+    /**
+     * Check if a player may build at a block, telling them if they can't
+     * 
+     * @param player
+     *            player building
+     * @param block
+     *            block being built
+     * @return if the player may build there
+     */
+    private boolean canBuild(Player player, Block block)
+    {
+        if (!protectBuilds) return true;
+
+        // everywhere isn't protected, only zones are
+        Zone zone = plugin.getZoneManager().getContainedInZone(block.getWorld(), block.getX(), block.getY(), block.getZ());
+        if (zone.getParent() == null || plugin.getPermissionCache().isAllowed(player, zone, Access.BUILD)) return true;
 
+        player.sendMessage(ChatColor.RED + "You can't build in zone " + zone.getName() + "!");
+        return false;
     }
 }
@@ -1,12 +1,27 @@
 package com.evosysdev.bukkit.taylorjb.polyzones.listener;
 
+import java.util.Iterator;
+import java.util.List;
+
+import org.bukkit.block.Block;
+import org.bukkit.entity.Creeper;
+import org.bukkit.entity.TNTPrimed;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.entity.EntityExplodeEvent;
+
 import com.evosysdev.bukkit.taylorjb.polyzones.PolyZones;
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics.Handler;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneSnapshot;
 
 public class PZEntityListener extends PZListener
 {
     /**
      * Initialize the listener
-     * 
+     *
      * @param plugin
      *            plugin using the listener
      */
@@ -14,4 +29,87 @@ public class PZEntityListener extends PZListener
     {
         super(plugin);
     }
+
+    /**
+     * Keep TNT and creepers from blowing up blocks in zones where their flag is off
+     *
+     * @param event
+     *            entity explode event
+     */
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onEntityExplode(EntityExplodeEvent event)
+    {
+        long start = System.nanoTime();
+        try
+        {
+            Flag flag;
+            if (event.getEntity() instanceof TNTPrimed) flag = Flag.TNT;
+            else if (event.getEntity() instanceof Creeper) flag = Flag.CREEPER;
+            else return;
+
+            List<Block> blocks = event.blockList();
+            if (blocks.isEmpty()) return;
+
+            // bounds of the blocks caught in the explosion
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE;
+            int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+            for (Block block : blocks)
+            {
+                minX = Math.min(minX, block.getX());
+                minY = Math.min(minY, block.getY());
+                minZ = Math.min(minZ, block.getZ());
+                maxX = Math.max(maxX, block.getX());
+                maxY = Math.max(maxY, block.getY());
+                maxZ = Math.max(maxZ, block.getZ());
+            }
+
+            // answer every block from the same snapshot so they all see the same zones
+            ZoneSnapshot snapshot = plugin.getZoneManager().getSnapshot();
+            String world = event.getLocation().getWorld().getName();
+            List<Zone> overlapping = snapshot.getZonesOverlapping(world, minX, minY, minZ, maxX, maxY, maxZ);
+
+            // every block is in everywhere or one of the overlapping zones, usually they all agree
+            boolean anyProtected = isProtected(snapshot, snapshot.getRoot(), flag), allProtected = anyProtected;
+            for (Zone zone : overlapping)
+            {
+                boolean zoneProtected = isProtected(snapshot, zone, flag);
+                anyProtected |= zoneProtected;
+                allProtected &= zoneProtected;
+            }
+
+            if (!anyProtected) return;
+            if (allProtected)
+            {
+                blocks.clear();
+                return;
+            }
+
+            // only check blocks against the zones overlapping the explosion
+            Iterator<Block> it = blocks.iterator();
+            while (it.hasNext())
+            {
+                Block block = it.next();
+                Zone zone = snapshot.getContainedInZone(block.getX(), block.getY(), block.getZ(), world, overlapping);
+                if (isProtected(snapshot, zone, flag)) it.remove();
+            }
+        }
+        finally
+        {
+            recordHandler(Handler.EXPLODE, start);
+        }
+    }
+
+    /**
+     * @param snapshot
+     *            snapshot the zone is from
+     * @param zone
+     *            zone the block is in
+     * @param flag
+     *            flag allowing the explosion
+     * @return if blocks in the zone are protected from the explosion
+     */
+    private boolean isProtected(ZoneSnapshot snapshot, Zone zone, Flag flag)
+    {
+        return snapshot.getFlagState(zone, flag) == State.OFF;
+    }
 }
@@ -3,6 +3,7 @@ package com.evosysdev.bukkit.taylorjb.polyzones.listener;
 import org.bukkit.event.Listener;
 
 import com.evosysdev.bukkit.taylorjb.polyzones.PolyZones;
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics.Handler;
 
 public abstract class PZListener implements Listener
 {
@@ -17,5 +18,19 @@ public abstract class PZListener implements Listener
     public PZListener(PolyZones plugin)
     {
         this.plugin = plugin;
+        plugin.getServer().getPluginManager().registerEvents(this, plugin);
+    }
+
+    /**
+     * Record how long handling an event took
+     * 
+     * @param handler
+     *            handler of the event
+     * @param start
+     *            System.nanoTime() when handling started
+     */
+    protected void recordHandler(Handler handler, long start)
+    {
+        plugin.getZoneManager().getMetrics().recordHandler(handler, System.nanoTime() - start);
     }
 }
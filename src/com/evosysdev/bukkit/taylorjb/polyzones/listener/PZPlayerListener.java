@@ -1,20 +1,34 @@
 package com.evosysdev.bukkit.taylorjb.polyzones.listener;
 
-import java.awt.Point;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
 
 import org.bukkit.ChatColor;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.block.Action;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
 
 import com.evosysdev.bukkit.taylorjb.polyzones.PolyZones;
 import com.evosysdev.bukkit.taylorjb.polyzones.Wand;
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics.Handler;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
 
 public class PZPlayerListener extends PZListener
 {
+    private Map<UUID, Residency> residents; // zone each online player was last found in
+
     /**
      * Initialize the player listener
      * 
@@ -24,6 +38,39 @@ public class PZPlayerListener extends PZListener
     public PZPlayerListener(PolyZones plugin)
     {
         super(plugin);
+        residents = new HashMap<UUID, Residency>();
+    }
+
+    /**
+     * Start tracking the zone a player is in when they join
+     * 
+     * @param event
+     *            player join event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event)
+    {
+        long start = System.nanoTime();
+        Player player = event.getPlayer();
+        residents.put(player.getUniqueId(), new Residency(player.getLocation(), plugin.getZoneManager().getContainedInZone(player.getLocation())));
+        recordHandler(Handler.JOIN, start);
+    }
+
+    /**
+     * Stop tracking a player when they leave, forget their permissions and drop any zone they were editing
+     * 
+     * @param event
+     *            player quit event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event)
+    {
+        Player player = event.getPlayer();
+        residents.remove(player.getUniqueId());
+        plugin.getPermissionCache().invalidate(player);
+
+        Wand wand = Wand.getWand(player);
+        if (wand != null) wand.cancel(player);
     }
 
     /**
@@ -32,10 +79,143 @@ public class PZPlayerListener extends PZListener
      * @param event
      *            player move event
      */
-    @EventHandler(priority = EventPriority.HIGHEST)
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onPlayerMove(PlayerMoveEvent event)
     {
+        long start = System.nanoTime();
+        Location from = event.getFrom(), to = event.getTo();
+
+        // most moves are only looking around or moving within a block, zone can't have changed
+        if (from.getBlockX() != to.getBlockX() || from.getBlockY() != to.getBlockY() || from.getBlockZ() != to.getBlockZ()
+                || from.getWorld() != to.getWorld()) updateResidency(event.getPlayer(), to);
+
+        // crossing into another chunk changes which chunks the player can see
+        Wand wand = Wand.getWand(event.getPlayer());
+        if (wand != null && (from.getBlockX() >> 4 != to.getBlockX() >> 4 || from.getBlockZ() >> 4 != to.getBlockZ() >> 4)) wand.updateView(to, false);
+
+        recordHandler(Handler.MOVE, start);
+    }
+
+    /**
+     * Teleports are moves too, greet/farewell the player for them
+     * 
+     * @param event
+     *            player teleport event
+     */
+    @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event)
+    {
+        long start = System.nanoTime();
+        updateResidency(event.getPlayer(), event.getTo());
+
+        Wand wand = Wand.getWand(event.getPlayer());
+        if (wand != null) wand.updateView(event.getTo(), false);
 
+        recordHandler(Handler.TELEPORT, start);
+    }
+
+    /**
+     * Players are sent every chunk again when they change world, show any wand pylons again. Their permissions may differ in the new world
+     * too
+     * 
+     * @param event
+     *            player changed world event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+    {
+        // permissions can be different in each world
+        plugin.getPermissionCache().invalidate(event.getPlayer());
+
+        Wand wand = Wand.getWand(event.getPlayer());
+        if (wand != null) wand.updateView(event.getPlayer().getLocation(), true);
+    }
+
+    /**
+     * Players are sent every chunk again when they respawn, show any wand pylons again
+     * 
+     * @param event
+     *            player respawn event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event)
+    {
+        Wand wand = Wand.getWand(event.getPlayer());
+        if (wand != null) wand.updateView(event.getRespawnLocation(), true);
+    }
+
+    /**
+     * Look up the zone a player moved into and tell them about any zones they left or entered
+     * 
+     * @param player
+     *            player who moved
+     * @param to
+     *            where the player moved to
+     */
+    private void updateResidency(Player player, Location to)
+    {
+        Residency residency = residents.get(player.getUniqueId());
+
+        // first time we've seen them(e.g. after a reload), just start tracking
+        if (residency == null)
+        {
+            residents.put(player.getUniqueId(), new Residency(to, plugin.getZoneManager().getContainedInZone(to)));
+            return;
+        }
+
+        // already looked up this block
+        if (residency.isAt(to)) return;
+
+        Zone zone = plugin.getZoneManager().getContainedInZone(to.getWorld(), to.getBlockX(), to.getBlockY(), to.getBlockZ());
+        residency.moveTo(to);
+
+        if (zone == residency.zone) return;
+
+        // zones are new instances after an import or their world loading again, staying in a zone of the same name isn't a move
+        if (!zone.getName().equalsIgnoreCase(residency.zone.getName()))
+        {
+            // farewell zones we left, innermost first
+            for (Zone left = residency.zone; left != null && !isWithin(zone, left); left = left.getParent())
+                if (left.getFarewell() != null) player.sendMessage(ChatColor.GRAY + left.getFarewell());
+
+            greet(player, zone, residency.zone);
+        }
+        residency.zone = zone;
+    }
+
+    /**
+     * Check if a zone is another zone or one of its descendants by name, so instances from before the zones were reloaded still match
+     * 
+     * @param zone
+     *            zone which may be within ancestor
+     * @param ancestor
+     *            zone we may be within
+     * @return if zone or one of its parents has ancestor's name
+     */
+    private static boolean isWithin(Zone zone, Zone ancestor)
+    {
+        for (Zone z = zone; z != null; z = z.getParent())
+            if (z == ancestor || z.getName().equalsIgnoreCase(ancestor.getName())) return true;
+
+        return false;
+    }
+
+    /**
+     * Greet a player for zones they entered, outermost first
+     * 
+     * @param player
+     *            player who moved
+     * @param entered
+     *            innermost zone the player is now in
+     * @param from
+     *            zone the player was in
+     */
+    private void greet(Player player, Zone entered, Zone from)
+    {
+        if (entered == null || (from != null && isWithin(from, entered))) return;
+
+        greet(player, entered.getParent(), from);
+        if (entered.getGreeting() != null) player.sendMessage(ChatColor.GRAY + entered.getGreeting());
     }
 
     /**
@@ -47,6 +227,8 @@ public class PZPlayerListener extends PZListener
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onPlayerInteract(PlayerInteractEvent event)
     {
+        long start = System.nanoTime();
+
         // TODO ensure permissions
         if (event.getItem() != null && event.getItem().getTypeId() == Wand.wandId)
         {
@@ -60,10 +242,10 @@ public class PZPlayerListener extends PZListener
                 // left click sets points
                 if (event.getAction() == Action.RIGHT_CLICK_BLOCK)
                 {
-                    boolean added = playerWand.togglePoint(event.getClickedBlock());
-                    Point point = new Point(event.getClickedBlock().getX(), event.getClickedBlock().getZ());
+                    Block clicked = event.getClickedBlock();
+                    boolean added = playerWand.togglePoint(clicked);
                     event.getPlayer().sendMessage(
-                            ChatColor.BLUE + "Point " + point.x + "," + point.y + (added ? " added to zone " : " removed from zone ")
+                            ChatColor.BLUE + "Point " + clicked.getX() + "," + clicked.getZ() + (added ? " added to zone " : " removed from zone ")
                                     + editing.getName());
                 }
                 // right click sets vertical bounds
@@ -77,11 +259,64 @@ public class PZPlayerListener extends PZListener
             {
                 if (event.getAction() == Action.RIGHT_CLICK_BLOCK)
                 {
+                    Block clicked = event.getClickedBlock();
                     event.getPlayer().sendMessage(
                             "Current zone: " + ChatColor.GRAY
-                                    + plugin.getZoneManager().getContainedInZone(event.getClickedBlock().getLocation()).getName());
+                                    + plugin.getZoneManager().getContainedInZone(clicked.getWorld(), clicked.getX(), clicked.getY(), clicked.getZ())
+                                            .getName());
                 }
             }
         }
+
+        recordHandler(Handler.INTERACT, start);
+    }
+
+    /**
+     * Zone a player was found in and the block they were at when we looked it up
+     * 
+     * @author taylorjb
+     * 
+     */
+    private static class Residency
+    {
+        private int x, y, z; // block the zone was looked up at
+        private World world; // world the zone was looked up in
+        private Zone zone; // zone the player is in, may be an instance from before the zones were reloaded
+
+        /**
+         * Initialize the residency
+         * 
+         * @param loc
+         *            location the player is at
+         * @param zone
+         *            zone the player is in
+         */
+        public Residency(Location loc, Zone zone)
+        {
+            moveTo(loc);
+            this.zone = zone;
+        }
+
+        /**
+         * @return if loc is in the block we last looked up
+         */
+        public boolean isAt(Location loc)
+        {
+            return loc.getBlockX() == x && loc.getBlockY() == y && loc.getBlockZ() == z && loc.getWorld() == world;
+        }
+
+        /**
+         * Set the block we last looked up
+         * 
+         * @param loc
+         *            location in the block
+         */
+        public void moveTo(Location loc)
+        {
+            x = loc.getBlockX();
+            y = loc.getBlockY();
+            z = loc.getBlockZ();
+            world = loc.getWorld();
+        }
     }
 }
@@ -0,0 +1,100 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.listener;
+
+import java.util.ArrayList;
+
+import org.bukkit.ChatColor;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.PolyZones;
+import com.evosysdev.bukkit.taylorjb.polyzones.Wand;
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics.Handler;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneManager;
+
+public class PZWorldListener extends PZListener
+{
+    /**
+     * Initialize the world listener
+     * 
+     * @param plugin
+     *            plugin using the listener
+     */
+    public PZWorldListener(PolyZones plugin)
+    {
+        super(plugin);
+    }
+
+    /**
+     * Players near a chunk are sent it when it loads, which covers any wand pylons in it, so show them again
+     * 
+     * @param event
+     *            chunk load event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event)
+    {
+        for (Wand wand : Wand.getWands())
+            wand.chunkLoaded(event.getWorld(), event.getChunk().getX(), event.getChunk().getZ());
+    }
+
+    /**
+     * Load the zones of a world when it loads
+     * 
+     * @param event
+     *            world load event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(WorldLoadEvent event)
+    {
+        int loaded = plugin.getZoneManager().loadWorld(event.getWorld().getName());
+        if (loaded > 0) plugin.getLogger().info("Loaded " + loaded + " zones of world " + event.getWorld().getName());
+    }
+
+    /**
+     * Park the zones of a world when it unloads, cancelling any wand editing them
+     * 
+     * @param event
+     *            world unload event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event)
+    {
+        ZoneManager manager = plugin.getZoneManager();
+        String world = event.getWorld().getName();
+
+        int parked = manager.unloadWorld(world);
+        if (parked == 0) return;
+
+        // wands hold on to the zone they're editing, which is no longer the managed one
+        for (Wand wand : new ArrayList<Wand>(Wand.getWands()))
+        {
+            Zone editing = wand.getZone();
+            if (editing.getWorld().equals(world) || manager.isParked(editing.getName()) || (editing.getParent() != null && manager.isParked(editing.getParent().getName())))
+            {
+                wand.cancel(wand.getPlayer());
+                wand.getPlayer().sendMessage(ChatColor.RED + "Zone " + editing.getName() + " editing cancelled, its world unloaded.");
+            }
+        }
+
+        plugin.getLogger().info("Parked " + parked + " zones of world " + world);
+    }
+
+    /**
+     * Drop anything cached about a chunk when it unloads
+     * 
+     * @param event
+     *            chunk unload event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onChunkUnload(ChunkUnloadEvent event)
+    {
+        long start = System.nanoTime();
+        plugin.getZoneManager().unloadChunk(event.getWorld().getName(), event.getChunk().getX(), event.getChunk().getZ());
+        recordHandler(Handler.CHUNK_UNLOAD, start);
+    }
+}
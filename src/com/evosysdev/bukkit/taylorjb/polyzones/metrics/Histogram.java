@@ -0,0 +1,109 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative values in power of 2 buckets, striped like {@link StripedCounter}
+ * 
+ * Bucket 0 counts 0s, bucket b counts values from 2^(b-1) up to 2^b - 1. Percentiles are only as precise as the buckets, which is plenty to
+ * see if something takes nanoseconds, microseconds or milliseconds.
+ * 
+ * @author taylorjb
+ * 
+ */
+class Histogram
+{
+    private static final int BUCKETS = 64; // buckets of each stripe, enough for any long
+
+    private final AtomicLongArray buckets; // count of each bucket, a row of BUCKETS for each stripe
+    private final StripedCounter sum; // sum of every recorded value
+
+    /**
+     * Initialize an empty histogram
+     */
+    public Histogram()
+    {
+        buckets = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+        sum = new StripedCounter();
+    }
+
+    /**
+     * Record a value
+     * 
+     * @param value
+     *            value to record, negative values count as 0
+     */
+    public void record(long value)
+    {
+        if (value < 0) value = 0;
+
+        buckets.getAndIncrement(StripedCounter.stripe() * BUCKETS + (64 - Long.numberOfLeadingZeros(value)));
+        sum.add(value);
+    }
+
+    /**
+     * @return number of values recorded
+     */
+    public long getCount()
+    {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++)
+            count += buckets.get(i);
+
+        return count;
+    }
+
+    /**
+     * @return sum of the values recorded
+     */
+    public long getSum()
+    {
+        return sum.sum();
+    }
+
+    /**
+     * @return mean of the values recorded, 0 if there are none
+     */
+    public double getMean()
+    {
+        long count = getCount();
+        return (count == 0) ? 0 : (double) getSum() / count;
+    }
+
+    /**
+     * Get the value a share of the recorded values are at or below
+     * 
+     * @param share
+     *            share of the values, from 0 to 1
+     * @return highest value of the bucket the percentile falls in, 0 if nothing was recorded
+     */
+    public long getPercentile(double share)
+    {
+        long[] totals = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++)
+        {
+            totals[i % BUCKETS] += buckets.get(i);
+            count += buckets.get(i);
+        }
+
+        long rank = (long) Math.ceil(share * count), seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            seen += totals[bucket];
+            if (seen > 0 && seen >= rank) return (bucket == 0) ? 0 : (1L << bucket) - 1;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Empty the histogram, values recorded while resetting may be kept
+     */
+    public void reset()
+    {
+        for (int i = 0; i < buckets.length(); i++)
+            buckets.set(i, 0);
+        sum.reset();
+    }
+}
@@ -0,0 +1,69 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counter spread over several cells so threads counting at once rarely touch the same cache line
+ * 
+ * Each thread always adds to the same cell, picked from its id. Reading the count sums every cell, so it's slower than counting, which is
+ * what we want for metrics which are counted far more often than read.
+ * 
+ * @author taylorjb
+ * 
+ */
+class StripedCounter
+{
+    static final int STRIPES = Math.min(64, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) << 1); // a power of 2
+    private static final int PAD = 8; // longs between cells, keeps each cell on its own cache line
+
+    private final AtomicLongArray cells; // count of each stripe, every PAD longs
+
+    /**
+     * Initialize the counter at 0
+     */
+    public StripedCounter()
+    {
+        cells = new AtomicLongArray(STRIPES * PAD);
+    }
+
+    /**
+     * Add to the counter
+     * 
+     * @param n
+     *            amount to add
+     * @return count of the current thread's stripe before adding, e.g. to sample every nth count
+     */
+    public long add(long n)
+    {
+        return cells.getAndAdd(stripe() * PAD, n);
+    }
+
+    /**
+     * @return count of every stripe together
+     */
+    public long sum()
+    {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PAD)
+            sum += cells.get(i);
+
+        return sum;
+    }
+
+    /**
+     * Set the counter back to 0, counts made while resetting may be kept
+     */
+    public void reset()
+    {
+        for (int i = 0; i < cells.length(); i += PAD)
+            cells.set(i, 0);
+    }
+
+    /**
+     * @return stripe of the current thread, spread with a multiplicative hash as thread ids are usually sequential
+     */
+    static int stripe()
+    {
+        return (int) ((Thread.currentThread().getId() * 0x9E3779B97F4A7C15L) >>> 58) & (STRIPES - 1);
+    }
+}
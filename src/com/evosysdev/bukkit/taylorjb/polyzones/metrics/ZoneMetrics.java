@@ -0,0 +1,363 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime metrics of PolyZones: lookups, flag resolution, snapshots, saves, loads and event handlers
+ * 
+ * Everything is recorded into striped counters and histograms so recording never locks and threads rarely contend. Single block lookups are
+ * the hottest path, so they are always counted but only every SAMPLE_RATE-th lookup of a thread's stripe is timed.
+ * 
+ * @author taylorjb
+ * 
+ */
+public class ZoneMetrics implements ZoneMetricsMXBean
+{
+    private static final int SAMPLE_RATE = 64; // one in this many single block lookups is timed, a power of 2
+
+    private final StripedCounter lookups = new StripedCounter(); // single block lookups
+    private final Histogram lookupNanos = new Histogram(); // time of sampled single block lookups
+    private final Histogram polygonTests = new Histogram(); // polygon tests of sampled single block lookups
+    private final StripedCounter batchBlocks = new StripedCounter(); // blocks looked up in batches
+    private final StripedCounter batchChunks = new StripedCounter(); // chunks looked up in batches
+    private final Histogram batchNanos = new Histogram(); // time of each batch lookup
+    private final StripedCounter profileBuilds = new StripedCounter(); // chunk profiles worked out
+    private final StripedCounter flagResolutions = new StripedCounter(); // zone flags resolved
+    private final StripedCounter permissionChecks = new StripedCounter(); // zone permission decisions asked for
+    private final StripedCounter permissionLookups = new StripedCounter(); // zone permission decisions asked of the player, cache misses
+    private final Histogram publishNanos = new Histogram(); // time to build each snapshot
+    private final StripedCounter zonesSaved = new StripedCounter(); // zones written or deleted
+    private final Histogram saveNanos = new Histogram(); // time of each save
+    private final StripedCounter zonesLoaded = new StripedCounter(); // zones loaded
+    private final StripedCounter loadNanos = new StripedCounter(); // time spent loading
+    private final Histogram[] handlerNanos; // time of each event handled, by handler
+
+    /**
+     * Initialize metrics at 0
+     */
+    public ZoneMetrics()
+    {
+        handlerNanos = new Histogram[Handler.values().length];
+        for (int i = 0; i < handlerNanos.length; i++)
+            handlerNanos[i] = new Histogram();
+    }
+
+    /**
+     * Count a single block lookup
+     * 
+     * @return if the lookup should be timed and recorded with {@link #recordLookup(long, int)}
+     */
+    public boolean countLookup()
+    {
+        return (lookups.add(1) & (SAMPLE_RATE - 1)) == 0;
+    }
+
+    /**
+     * Record a sampled single block lookup
+     * 
+     * @param nanos
+     *            time the lookup took
+     * @param tests
+     *            polygon tests the lookup made
+     */
+    public void recordLookup(long nanos, int tests)
+    {
+        lookupNanos.record(nanos);
+        polygonTests.record(tests);
+    }
+
+    /**
+     * Record a batch lookup
+     * 
+     * @param blocks
+     *            blocks looked up
+     * @param chunks
+     *            distinct chunks the blocks were in
+     * @param nanos
+     *            time the lookup took
+     */
+    public void recordBatch(int blocks, int chunks, long nanos)
+    {
+        batchBlocks.add(blocks);
+        batchChunks.add(chunks);
+        batchNanos.record(nanos);
+    }
+
+    /**
+     * Count a chunk profile being worked out, a miss of the profile cache
+     */
+    public void countProfileBuild()
+    {
+        profileBuilds.add(1);
+    }
+
+    /**
+     * Count a zone permission decision being asked for
+     * 
+     * @param cached
+     *            if the decision was cached, otherwise the player was asked
+     */
+    public void countPermissionCheck(boolean cached)
+    {
+        permissionChecks.add(1);
+        if (!cached) permissionLookups.add(1);
+    }
+
+    /**
+     * Count a zone's flags being resolved through its parents
+     */
+    public void countFlagResolution()
+    {
+        flagResolutions.add(1);
+    }
+
+    /**
+     * Record a snapshot being published
+     * 
+     * @param nanos
+     *            time it took to build
+     */
+    public void recordPublish(long nanos)
+    {
+        publishNanos.record(nanos);
+    }
+
+    /**
+     * Record a save
+     * 
+     * @param zones
+     *            zones written or deleted
+     * @param nanos
+     *            time the save took
+     */
+    public void recordSave(int zones, long nanos)
+    {
+        zonesSaved.add(zones);
+        saveNanos.record(nanos);
+    }
+
+    /**
+     * Record a load
+     * 
+     * @param zones
+     *            zones loaded
+     * @param nanos
+     *            time the load took
+     */
+    public void recordLoad(int zones, long nanos)
+    {
+        zonesLoaded.add(zones);
+        loadNanos.add(nanos);
+    }
+
+    /**
+     * Record an event being handled
+     * 
+     * @param handler
+     *            handler of the event
+     * @param nanos
+     *            time handling took
+     */
+    public void recordHandler(Handler handler, long nanos)
+    {
+        handlerNanos[handler.ordinal()].record(nanos);
+    }
+
+    @Override
+    public long getLookups()
+    {
+        return lookups.sum();
+    }
+
+    @Override
+    public long getBatchLookups()
+    {
+        return batchBlocks.sum();
+    }
+
+    @Override
+    public double getLookupMeanNanos()
+    {
+        return lookupNanos.getMean();
+    }
+
+    @Override
+    public long getLookupP99Nanos()
+    {
+        return lookupNanos.getPercentile(0.99);
+    }
+
+    @Override
+    public double getPolygonTestsPerLookup()
+    {
+        return polygonTests.getMean();
+    }
+
+    @Override
+    public double getProfileHitRatio()
+    {
+        // every single lookup and every chunk of a batch needs its chunk's profile
+        long requests = lookups.sum() + batchChunks.sum();
+        return (requests == 0) ? 1 : Math.max(0, 1 - (double) profileBuilds.sum() / requests);
+    }
+
+    @Override
+    public long getProfileBuilds()
+    {
+        return profileBuilds.sum();
+    }
+
+    @Override
+    public double getPermissionHitRatio()
+    {
+        long checks = permissionChecks.sum();
+        return (checks == 0) ? 1 : Math.max(0, 1 - (double) permissionLookups.sum() / checks);
+    }
+
+    @Override
+    public long getPermissionLookups()
+    {
+        return permissionLookups.sum();
+    }
+
+    @Override
+    public long getFlagResolutions()
+    {
+        return flagResolutions.sum();
+    }
+
+    @Override
+    public long getSnapshotsPublished()
+    {
+        return publishNanos.getCount();
+    }
+
+    @Override
+    public double getPublishMeanMillis()
+    {
+        return publishNanos.getMean() / 1e6;
+    }
+
+    @Override
+    public long getZonesSaved()
+    {
+        return zonesSaved.sum();
+    }
+
+    @Override
+    public double getSaveMeanMillis()
+    {
+        return saveNanos.getMean() / 1e6;
+    }
+
+    @Override
+    public long getZonesLoaded()
+    {
+        return zonesLoaded.sum();
+    }
+
+    @Override
+    public double getLoadMillis()
+    {
+        return loadNanos.sum() / 1e6;
+    }
+
+    @Override
+    public Map<String, Long> getHandlerCalls()
+    {
+        Map<String, Long> calls = new LinkedHashMap<String, Long>();
+        for (Handler handler : Handler.values())
+            calls.put(handler.getName(), handlerNanos[handler.ordinal()].getCount());
+
+        return calls;
+    }
+
+    @Override
+    public Map<String, Double> getHandlerMeanNanos()
+    {
+        Map<String, Double> means = new LinkedHashMap<String, Double>();
+        for (Handler handler : Handler.values())
+            means.put(handler.getName(), handlerNanos[handler.ordinal()].getMean());
+
+        return means;
+    }
+
+    @Override
+    public void reset()
+    {
+        lookups.reset();
+        lookupNanos.reset();
+        polygonTests.reset();
+        batchBlocks.reset();
+        batchChunks.reset();
+        batchNanos.reset();
+        profileBuilds.reset();
+        flagResolutions.reset();
+        permissionChecks.reset();
+        permissionLookups.reset();
+        publishNanos.reset();
+        zonesSaved.reset();
+        saveNanos.reset();
+        zonesLoaded.reset();
+        loadNanos.reset();
+        for (Histogram histogram : handlerNanos)
+            histogram.reset();
+    }
+
+    /**
+     * @return readable summary of the metrics, a line each
+     */
+    public List<String> report()
+    {
+        List<String> lines = new ArrayList<String>();
+        lines.add(String.format("Lookups: %d, mean %.0fns, p99 %dns, %.1f polygon tests each(1 in %d sampled)", getLookups(),
+                getLookupMeanNanos(), getLookupP99Nanos(), getPolygonTestsPerLookup(), SAMPLE_RATE));
+        lines.add(String.format("Batch lookups: %d blocks in %d batches, mean %.0fns per block", getBatchLookups(), batchNanos.getCount(),
+                (getBatchLookups() == 0) ? 0 : (double) batchNanos.getSum() / getBatchLookups()));
+        lines.add(String.format("Chunk profiles: %.1f%% hit, %d built", getProfileHitRatio() * 100, getProfileBuilds()));
+        lines.add(String.format("Flag resolutions: %d", getFlagResolutions()));
+        lines.add(String.format("Permissions: %.1f%% cached, %d asked of players", getPermissionHitRatio() * 100, getPermissionLookups()));
+        lines.add(String.format("Snapshots: %d published, mean %.2fms", getSnapshotsPublished(), getPublishMeanMillis()));
+        lines.add(String.format("Saves: %d zones in %d saves, mean %.2fms, p99 %.2fms", getZonesSaved(), saveNanos.getCount(),
+                getSaveMeanMillis(), saveNanos.getPercentile(0.99) / 1e6));
+        lines.add(String.format("Loads: %d zones in %.1fms", getZonesLoaded(), getLoadMillis()));
+
+        for (Handler handler : Handler.values())
+        {
+            Histogram histogram = handlerNanos[handler.ordinal()];
+            lines.add(String.format("%s: %d handled, mean %.0fns, p99 %dns", handler.getName(), histogram.getCount(), histogram.getMean(),
+                    histogram.getPercentile(0.99)));
+        }
+
+        return lines;
+    }
+
+    /**
+     * Event handlers we time
+     * 
+     * @author taylorjb
+     * 
+     */
+    public enum Handler
+    {
+        JOIN("join"), MOVE("move"), TELEPORT("teleport"), INTERACT("interact"), EXPLODE("explode"), CHUNK_UNLOAD("chunk unload"), BUILD("build");
+
+        private final String name; // readable name of the handler
+
+        private Handler(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * @return readable name of the handler
+         */
+        public String getName()
+        {
+            return name;
+        }
+    }
+}
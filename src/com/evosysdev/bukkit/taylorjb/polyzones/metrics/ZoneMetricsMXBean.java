@@ -0,0 +1,107 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link ZoneMetrics}, the attributes monitoring sees over JMX
+ * 
+ * @author taylorjb
+ * 
+ */
+public interface ZoneMetricsMXBean
+{
+    /**
+     * @return single block lookups made
+     */
+    public long getLookups();
+
+    /**
+     * @return blocks looked up in batches
+     */
+    public long getBatchLookups();
+
+    /**
+     * @return mean time of a single block lookup in nanoseconds, from sampled lookups
+     */
+    public double getLookupMeanNanos();
+
+    /**
+     * @return 99th percentile time of a single block lookup in nanoseconds, from sampled lookups
+     */
+    public long getLookupP99Nanos();
+
+    /**
+     * @return mean polygon tests made by a single block lookup, from sampled lookups
+     */
+    public double getPolygonTestsPerLookup();
+
+    /**
+     * @return share of lookups answered without working out a chunk profile, from 0 to 1
+     */
+    public double getProfileHitRatio();
+
+    /**
+     * @return chunk profiles worked out
+     */
+    public long getProfileBuilds();
+
+    /**
+     * @return share of zone permission decisions answered from the cache, from 0 to 1
+     */
+    public double getPermissionHitRatio();
+
+    /**
+     * @return zone permission decisions asked of players, cache misses
+     */
+    public long getPermissionLookups();
+
+    /**
+     * @return times a zone's flags were resolved through its parents
+     */
+    public long getFlagResolutions();
+
+    /**
+     * @return zone snapshots published
+     */
+    public long getSnapshotsPublished();
+
+    /**
+     * @return mean time to build a zone snapshot in milliseconds
+     */
+    public double getPublishMeanMillis();
+
+    /**
+     * @return zones written or deleted by saves
+     */
+    public long getZonesSaved();
+
+    /**
+     * @return mean time of a save in milliseconds
+     */
+    public double getSaveMeanMillis();
+
+    /**
+     * @return zones loaded
+     */
+    public long getZonesLoaded();
+
+    /**
+     * @return time spent loading zones in milliseconds
+     */
+    public double getLoadMillis();
+
+    /**
+     * @return events handled, by handler
+     */
+    public Map<String, Long> getHandlerCalls();
+
+    /**
+     * @return mean time spent handling an event in nanoseconds, by handler
+     */
+    public Map<String, Double> getHandlerMeanNanos();
+
+    /**
+     * Start every metric again from 0
+     */
+    public void reset();
+}
@@ -0,0 +1,120 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * File which is replaced as a whole, by writing a temporary file next to it and renaming it over the original
+ * 
+ * Readers(and a crash mid-write) only ever see the old or the new contents, never part of a write.
+ * 
+ * @author taylorjb
+ * 
+ */
+class AtomicFile
+{
+    private final File file, // file we're replacing
+            temp; // file we write before renaming it over file
+
+    /**
+     * Initialize the atomic file
+     * 
+     * @param file
+     *            file to be replaced
+     */
+    public AtomicFile(File file)
+    {
+        this.file = file;
+        this.temp = new File(file.getPath() + ".tmp");
+    }
+
+    /**
+     * Start writing new contents
+     * 
+     * @return stream to write the new contents to, pass to {@link #finishWrite(FileOutputStream)} or {@link #failWrite(FileOutputStream)}
+     * @throws IOException
+     *             if the temporary file couldn't be opened
+     */
+    public FileOutputStream startWrite() throws IOException
+    {
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+
+        return new FileOutputStream(temp);
+    }
+
+    /**
+     * Finish writing, syncing the new contents to disk and replacing the file with them
+     * 
+     * @param out
+     *            stream from {@link #startWrite()}, any buffering on top of it must be flushed
+     * @throws IOException
+     *             if syncing or replacing failed, the file keeps its old contents
+     */
+    public void finishWrite(FileOutputStream out) throws IOException
+    {
+        try
+        {
+            out.getFD().sync();
+        }
+        finally
+        {
+            out.close();
+        }
+
+        try
+        {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (AtomicMoveNotSupportedException amnse)
+        { // some file systems can't, a plain replace is the best we can do
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Abandon a write, leaving the file as it was
+     * 
+     * @param out
+     *            stream from {@link #startWrite()}
+     */
+    public void failWrite(FileOutputStream out)
+    {
+        try
+        {
+            out.close();
+        }
+        catch (IOException ioe)
+        { // nothing more we can do, we're throwing the file away anyway
+        }
+
+        temp.delete();
+    }
+
+    /**
+     * Write the whole contents of the file
+     * 
+     * @param data
+     *            new contents of the file
+     * @throws IOException
+     *             if writing failed, the file keeps its old contents
+     */
+    public void write(byte[] data) throws IOException
+    {
+        FileOutputStream out = startWrite();
+        try
+        {
+            out.write(data);
+        }
+        catch (IOException ioe)
+        {
+            failWrite(out);
+            throw ioe;
+        }
+
+        finishWrite(out);
+    }
+}
@@ -0,0 +1,334 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Zone store keeping every zone in a single binary zones.pzb file
+ *
+ * The file is a header(magic and version), a string table holding every name, world, greeting, farewell and group once, then the zones.
+ * Numbers are varints, points are stored as deltas from the previous point, flags are packed 2 bits per flag and members are stored with
+ * their accesses as a bitset. The file is read through a memory-mapped channel, version 1 files(without members) are still read.
+ *
+ * If there is no zones.pzb yet but there are zones in the .pz layout, they are migrated into it on first load.
+ *
+ * @author taylorjb
+ *
+ */
+public class BinaryZoneStore implements ZoneStore
+{
+    private static final int MAGIC = 0x505a4202; // "PZB" then format version 2
+    private static final int MAGIC_V1 = 0x505a4201; // "PZB" then format version 1, zones without members
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // charset of the string table
+    private static final State[] STATES = { null, State.ON, State.OFF, State.INHERIT }; // packed flag bits -> state
+
+    private final String path; // path to zones/saving
+    private final Logger logger; // where we report migrations
+    private Map<String, ZoneRecord> records; // every stored zone, by name
+
+    /**
+     * Initialize the store
+     *
+     * @param path
+     *            path to zones/saving
+     */
+    public BinaryZoneStore(String path)
+    {
+        this(path, Logger.getLogger(BinaryZoneStore.class.getName()));
+    }
+
+    /**
+     * Initialize the store
+     *
+     * @param path
+     *            path to zones/saving
+     * @param logger
+     *            where we report migrations, e.g. the plugin's logger
+     */
+    public BinaryZoneStore(String path, Logger logger)
+    {
+        this.path = path;
+        this.logger = logger;
+        records = new LinkedHashMap<String, ZoneRecord>();
+    }
+
+    @Override
+    public List<ZoneRecord> load() throws IOException, InvalidConfigurationException
+    {
+        records.clear();
+        File file = new File(path + "/zones.pzb");
+
+        if (!file.exists())
+        {
+            // one-shot migration from the .pz layout, the old files are left as they are
+            List<ZoneRecord> migrated = new YamlZoneStore(path).load();
+            if (!migrated.isEmpty())
+            {
+                save(migrated, new ArrayList<String>());
+                logger.info("Migrated " + migrated.size() + " zones to " + file.getPath());
+            }
+
+            return migrated;
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        return new ArrayList<ZoneRecord>(records.values());
+    }
+
+    /**
+     * Read every zone in the file into our records
+     *
+     * @param in
+     *            contents of the file
+     * @throws InvalidConfigurationException
+     *             if the file isn't a zone file we can read
+     */
+    private void read(ByteBuffer in) throws InvalidConfigurationException
+    {
+        try
+        {
+            int magic = in.getInt();
+            if (magic != MAGIC && magic != MAGIC_V1)
+                throw new InvalidConfigurationException("zones.pzb is not a zone file of a known version!");
+
+            String[] strings = new String[readVarint(in)];
+            for (int i = 0; i < strings.length; i++)
+            {
+                byte[] bytes = new byte[readVarint(in)];
+                in.get(bytes);
+                strings[i] = new String(bytes, UTF8);
+            }
+
+            int zones = readVarint(in);
+            for (int i = 0; i < zones; i++)
+            {
+                String name = strings[readVarint(in)], parent = readString(in, strings), world = strings[readVarint(in)];
+                String greeting = readString(in, strings), farewell = readString(in, strings);
+                int floor = readSignedVarint(in), ceiling = readSignedVarint(in);
+
+                int packed = readVarint(in);
+                State[] flags = new State[Flag.values().length];
+                for (Flag f : Flag.values())
+                    flags[f.ordinal()] = STATES[(packed >>> (f.ordinal() * 2)) & 3];
+
+                int[] xs = new int[readVarint(in)], ys = new int[xs.length];
+                for (int p = 0, x = 0, y = 0; p < xs.length; p++)
+                {
+                    xs[p] = x += readSignedVarint(in);
+                    ys[p] = y += readSignedVarint(in);
+                }
+
+                ZoneMembers members = new ZoneMembers();
+                if (magic == MAGIC)
+                {
+                    for (int m = readVarint(in); m > 0; m--)
+                        members.setPlayer(new UUID(in.getLong(), in.getLong()), readVarint(in));
+                    for (int m = readVarint(in); m > 0; m--)
+                        members.setGroup(strings[readVarint(in)], readVarint(in));
+                }
+
+                records.put(name, new ZoneRecord(name, parent, world, greeting, farewell, floor, ceiling, xs, ys, flags, members));
+            }
+        }
+        catch (RuntimeException re)
+        { // ran off the end of the file or referenced a string that isn't there
+            throw new InvalidConfigurationException("zones.pzb is corrupt!", re);
+        }
+    }
+
+    /**
+     * @param name
+     *            name of the zone
+     * @return record of the zone as last loaded or saved, or null if it isn't stored
+     */
+    ZoneRecord get(String name)
+    {
+        return records.get(name);
+    }
+
+    @Override
+    public void save(Collection<ZoneRecord> changed, Collection<String> deleted) throws IOException
+    {
+        for (ZoneRecord record : changed)
+            records.put(record.getName(), record);
+        for (String name : deleted)
+            records.remove(name);
+
+        AtomicFile file = new AtomicFile(new File(path + "/zones.pzb"));
+        FileOutputStream out = file.startWrite();
+        try
+        {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            write(data);
+            data.flush();
+        }
+        catch (IOException ioe)
+        {
+            file.failWrite(out);
+            throw ioe;
+        }
+
+        file.finishWrite(out);
+    }
+
+    /**
+     * Write every zone in our records
+     *
+     * @param out
+     *            stream to write the file to
+     * @throws IOException
+     *             if writing failed
+     */
+    private void write(DataOutputStream out) throws IOException
+    {
+        // build the string table
+        Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+        for (ZoneRecord record : records.values())
+            for (String s : new String[] { record.getName(), record.getParent(), record.getWorld(), record.getGreeting(), record.getFarewell() })
+                if (s != null && !strings.containsKey(s)) strings.put(s, strings.size());
+        for (ZoneRecord record : records.values())
+            for (String group : record.getMembers().getGroups())
+                if (!strings.containsKey(group)) strings.put(group, strings.size());
+
+        out.writeInt(MAGIC);
+
+        writeVarint(out, strings.size());
+        for (String s : strings.keySet())
+        {
+            byte[] bytes = s.getBytes(UTF8);
+            writeVarint(out, bytes.length);
+            out.write(bytes);
+        }
+
+        writeVarint(out, records.size());
+        for (ZoneRecord record : records.values())
+        {
+            writeVarint(out, strings.get(record.getName()));
+            writeString(out, strings, record.getParent());
+            writeVarint(out, strings.get(record.getWorld()));
+            writeString(out, strings, record.getGreeting());
+            writeString(out, strings, record.getFarewell());
+            writeSignedVarint(out, record.getFloor());
+            writeSignedVarint(out, record.getCeiling());
+
+            int packed = 0;
+            for (Flag f : Flag.values())
+                if (record.getFlag(f) != null) packed |= (record.getFlag(f).ordinal() + 1) << (f.ordinal() * 2);
+            writeVarint(out, packed);
+
+            writeVarint(out, record.getNumPoints());
+            for (int p = 0, x = 0, y = 0; p < record.getNumPoints(); p++)
+            {
+                writeSignedVarint(out, record.getX(p) - x);
+                writeSignedVarint(out, record.getY(p) - y);
+                x = record.getX(p);
+                y = record.getY(p);
+            }
+
+            ZoneMembers members = record.getMembers();
+            writeVarint(out, members.getPlayers().size());
+            for (UUID id : members.getPlayers())
+            {
+                out.writeLong(id.getMostSignificantBits());
+                out.writeLong(id.getLeastSignificantBits());
+                writeVarint(out, members.getPlayer(id));
+            }
+            writeVarint(out, members.getGroups().size());
+            for (String group : members.getGroups())
+            {
+                writeVarint(out, strings.get(group));
+                writeVarint(out, members.getGroup(group));
+            }
+        }
+    }
+
+    /**
+     * Read an optional string, stored as its index in the string table plus one or 0 for null
+     */
+    private static String readString(ByteBuffer in, String[] strings)
+    {
+        int index = readVarint(in);
+        return (index == 0) ? null : strings[index - 1];
+    }
+
+    /**
+     * Write an optional string, stored as its index in the string table plus one or 0 for null
+     */
+    private static void writeString(DataOutputStream out, Map<String, Integer> strings, String s) throws IOException
+    {
+        writeVarint(out, (s == null) ? 0 : strings.get(s) + 1);
+    }
+
+    /**
+     * Read an unsigned varint, 7 bits per byte with the high bit set on all but the last byte
+     */
+    private static int readVarint(ByteBuffer in)
+    {
+        int value = 0;
+        for (int shift = 0;; shift += 7)
+        {
+            byte b = in.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    /**
+     * Write an unsigned varint, 7 bits per byte with the high bit set on all but the last byte
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException
+    {
+        while ((value & ~0x7f) != 0)
+        {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Read a zigzag encoded signed varint
+     */
+    private static int readSignedVarint(ByteBuffer in)
+    {
+        int value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Write a zigzag encoded signed varint, so small negative numbers stay small
+     */
+    private static void writeSignedVarint(DataOutputStream out, int value) throws IOException
+    {
+        writeVarint(out, (value << 1) ^ (value >> 31));
+    }
+}
@@ -0,0 +1,98 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.Arrays;
+
+/**
+ * Classification of a chunk whose columns are all in the same zones
+ *
+ * When every column of a chunk is in the same set of zones, which zone a block is in only depends on its height. The profile keeps the
+ * height ranges where the zone changes so lookups in the chunk don't need any polygon tests. Chunks where columns differ are mixed.
+ *
+ * Profiles are immutable and remember which chunk they are for, so they can be shared between threads through the index's profile cache.
+ * They refer to zones by node id, so they still hold in later snapshots as long as no zone overlapping the chunk changed shape.
+ *
+ * @author taylorjb
+ *
+ */
+final class ChunkProfile
+{
+    private final int world; // id of the world the chunk is in
+    private final long key; // key of the chunk, see ZoneIndex#key(int, int)
+    private final int[] starts; // sorted heights each range starts at, the first is Integer.MIN_VALUE, null if the chunk is mixed
+    private final int[] ids; // node id of the zone of each range
+
+    /**
+     * Initialize the profile
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param key
+     *            key of the chunk
+     * @param starts
+     *            sorted heights each range starts at, the first should be Integer.MIN_VALUE
+     * @param ids
+     *            node id of the zone of each range
+     */
+    public ChunkProfile(int world, long key, int[] starts, int[] ids)
+    {
+        this.world = world;
+        this.key = key;
+        this.starts = starts;
+        this.ids = ids;
+    }
+
+    /**
+     * Make the profile of a chunk whose columns are in different zones
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param key
+     *            key of the chunk
+     * @return mixed profile of the chunk
+     */
+    public static ChunkProfile mixed(int world, long key)
+    {
+        return new ChunkProfile(world, key, null, null);
+    }
+
+    /**
+     * @return if the chunk's columns are in different zones, so blocks need looking up on their own
+     */
+    public boolean isMixed()
+    {
+        return starts == null;
+    }
+
+    /**
+     * @return id of the world the chunk is in
+     */
+    public int getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * @param world
+     *            id of a world
+     * @param key
+     *            key of a chunk
+     * @return if this is the profile of that chunk
+     */
+    public boolean isFor(int world, long key)
+    {
+        return this.key == key && this.world == world;
+    }
+
+    /**
+     * Get the zone blocks of a height are in, only for profiles which aren't mixed
+     *
+     * @param y
+     *            height of the block
+     * @return node id of the zone blocks at height y are in
+     */
+    public int getNodeId(int y)
+    {
+        int index = Arrays.binarySearch(starts, y);
+        return ids[(index >= 0) ? index : -index - 2];
+    }
+}
@@ -0,0 +1,430 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * Zone store appending changes to a journal(zones.pzj) which is compacted into a binary snapshot(zones.pzb)
+ *
+ * Each save appends an entry per changed or deleted zone then a commit entry, and syncs the journal once, so a save costs the size of what
+ * changed rather than of every zone. Entries are a length, a CRC32, a type and the zone's line(see {@link ZoneLines}) or name. A zone whose
+ * points are as last saved is written as a patch, its line without the points, so changing a flag or height of a zone with thousands of
+ * points doesn't write them again. Once the journal is bigger than the snapshot(and at least MIN_COMPACT_BYTES) the changes are folded into
+ * the snapshot and the journal starts over.
+ *
+ * Loading reads the snapshot then replays the journal over it, a save at a time. A crash mid-append leaves a partial or corrupt entry, or a
+ * save without its commit, at the end, which is where replay stops and the journal is cut. Every save is synced before the next is
+ * appended, so a damaged entry with a commit after it can't be from a crash, the load fails then rather than cutting off saves which were
+ * confirmed. Entries hold whole records, or patches applied over the record replayed before them, so replaying entries already in the
+ * snapshot(a crash mid-compaction) changes nothing.
+ *
+ * @author taylorjb
+ *
+ */
+public class JournalZoneStore implements ZoneStore
+{
+    private static final int MAGIC = 0x505a4a01; // "PZJ" then format version 1
+    private static final int ENTRY_HEADER = 9; // bytes of an entry before its payload, length, CRC and type
+    private static final byte PUT = 1, DELETE = 2, COMMIT = 3, // entry types, a zone's record, a deleted zone's name or the end of a save
+            PATCH = 4; // or a zone's record without its points, which are as before
+    private static final long MIN_COMPACT_BYTES = 1 << 20; // journal size below which it's never compacted
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // charset of entry payloads
+    private static final byte[] COMMIT_ENTRY = commitEntry(); // bytes of every commit entry, it has no payload
+
+    private final Logger logger; // where we report recoveries and failed compactions
+    private final BinaryZoneStore snapshot; // store the journal is compacted into
+    private final File journal, // file entries are appended to
+            snapshotFile; // file of the snapshot
+    private Map<String, ZoneRecord> changed; // zones changed since the last compaction, by name
+    private Set<String> deleted; // names of zones deleted since the last compaction
+    private long journalLength; // bytes in the journal
+
+    /**
+     * Initialize the store
+     *
+     * @param path
+     *            path to zones/saving
+     */
+    public JournalZoneStore(String path)
+    {
+        this(path, Logger.getLogger(JournalZoneStore.class.getName()));
+    }
+
+    /**
+     * Initialize the store
+     *
+     * @param path
+     *            path to zones/saving
+     * @param logger
+     *            where we report recoveries and failed compactions, e.g. the plugin's logger
+     */
+    public JournalZoneStore(String path, Logger logger)
+    {
+        this.logger = logger;
+        snapshot = new BinaryZoneStore(path, logger);
+        journal = new File(path + "/zones.pzj");
+        snapshotFile = new File(path + "/zones.pzb");
+        changed = new LinkedHashMap<String, ZoneRecord>();
+        deleted = new LinkedHashSet<String>();
+    }
+
+    @Override
+    public List<ZoneRecord> load() throws IOException, InvalidConfigurationException
+    {
+        changed.clear();
+        deleted.clear();
+        journalLength = 0;
+
+        Map<String, ZoneRecord> records = new LinkedHashMap<String, ZoneRecord>();
+        for (ZoneRecord record : snapshot.load())
+            records.put(record.getName(), record);
+
+        if (journal.exists()) replay(records);
+
+        // start from an empty journal, anything replayed goes into the snapshot
+        if (!changed.isEmpty() || !deleted.isEmpty()) compact();
+        else if (journalLength == 0) resetJournal();
+
+        return new ArrayList<ZoneRecord>(records.values());
+    }
+
+    /**
+     * Apply the journal's saves to the records, cutting off anything after the last committed save
+     *
+     * @param records
+     *            records of the snapshot, by name
+     * @throws IOException
+     *             if the journal couldn't be read or cut
+     * @throws InvalidConfigurationException
+     *             if the journal isn't a journal we can read, an intact entry isn't valid, or an entry is damaged with a commit after it
+     */
+    private void replay(Map<String, ZoneRecord> records) throws IOException, InvalidConfigurationException
+    {
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(journal.toPath()));
+
+        // a crash while the journal was first written can leave it without a whole header
+        if (in.remaining() < 4)
+        {
+            journalLength = 0;
+            return;
+        }
+        if (in.getInt() != MAGIC) throw new InvalidConfigurationException("zones.pzj is not a zone journal of a known version!");
+
+        // entries of the save being read, only applied once its commit is read
+        Map<String, ZoneRecord> saveChanged = new LinkedHashMap<String, ZoneRecord>();
+        Set<String> saveDeleted = new LinkedHashSet<String>();
+        int committed = in.position();
+
+        CRC32 crc = new CRC32();
+        int entries = 0;
+        while (in.remaining() >= ENTRY_HEADER)
+        {
+            int start = in.position(), length = in.getInt(), checksum = in.getInt();
+            byte type = in.get();
+            if (length < 0 || length > in.remaining())
+            {
+                in.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            in.get(payload);
+            crc.reset();
+            crc.update(type);
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum)
+            {
+                in.position(start);
+                break;
+            }
+
+            String text = new String(payload, UTF8);
+            if (type == PUT || type == PATCH)
+            {
+                ZoneRecord record;
+                try
+                {
+                    record = ZoneLines.read(text);
+                }
+                catch (InvalidConfigurationException ice)
+                {
+                    throw new InvalidConfigurationException("zones.pzj entry " + entries + ": " + ice.getMessage(), ice);
+                }
+
+                // a patch keeps the points the zone had
+                if (type == PATCH)
+                {
+                    String name = record.getName();
+                    ZoneRecord previous = saveChanged.containsKey(name) ? saveChanged.get(name)
+                            : saveDeleted.contains(name) ? null : records.get(name);
+                    if (previous == null)
+                        throw new InvalidConfigurationException("zones.pzj entry " + entries + " patches zone " + name + " which isn't stored!");
+
+                    record = record.withPointsOf(previous);
+                }
+
+                saveDeleted.remove(record.getName());
+                saveChanged.put(record.getName(), record);
+            }
+            else if (type == DELETE)
+            {
+                saveChanged.remove(text);
+                saveDeleted.add(text);
+            }
+            else if (type == COMMIT)
+            {
+                for (String name : saveDeleted)
+                {
+                    records.remove(name);
+                    changed.remove(name);
+                    deleted.add(name);
+                }
+                for (ZoneRecord record : saveChanged.values())
+                {
+                    records.put(record.getName(), record);
+                    deleted.remove(record.getName());
+                    changed.put(record.getName(), record);
+                }
+
+                saveChanged.clear();
+                saveDeleted.clear();
+                committed = in.position();
+            }
+            else throw new InvalidConfigurationException("zones.pzj entry " + entries + " has unknown type " + type + "!");
+
+            entries++;
+        }
+
+        // only the last save can be torn, a save committed after the damage means the journal itself is corrupt
+        int damaged = in.position();
+        if (damaged < in.limit() && hasCommit(in, damaged + 1))
+            throw new InvalidConfigurationException("zones.pzj is corrupt at byte " + damaged + ", with saves committed after it!");
+
+        journalLength = committed;
+        if (journalLength < in.limit())
+        {
+            logger.warning("Zone journal ends in a partial save, dropping its last " + (in.limit() - journalLength) + " bytes");
+            truncate(journalLength);
+        }
+    }
+
+    /**
+     * @param in
+     *            bytes of the journal
+     * @param from
+     *            where to start looking
+     * @return if there is a commit entry at or after from
+     */
+    private static boolean hasCommit(ByteBuffer in, int from)
+    {
+        for (int start = from; start <= in.limit() - COMMIT_ENTRY.length; start++)
+        {
+            int i = 0;
+            while (i < COMMIT_ENTRY.length && in.get(start + i) == COMMIT_ENTRY[i])
+                i++;
+
+            if (i == COMMIT_ENTRY.length) return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return bytes of a commit entry, the same for every commit as it has no payload
+     */
+    private static byte[] commitEntry()
+    {
+        CRC32 crc = new CRC32();
+        crc.update(COMMIT);
+        return ByteBuffer.allocate(ENTRY_HEADER).putInt(0).putInt((int) crc.getValue()).put(COMMIT).array();
+    }
+
+    @Override
+    public void save(Collection<ZoneRecord> changed, Collection<String> deleted) throws IOException
+    {
+        // deletions first, a zone renamed only by case is deleted and then written
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String name : deleted)
+            writeEntry(out, DELETE, name);
+        for (ZoneRecord record : changed)
+        {
+            ZoneRecord previous = deleted.contains(record.getName()) ? null : getSaved(record.getName());
+            boolean patch = previous != null && previous.hasPointsOf(record);
+
+            StringWriter line = new StringWriter();
+            ZoneLines.write(patch ? record.withoutPoints() : record, line);
+            writeEntry(out, patch ? PATCH : PUT, line.getBuffer().substring(0, line.getBuffer().length() - 1)); // without its line break
+        }
+        writeEntry(out, COMMIT, "");
+
+        append(bytes.toByteArray());
+
+        for (String name : deleted)
+        {
+            this.changed.remove(name);
+            this.deleted.add(name);
+        }
+        for (ZoneRecord record : changed)
+        {
+            this.deleted.remove(record.getName());
+            this.changed.put(record.getName(), record);
+        }
+
+        // compacting costs a write of every zone, so only once the journal costs more to replay than that
+        if (journalLength > Math.max(MIN_COMPACT_BYTES, snapshotFile.length()))
+        {
+            try
+            {
+                compact();
+            }
+            catch (IOException ioe)
+            { // everything is still in the journal, try again next save
+                logger.log(Level.WARNING, "Error compacting the zone journal, will retry", ioe);
+            }
+        }
+    }
+
+    /**
+     * @param name
+     *            name of the zone
+     * @return record of the zone as last saved, or null if it isn't stored
+     */
+    private ZoneRecord getSaved(String name)
+    {
+        if (deleted.contains(name)) return null;
+
+        ZoneRecord record = changed.get(name);
+        return (record != null) ? record : snapshot.get(name);
+    }
+
+    /**
+     * Write an entry
+     *
+     * @param out
+     *            stream the entry is written to
+     * @param type
+     *            type of the entry
+     * @param text
+     *            payload of the entry
+     * @throws IOException
+     *             if writing failed
+     */
+    private static void writeEntry(DataOutputStream out, byte type, String text) throws IOException
+    {
+        byte[] payload = text.getBytes(UTF8);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+
+        out.writeInt(payload.length);
+        out.writeInt((int) crc.getValue());
+        out.writeByte(type);
+        out.write(payload);
+    }
+
+    /**
+     * Append entries to the journal and sync it, cutting them off again if that fails so later saves don't follow a partial one
+     *
+     * @param entries
+     *            entries to append
+     * @throws IOException
+     *             if appending failed
+     */
+    private void append(byte[] entries) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        try
+        {
+            raf.seek(journalLength);
+            raf.write(entries);
+            raf.getChannel().force(false);
+        }
+        catch (IOException ioe)
+        {
+            try
+            {
+                raf.setLength(journalLength);
+            }
+            catch (IOException ioe2)
+            { // replay stops at the partial entry anyway
+            }
+            throw ioe;
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        journalLength += entries.length;
+    }
+
+    /**
+     * Fold the changes since the last compaction into the snapshot and start a new journal
+     *
+     * @throws IOException
+     *             if writing the snapshot or journal failed
+     */
+    private void compact() throws IOException
+    {
+        snapshot.save(changed.values(), deleted);
+        changed.clear();
+        deleted.clear();
+
+        // a crash before the journal is replaced replays entries the snapshot already has, which is harmless
+        resetJournal();
+    }
+
+    /**
+     * Replace the journal with one without entries
+     *
+     * @throws IOException
+     *             if writing the journal failed
+     */
+    private void resetJournal() throws IOException
+    {
+        new AtomicFile(journal).write(ByteBuffer.allocate(4).putInt(MAGIC).array());
+        journalLength = 4;
+    }
+
+    /**
+     * Cut the journal to a length
+     *
+     * @param length
+     *            bytes to keep
+     * @throws IOException
+     *             if the journal couldn't be cut
+     */
+    private void truncate(long length) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(journal, "rw");
+        try
+        {
+            raf.setLength(length);
+            raf.getChannel().force(false);
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Map from primitive long keys to values, so looking up a chunk key doesn't box it
+ *
+ * Open addressing with linear probing, removals shift later entries back so no tombstones are left behind.
+ *
+ * @author taylorjb
+ *
+ * @param <V>
+ *            type of the values
+ */
+class LongMap<V>
+{
+    private static final int MIN_CAPACITY = 16; // smallest table size, a power of 2
+
+    private long[] keys; // key of each slot
+    private Object[] values; // value of each slot, null if the slot is free
+    private int size; // number of entries
+
+    /**
+     * Initialize an empty map
+     */
+    public LongMap()
+    {
+        keys = new long[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+    }
+
+    /**
+     * Initialize a copy of a map, the values themselves aren't copied
+     *
+     * @param map
+     *            map to copy
+     */
+    public LongMap(LongMap<V> map)
+    {
+        keys = map.keys.clone();
+        values = map.values.clone();
+        size = map.size;
+    }
+
+    /**
+     * @param key
+     *            key to look up
+     * @return value mapped to key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key)
+    {
+        int mask = keys.length - 1;
+        for (int slot = slot(key, mask); values[slot] != null; slot = (slot + 1) & mask)
+            if (keys[slot] == key) return (V) values[slot];
+
+        return null;
+    }
+
+    /**
+     * Map a key to a value
+     *
+     * @param key
+     *            key to map
+     * @param value
+     *            value to map the key to, not null
+     * @return value previously mapped to key, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value)
+    {
+        if (value == null) throw new IllegalArgumentException("LongMap values can't be null!");
+
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; values[slot] != null; slot = (slot + 1) & mask)
+            if (keys[slot] == key)
+            {
+                V old = (V) values[slot];
+                values[slot] = value;
+                return old;
+            }
+
+        keys[slot] = key;
+        values[slot] = value;
+
+        // keep the table at most half full so probes stay short
+        if (++size > keys.length / 2) resize(keys.length * 2);
+        return null;
+    }
+
+    /**
+     * Remove a key from the map
+     *
+     * @param key
+     *            key to remove
+     * @return value key was mapped to, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(long key)
+    {
+        int mask = keys.length - 1;
+        int slot = slot(key, mask);
+        for (; values[slot] != null; slot = (slot + 1) & mask)
+            if (keys[slot] == key) break;
+
+        if (values[slot] == null) return null;
+
+        V old = (V) values[slot];
+        size--;
+
+        // shift back entries which probed past the removed slot
+        for (int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask)
+        {
+            int home = slot(keys[next], mask);
+
+            // an entry can move back if its home isn't cyclically between the hole and where it is now
+            if (((next - home) & mask) >= ((next - slot) & mask))
+            {
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+        }
+
+        values[slot] = null;
+        return old;
+    }
+
+    /**
+     * @return number of entries in the map
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Remove every entry
+     */
+    public void clear()
+    {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * @return copy of the keys in the map
+     */
+    public long[] keys()
+    {
+        long[] list = new long[size];
+        int i = 0;
+        for (int slot = 0; slot < keys.length; slot++)
+            if (values[slot] != null) list[i++] = keys[slot];
+
+        return list;
+    }
+
+    /**
+     * @return copy of the values in the map
+     */
+    @SuppressWarnings("unchecked")
+    public List<V> values()
+    {
+        List<V> list = new ArrayList<V>(size);
+        for (Object value : values)
+            if (value != null) list.add((V) value);
+
+        return list;
+    }
+
+    /**
+     * Move every entry into a table of a new size
+     */
+    private void resize(int capacity)
+    {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        keys = new long[capacity];
+        values = new Object[capacity];
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldValues[i] != null)
+            {
+                int slot = slot(oldKeys[i], mask);
+                while (values[slot] != null)
+                    slot = (slot + 1) & mask;
+
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+    }
+
+    /**
+     * @return home slot of a key, chunk keys are spread with a multiplicative hash as neighbouring chunks differ only in low bits
+     */
+    private static int slot(long key, int mask)
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,319 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Zone store keeping each zone in its own YAML .pz file, listed in zones.dat
+ * 
+ * Zone files are parsed in parallel on a fork-join pool when loading.
+ * 
+ * @author taylorjb
+ * 
+ */
+public class YamlZoneStore implements ZoneStore
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // charset of our files
+    private static final int PARSE_BATCH = 8; // zone files parsed by a single fork-join task
+
+    private final String path; // path to zones/saving
+    private Set<String> names; // names of the zones listed in zones.dat
+
+    /**
+     * Initialize the store
+     * 
+     * @param path
+     *            path to zones/saving
+     */
+    public YamlZoneStore(String path)
+    {
+        this.path = path;
+        names = new LinkedHashSet<String>();
+    }
+
+    @Override
+    public List<ZoneRecord> load() throws IOException, InvalidConfigurationException
+    {
+        List<ZoneRecord> records = new ArrayList<ZoneRecord>();
+        names.clear();
+
+        BufferedReader reader;
+        try
+        {
+            reader = new BufferedReader(new FileReader(path + "/zones.dat"));
+        }
+        catch (FileNotFoundException fnfe)
+        { // nothing stored yet
+            return records;
+        }
+
+        try
+        {
+            String line = reader.readLine();
+
+            // go through all zones in the list
+            if (line != null) for (String zoneName : line.split(","))
+                if (!zoneName.isEmpty()) names.add(zoneName);
+        }
+        finally
+        {
+            reader.close(); // close reader
+        }
+
+        // parse the zone files in parallel, records keep the order of the list
+        ZoneRecord[] parsed = new ZoneRecord[names.size()];
+        ForkJoinPool pool = new ForkJoinPool();
+        try
+        {
+            pool.invoke(new ParseTask(names.toArray(new String[names.size()]), parsed, 0, parsed.length));
+        }
+        catch (ParseException pe)
+        {
+            // the pool may rethrow a copy of the task's exception, find what actually went wrong
+            Throwable cause = pe;
+            while (cause instanceof ParseException)
+                cause = cause.getCause();
+
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof InvalidConfigurationException) throw (InvalidConfigurationException) cause;
+            throw pe;
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        for (ZoneRecord record : parsed)
+            records.add(record);
+
+        return records;
+    }
+
+    /**
+     * Load a zone by name
+     * 
+     * @param name
+     *            name of zone to be loaded
+     * @return record of the zone
+     * @throws @see {@link FileConfiguration#load(File)}
+     */
+    private ZoneRecord loadZone(String name) throws FileNotFoundException, IOException, InvalidConfigurationException
+    {
+        FileConfiguration load = new YamlConfiguration();
+        load.load(new File(path + "/zones/" + name.toLowerCase() + ".pz"));
+
+        // load points
+        int[] xs = new int[load.getInt("zone.polygon.points", 0)], ys = new int[xs.length];
+        for (int i = 0; i < xs.length; i++)
+        {
+            xs[i] = load.getInt("zone.polygon.point" + i + ".x", 0);
+            ys[i] = load.getInt("zone.polygon.point" + i + ".y", 0);
+        }
+
+        // load flags, missing flags are inherited
+        State[] flags = new State[Flag.values().length];
+        for (Flag f : Flag.values())
+            flags[f.ordinal()] = State.valueOf(load.getString("zone.flags." + f.toString(), State.INHERIT.toString()));
+
+        // load members, each with their accesses comma separated
+        ZoneMembers members = new ZoneMembers();
+        try
+        {
+            ConfigurationSection players = load.getConfigurationSection("zone.members.players");
+            if (players != null) for (String id : players.getKeys(false))
+                members.setPlayer(UUID.fromString(id), ZoneMembers.parse(players.getString(id)));
+
+            ConfigurationSection groups = load.getConfigurationSection("zone.members.groups");
+            if (groups != null) for (String group : groups.getKeys(false))
+                members.setGroup(group, ZoneMembers.parse(groups.getString(group)));
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new InvalidConfigurationException("Invalid member of zone " + name + ": " + iae.getMessage(), iae);
+        }
+
+        return new ZoneRecord(name, load.getString("zone.parent"), load.getString("zone.world"), load.getString("zone.greeting"),
+                load.getString("zone.farewell"), load.getInt("zone.floor", 0), load.getInt("zone.ceiling", 128), xs, ys, flags, members);
+    }
+
+    @Override
+    public void save(Collection<ZoneRecord> changed, Collection<String> deleted) throws IOException
+    {
+        boolean listChanged = false;
+
+        // deletions first, a zone renamed only by case is deleted and written to the same file
+        for (String name : deleted)
+        {
+            (new File(path + "/zones/" + name.toLowerCase() + ".pz")).delete(); // delete file if one exists
+            listChanged |= names.remove(name);
+        }
+
+        for (ZoneRecord record : changed)
+        {
+            saveZone(record);
+            listChanged |= names.add(record.getName());
+        }
+
+        if (listChanged) saveZones();
+    }
+
+    /**
+     * Serialize zone to file
+     * 
+     * @param zone
+     *            record of the zone to save
+     * @throws IOException
+     *             if IOException when saving config
+     */
+    private void saveZone(ZoneRecord zone) throws IOException
+    {
+        FileConfiguration save = new YamlConfiguration();
+        save.set("zone.name", zone.getName());
+        save.set("zone.parent", zone.getParent());
+        save.set("zone.world", zone.getWorld());
+        save.set("zone.greeting", zone.getGreeting());
+        save.set("zone.farewell", zone.getFarewell());
+        save.set("zone.ceiling", zone.getCeiling());
+        save.set("zone.floor", zone.getFloor());
+        save.set("zone.polygon.points", zone.getNumPoints());
+
+        for (int i = 0; i < zone.getNumPoints(); i++)
+        {
+            save.set("zone.polygon.point" + i + ".x", zone.getX(i));
+            save.set("zone.polygon.point" + i + ".y", zone.getY(i));
+        }
+
+        // save flags as set on the zone so inheritance survives reloading
+        for (Flag f : Flag.values())
+            save.set("zone.flags." + f.toString(), ((zone.getFlag(f) == null) ? State.INHERIT : zone.getFlag(f)).toString());
+
+        ZoneMembers members = zone.getMembers();
+        for (UUID id : members.getPlayers())
+            save.set("zone.members.players." + id, ZoneMembers.describe(members.getPlayer(id)));
+        for (String group : members.getGroups())
+            save.set("zone.members.groups." + group, ZoneMembers.describe(members.getGroup(group)));
+
+        new AtomicFile(new File(path + "/zones/" + zone.getName().toLowerCase() + ".pz")).write(save.saveToString().getBytes(UTF8));
+    }
+
+    /**
+     * Save the zone list
+     * 
+     * @throws IOException
+     *             if writing zones.dat failed
+     */
+    private void saveZones() throws IOException
+    {
+        StringBuilder list = new StringBuilder();
+
+        // add all zones to the list
+        for (String zone : names)
+            list.append(zone).append(','); // add zone to the file
+
+        new AtomicFile(new File(path + "/zones.dat")).write(list.toString().getBytes(UTF8));
+    }
+
+    /**
+     * Task parsing a range of zone files, splitting it up until the range is small enough to parse directly
+     * 
+     * @author taylorjb
+     * 
+     */
+    private class ParseTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] names; // names of the zones in the list
+        private final ZoneRecord[] records; // parsed records, by position in the list
+        private final int from, to; // range of the list we parse
+
+        /**
+         * Initialize the task
+         * 
+         * @param names
+         *            names of the zones in the list
+         * @param records
+         *            parsed records, by position in the list
+         * @param from
+         *            first position we parse
+         * @param to
+         *            position after the last we parse
+         */
+        private ParseTask(String[] names, ZoneRecord[] records, int from, int to)
+        {
+            this.names = names;
+            this.records = records;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (to - from > PARSE_BATCH)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new ParseTask(names, records, from, middle), new ParseTask(names, records, middle, to));
+                return;
+            }
+
+            for (int i = from; i < to; i++)
+            {
+                try
+                {
+                    records[i] = loadZone(names[i]);
+                }
+                catch (IOException ioe)
+                {
+                    throw new ParseException(ioe);
+                }
+                catch (InvalidConfigurationException ice)
+                {
+                    throw new ParseException(ice);
+                }
+            }
+        }
+    }
+
+    /**
+     * Carries a checked exception from parsing a zone file out of the fork-join pool
+     * 
+     * @author taylorjb
+     * 
+     */
+    private static class ParseException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Initialize the exception
+         * 
+         * @param cause
+         *            exception parsing the zone file
+         */
+        private ParseException(Throwable cause)
+        {
+            super(cause);
+        }
+    }
+}
@@ -1,7 +1,7 @@
 package com.evosysdev.bukkit.taylorjb.polyzones.zone;
 
 import java.awt.Point;
-import java.awt.Polygon;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -15,17 +15,29 @@ import java.util.Map;
  */
 public class Zone
 {
-    private Polygon polyZone; // polygonal area of our zone
+    private ZonePolygon polyZone; // polygonal area of our zone, null for everywhere
     private int ceiling, // top height of the zone
             floor; // bottom of the zone
     private Zone parent; // parent zone
+    private List<Zone> children; // zones which have this zone as their parent
     private String name, // zone name
             greeting, // zone greeting
             farewell, // zone farewell
             world; // zone's world
+    private int worldId; // interned id of the zone's world
+    private boolean allWorlds; // if the zone is in every world
+    private int nodeId = -1; // id of the zone's node in snapshots, handed out by the manager when the zone is added
     private ZoneManager manager; // zone's manager
+    private String[] permissions; // permission node of each access in the zone, by access ordinal
+    private ZoneMembers members; // players and groups given access to the zone
 
     private Map<Flag, State> flags; // zone flags
+    private int resolvedFlags; // flag states after inheritance, packed FLAG_BITS bits per flag, see RESOLVED_STATES
+    private boolean flagsResolved; // if resolvedFlags is up to date
+
+    private static final int FLAG_BITS = 2; // bits used for each flag in resolvedFlags
+    private static final Flag[] FLAGS = Flag.values(); // all flags, kept to avoid copying values() while resolving
+    private static final State[] RESOLVED_STATES = { null, State.ON, State.OFF, State.INHERIT }; // resolvedFlags bits -> state
 
     /**
      * Initialize the zone. Only used to create first zone(everywhere), anything after should have a parent
@@ -44,7 +56,12 @@ public class Zone
         this.name = name;
         this.world = world;
         this.manager = manager;
+        permissions = permissionNodes(name);
+        members = new ZoneMembers();
+        worldId = manager.getWorldId(world);
+        allWorlds = worldId == ZoneIndex.EVERYWHERE;
         this.flags = flags;
+        children = new ArrayList<Zone>();
         parent = null;
     }
 
@@ -63,7 +80,12 @@ public class Zone
         this.name = name;
         this.world = world;
         this.manager = manager;
+        permissions = permissionNodes(name);
+        members = new ZoneMembers();
+        worldId = manager.getWorldId(world);
+        allWorlds = worldId == ZoneIndex.EVERYWHERE;
         this.flags = new HashMap<Flag, State>();
+        children = new ArrayList<Zone>();
         parent = null;
     }
 
@@ -77,21 +99,42 @@ public class Zone
      */
     public Zone(String name, String world, Zone parent, ZoneManager manager) throws IllegalArgumentException
     {
-        if (manager.getZone(name) != null) throw new IllegalArgumentException("A zone with that name already exists!");
+        if (manager.getZone(name) != null || manager.isParked(name)) throw new IllegalArgumentException("A zone with that name already exists!");
 
         if (parent == null) throw new IllegalArgumentException("Invalid parent zone supplied!");
 
         this.name = name;
         this.world = world;
         this.manager = manager;
+        permissions = permissionNodes(name);
+        members = new ZoneMembers();
+        worldId = manager.getWorldId(world);
+        allWorlds = worldId == ZoneIndex.EVERYWHERE;
         flags = new HashMap<Flag, State>();
+        children = new ArrayList<Zone>();
         setParent(parent);
-        polyZone = new Polygon();
+        polyZone = ZonePolygon.EMPTY;
 
         ceiling = 128;
         floor = 0;
     }
 
+    /**
+     * Build the permission nodes of a zone, once so permission checks don't build strings
+     * 
+     * @param name
+     *            name of the zone
+     * @return permission node of each access, by access ordinal
+     */
+    private static String[] permissionNodes(String name)
+    {
+        String[] nodes = new String[Access.values().length];
+        for (Access access : Access.values())
+            nodes[access.ordinal()] = "polyzone." + name + "." + access.getNode();
+
+        return nodes;
+    }
+
     /**
      * Add a point to our zone
      * 
@@ -103,7 +146,8 @@ public class Zone
         // exit if no zone(everywhere zone)
         if (polyZone == null) return;
 
-        polyZone.addPoint(p.x, p.y);
+        polyZone = polyZone.withPoint(p.x, p.y);
+        manager.invalidate(this);
     }
 
     /**
@@ -119,7 +163,8 @@ public class Zone
         // exit if no zone(everywhere zone)
         if (polyZone == null) return;
 
-        polyZone.addPoint(x, y);
+        polyZone = polyZone.withPoint(x, y);
+        manager.invalidate(this);
     }
 
     /**
@@ -130,7 +175,23 @@ public class Zone
         // exit if no zone(everywhere zone)
         if (polyZone == null) return;
 
-        polyZone.reset();
+        polyZone = ZonePolygon.EMPTY;
+        manager.invalidate(this);
+    }
+
+    /**
+     * Set the zone's polygon, replacing all of its points
+     * 
+     * @param polygon
+     *            new polygon of the zone
+     */
+    public void setPolygon(ZonePolygon polygon)
+    {
+        // exit if no zone(everywhere zone)
+        if (polyZone == null) return;
+
+        polyZone = polygon;
+        manager.invalidate(this);
     }
 
     /**
@@ -145,6 +206,7 @@ public class Zone
         if (ceiling < floor) throw new IllegalArgumentException("Ceiling must be above the floor!");
 
         this.ceiling = ceiling;
+        manager.invalidate(this);
     }
 
     /**
@@ -159,6 +221,7 @@ public class Zone
         if (floor > ceiling) throw new IllegalArgumentException("Floor must be below the ceiling!");
 
         this.floor = floor;
+        manager.invalidate(this);
     }
 
     /**
@@ -188,11 +251,36 @@ public class Zone
      * 
      * @param parent
      *            new parent of the zone
+     * @throws IllegalArgumentException
+     *             when the parent doesn't contain the zone
+     */
+    public void setParent(Zone parent) throws IllegalArgumentException
+    {
+        // lookups only look for a zone inside its parent
+        if (parent != null && parent.polyZone != null && polyZone != null && !ZoneGeometry.contains(parent.polyZone, polyZone))
+            throw new IllegalArgumentException("Zone must be inside its parent!");
+
+        reparent(parent);
+    }
+
+    /**
+     * Set the parent of this zone without checking the parent contains it, for moving a child up to its grandparent, which already contains
+     * it unless it was saved before containment was checked
+     * 
+     * @param parent
+     *            new parent of the zone
      */
-    public void setParent(Zone parent)
+    void reparent(Zone parent)
     {
-        // TODO: check if parent contains this zone
+        // only zones in the manager are part of the hierarchy, the manager links new zones when they're added
+        boolean managed = manager.getZone(name) == this;
+
+        if (managed && this.parent != null) this.parent.children.remove(this);
         this.parent = parent;
+        if (managed && parent != null) parent.children.add(this);
+
+        invalidateFlags(); // inherited flags may have changed
+        manager.invalidate(this); // lookups descend through the new parent
 
         // if we don't have the flags yet, we will inherit parent's by default
         for (Flag f : Flag.values())
@@ -212,16 +300,105 @@ public class Zone
     public void setFlag(Flag flag, State state)
     {
         flags.put(flag, state);
+        invalidateFlags(); // children inheriting the flag resolve it again on next use
+        manager.invalidate(this);
+    }
+
+    /**
+     * Mark the resolved flags of this zone and all of its children as out of date
+     */
+    private void invalidateFlags()
+    {
+        // resolving a zone resolves its parents first, so if we aren't resolved none of our children are either
+        if (!flagsResolved) return;
+
+        flagsResolved = false;
+        for (int i = 0; i < children.size(); i++)
+            children.get(i).invalidateFlags();
+    }
+
+    /**
+     * @return resolved flags of this zone, resolving them if out of date
+     */
+    int getResolvedFlags()
+    {
+        if (flagsResolved) return resolvedFlags;
+
+        manager.getMetrics().countFlagResolution();
+        int parentFlags = (parent == null) ? 0 : parent.getResolvedFlags();
+        int resolved = 0;
+
+        for (Flag f : FLAGS)
+        {
+            int shift = f.ordinal() * FLAG_BITS;
+            State state = flags.get(f);
+
+            // inherit the parent's resolved bits, if we have no parent we can only stay inheriting
+            if (state == State.INHERIT && parent != null) resolved |= parentFlags & (3 << shift);
+            else if (state != null) resolved |= (state.ordinal() + 1) << shift;
+        }
+
+        resolvedFlags = resolved;
+        flagsResolved = true;
+        return resolved;
     }
 
     /**
      * @return zone's parent
      */
-    protected Zone getParent()
+    public Zone getParent()
     {
         return parent;
     }
 
+    /**
+     * Check if this zone is the given zone or one of its descendants
+     * 
+     * @param zone
+     *            zone we might be within
+     * @return if we are zone or one of its descendants
+     */
+    public boolean isWithin(Zone zone)
+    {
+        for (Zone z = this; z != null; z = z.parent)
+            if (z == zone) return true;
+
+        return false;
+    }
+
+    /**
+     * @return zones which have this zone as their parent, not to be modified
+     */
+    protected List<Zone> getChildren()
+    {
+        return children;
+    }
+
+    /**
+     * @return interned id of the world this zone is in
+     */
+    protected int getWorldId()
+    {
+        return worldId;
+    }
+
+    /**
+     * @return id of the zone's node in snapshots, -1 if the zone was never added to a manager
+     */
+    int getNodeId()
+    {
+        return nodeId;
+    }
+
+    /**
+     * @param nodeId
+     *            id of the zone's node in snapshots, only set by the manager
+     */
+    void setNodeId(int nodeId)
+    {
+        this.nodeId = nodeId;
+    }
+
     /**
      * @return the world this zone is in
      */
@@ -238,6 +415,35 @@ public class Zone
         return name;
     }
 
+    /**
+     * @param access
+     *            access we want the permission node of
+     * @return permission node granting the access in this zone, polyzone.&lt;zone&gt;.&lt;access&gt;
+     */
+    public String getPermission(Access access)
+    {
+        return permissions[access.ordinal()];
+    }
+
+    /**
+     * @return players and groups given access to the zone, changes are saved with the zone
+     */
+    public ZoneMembers getMembers()
+    {
+        return members;
+    }
+
+    /**
+     * Replace the zone's members
+     * 
+     * @param members
+     *            players and groups given access to the zone
+     */
+    public void setMembers(ZoneMembers members)
+    {
+        this.members = new ZoneMembers(members);
+    }
+
     /**
      * @return the zone's greeting message
      */
@@ -254,8 +460,8 @@ public class Zone
         List<Point> points = new LinkedList<Point>();
 
         // go through all the points in the zone and add them
-        for (int i = 0; i < polyZone.npoints; i++)
-            points.add(new Point(polyZone.xpoints[i], polyZone.ypoints[i]));
+        for (int i = 0; i < getNumPoints(); i++)
+            points.add(new Point(polyZone.getX(i), polyZone.getY(i)));
 
         return points;
     }
@@ -268,13 +474,21 @@ public class Zone
         // no zone(0 points)
         if (polyZone == null) return 0;
 
-        return polyZone.npoints;
+        return polyZone.size();
+    }
+
+    /**
+     * @return our polygon, null for everywhere
+     */
+    protected ZonePolygon getPolygon()
+    {
+        return polyZone;
     }
 
     /**
      * @return zone's ceiling
      */
-    protected int getCeiling()
+    public int getCeiling()
     {
         return ceiling;
     }
@@ -282,7 +496,7 @@ public class Zone
     /**
      * @return zone's floor
      */
-    protected int getFloor()
+    public int getFloor()
     {
         return floor;
     }
@@ -292,7 +506,7 @@ public class Zone
      */
     public boolean isEmpty()
     {
-        return (polyZone == null || polyZone.npoints == 0);
+        return (polyZone == null || polyZone.size() == 0);
     }
 
     /**
@@ -303,19 +517,50 @@ public class Zone
         return farewell;
     }
 
+    /**
+     * Get the state set on this zone for the given flag, without inheritance
+     * 
+     * @param flag
+     *            flag we're looking for the state of
+     * @return state set for flag, null if never set
+     */
+    protected State getOwnFlagState(Flag flag)
+    {
+        return flags.get(flag);
+    }
+
     /**
      * Get the state of the given flag
      * 
      * @param flag
      *            flag we're looking for the state of
      * @return state of flag flag
+     * @throws IllegalStateException
+     *             if called off the main thread for a zone which isn't in the latest snapshot(e.g. one still being made)
      */
-    public State getFlagState(Flag flag)
+    public State getFlagState(Flag flag) throws IllegalStateException
     {
-        // we should give the parent's flag state if we're inheriting
-        if (flags.get(flag) == State.INHERIT) return parent.getFlagState(flag);
+        if (manager.isOwnerThread()) return getFlagState(getResolvedFlags(), flag);
 
-        return flags.get(flag);
+        // our flags are only resolved on the main thread, anywhere else reads them from the latest snapshot
+        State state = manager.getSnapshot().getFlagState(this, flag);
+        if (state == null) throw new IllegalStateException("Flags of zone " + name + " can only be read on the main thread until it's published!");
+
+        return state;
+    }
+
+    /**
+     * Get the state of a flag from resolved flags
+     * 
+     * @param resolvedFlags
+     *            resolved flags of a zone
+     * @param flag
+     *            flag we're looking for the state of
+     * @return state of flag flag
+     */
+    static State getFlagState(int resolvedFlags, Flag flag)
+    {
+        return RESOLVED_STATES[(resolvedFlags >>> (flag.ordinal() * FLAG_BITS)) & 3];
     }
 
     /**
@@ -331,10 +576,30 @@ public class Zone
      */
     public boolean inZone(int x, int y, int z, String world)
     {
-        // if the x and y(lateral) coords are in the polygon and the height(z) is within the floor and ceil params, we're in the zone provided we're
-        // on the right world
-        return (getName().equalsIgnoreCase("everywhere") || (polyZone.contains(x, y) && z > floor && z < ceiling && (this.world.equals(world) || this.world
-                .equals("everywhere")))) ? true : false;
+        return inZone(x, y, z, manager.getWorldId(world));
+    }
+
+    /**
+     * Check if the provided location are contained in this zone
+     * 
+     * @param x
+     *            x coord of the location
+     * @param y
+     *            y coord of the location
+     * @param z
+     *            z(height) of the location
+     * @param worldId
+     *            id of the location's world, see {@link ZoneManager#getWorldId(String)}
+     * @return if the location is in the zone
+     */
+    protected boolean inZone(int x, int y, int z, int worldId)
+    {
+        // everywhere has no polygon and contains everything
+        if (polyZone == null) return true;
+
+        // if the height(z) is within the floor and ceil params and we're on the right world, we're in the zone if the x and y(lateral) coords
+        // are in the polygon, cheapest checks first
+        return z > floor && z < ceiling && (allWorlds || this.worldId == worldId) && polyZone.contains(x, y);
     }
 
     /**
@@ -348,6 +613,42 @@ public class Zone
         PVP, SANCTUARY, HEALING, MOBS, FIRE, LIGHTENING, CREEPER, TNT
     }
 
+    /**
+     * What players can be allowed to do in a zone
+     * 
+     * @author taylorjb
+     * 
+     */
+    public enum Access
+    {
+        ADMIN("admin"), BUILD("build");
+
+        private final String node; // last part of the access's permission node
+        private final int bit; // bit of the access in a member's accesses
+
+        Access(String node)
+        {
+            this.node = node;
+            bit = 1 << ordinal();
+        }
+
+        /**
+         * @return last part of the access's permission node
+         */
+        public String getNode()
+        {
+            return node;
+        }
+
+        /**
+         * @return bit of the access in a member's accesses, see {@link ZoneMembers}
+         */
+        public int getBit()
+        {
+            return bit;
+        }
+    }
+
     /**
      * States for flags to be at
      * 
@@ -0,0 +1,55 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.List;
+
+/**
+ * Result of checking a zone's points before they're saved
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZoneCheck
+{
+    private final String problem; // why the points can't be used, null if they can
+    private final List<Zone> overlaps; // sibling zones the points overlap
+
+    /**
+     * Initialize the result
+     *
+     * @param problem
+     *            why the points can't be used, null if they can
+     * @param overlaps
+     *            sibling zones the points overlap
+     */
+    ZoneCheck(String problem, List<Zone> overlaps)
+    {
+        this.problem = problem;
+        this.overlaps = overlaps;
+    }
+
+    /**
+     * @return if the points make a valid zone
+     */
+    public boolean isValid()
+    {
+        return problem == null;
+    }
+
+    /**
+     * @return why the points can't be used, null if they can
+     */
+    public String getProblem()
+    {
+        return problem;
+    }
+
+    /**
+     * Sibling zones sharing area with the zone, allowed but lookups in the shared area only find one of them
+     *
+     * @return zones overlapping the zone
+     */
+    public List<Zone> getOverlaps()
+    {
+        return overlaps;
+    }
+}
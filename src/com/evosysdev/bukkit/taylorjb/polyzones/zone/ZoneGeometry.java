@@ -0,0 +1,459 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Checks on zone polygons made before a zone is saved
+ *
+ * Edges are checked against each other with a sweep line, a vertical line moved left to right over the edges' end points which keeps the
+ * edges it crosses sorted from bottom to top. Two edges can only meet once they are next to each other in that order, so each edge is only
+ * checked against its neighbours and a polygon is checked in O(n log n). Sweeping two polygons, the gaps between neighbouring edges also
+ * tell which area is inside which polygon. Everything is exact integer arithmetic, block coordinates are small enough that products fit in
+ * a long.
+ *
+ * @author taylorjb
+ *
+ */
+final class ZoneGeometry
+{
+    private static final int OUTSIDE_FIRST = 1, INSIDE_BOTH = 2; // areas a sweep of two polygons looks for, see Sweep
+
+    private ZoneGeometry()
+    {
+    }
+
+    /**
+     * Find edges of a polygon which cross or touch each other, other than neighbouring edges meeting at their shared vertex
+     *
+     * @param polygon
+     *            polygon to check
+     * @return the two edges which meet, edge i runs from vertex i - 1 to vertex i, or null if the polygon is simple
+     */
+    public static int[] findSelfCrossing(ZonePolygon polygon)
+    {
+        if (polygon.size() < 3) return null;
+
+        // the sweep only sees edges meeting where one starts and another stops if a vertex is used twice
+        long[] vertices = new long[polygon.size()];
+        for (int i = 0; i < vertices.length; i++)
+            vertices[i] = ((long) polygon.getX(i) << 32) | (polygon.getY(i) & 0xffffffffL);
+
+        long[] sorted = vertices.clone();
+        Arrays.sort(sorted);
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i] == sorted[i - 1])
+            {
+                int first = -1;
+                for (int v = 0; v < vertices.length; v++)
+                    if (vertices[v] == sorted[i])
+                    {
+                        if (first < 0) first = v;
+                        else return new int[] { first, v };
+                    }
+            }
+
+        return new Sweep(polygon, null, 0).run();
+    }
+
+    /**
+     * Check if one polygon is inside another, sharing parts of their boundary is fine
+     *
+     * @param outer
+     *            polygon which should contain the other, must be simple
+     * @param inner
+     *            polygon which should be contained, must be simple
+     * @return if every point of inner is inside or on outer
+     */
+    public static boolean contains(ZonePolygon outer, ZonePolygon inner)
+    {
+        // inner has no area to stick out with
+        if (inner.size() < 3) return true;
+        if (outer.size() < 3 || !boundsWithin(inner, outer)) return false;
+
+        // edges crossing or any area inside inner but not outer
+        return new Sweep(outer, inner, OUTSIDE_FIRST).run() == null;
+    }
+
+    /**
+     * Check if two polygons overlap, sharing parts of their boundary isn't overlapping
+     *
+     * @param a
+     *            one polygon, must be simple
+     * @param b
+     *            other polygon, must be simple
+     * @return if any area is inside both polygons
+     */
+    public static boolean overlaps(ZonePolygon a, ZonePolygon b)
+    {
+        if (a.size() < 3 || b.size() < 3) return false;
+
+        // bounding boxes apart, nothing to sweep
+        if (a.getMaxX() <= b.getMinX() || b.getMaxX() <= a.getMinX() || a.getMaxY() <= b.getMinY() || b.getMaxY() <= a.getMinY()) return false;
+
+        // edges crossing or any area inside both
+        return new Sweep(a, b, INSIDE_BOTH).run() != null;
+    }
+
+    /**
+     * @return if the bounding box of inner is within the bounding box of outer
+     */
+    private static boolean boundsWithin(ZonePolygon inner, ZonePolygon outer)
+    {
+        return inner.getMinX() >= outer.getMinX() && inner.getMinY() >= outer.getMinY() && inner.getMaxX() <= outer.getMaxX()
+                && inner.getMaxY() <= outer.getMaxY();
+    }
+
+    /**
+     * Sweep line over the edges of one polygon, or of two polygons
+     *
+     * With one polygon any edges meeting, other than neighbours at their shared vertex, are reported. With two polygons each is assumed to be
+     * simple and only edges of different polygons crossing through each other are reported, touching is fine. The gaps between neighbouring
+     * edges can be checked too, the nearest edge of a polygon below a gap and which side of it is inside tell if the gap is inside that
+     * polygon. Any area inside one polygon and not the other, or inside both, starts with a gap at some edge end so is found.
+     *
+     * @author taylorjb
+     *
+     */
+    private static class Sweep
+    {
+        private final long[] lx, ly, rx, ry; // left and right end of each edge, left is the smaller x(then y)
+        private final int[] edge; // index of each edge in its polygon
+        private final boolean[] insideAbove; // if the area above each edge is inside its polygon
+        private final int firstSize; // number of edges of the first polygon, edges after them are the second's
+        private final boolean self; // if we're checking a single polygon against itself
+        private final int gaps; // area between edges to report, OUTSIDE_FIRST(inside second only), INSIDE_BOTH or 0 for none
+        private TreeSet<Integer> crossed; // edges the line crosses, bottom to top
+        private TreeSet<Integer> crossedFirst, crossedSecond; // edges of each polygon the line crosses, when checking gaps
+
+        /**
+         * Initialize the sweep
+         *
+         * @param first
+         *            polygon whose edges are swept
+         * @param second
+         *            other polygon whose edges are swept, null to check first against itself
+         * @param gaps
+         *            area between edges to report, OUTSIDE_FIRST(inside second only), INSIDE_BOTH or 0 for none
+         */
+        private Sweep(ZonePolygon first, ZonePolygon second, int gaps)
+        {
+            firstSize = first.size();
+            self = second == null;
+            this.gaps = gaps;
+
+            int size = firstSize + (self ? 0 : second.size());
+            lx = new long[size];
+            ly = new long[size];
+            rx = new long[size];
+            ry = new long[size];
+            edge = new int[size];
+            insideAbove = new boolean[size];
+
+            addEdges(first, 0);
+            if (!self) addEdges(second, firstSize);
+        }
+
+        /**
+         * Add the edges of a polygon
+         *
+         * @param polygon
+         *            polygon whose edges are added
+         * @param offset
+         *            index of its first edge
+         */
+        private void addEdges(ZonePolygon polygon, int offset)
+        {
+            // twice the signed area, partial sums may overflow but the area itself fits
+            long area = 0;
+            for (int i = 0; i < polygon.size(); i++)
+            {
+                int prev = (i == 0 ? polygon.size() : i) - 1;
+                area += (long) polygon.getX(prev) * polygon.getY(i) - (long) polygon.getX(i) * polygon.getY(prev);
+            }
+
+            for (int i = 0; i < polygon.size(); i++)
+            {
+                int prev = (i == 0 ? polygon.size() : i) - 1, seg = offset + i;
+                long ax = polygon.getX(prev), ay = polygon.getY(prev), bx = polygon.getX(i), by = polygon.getY(i);
+                boolean aFirst = ax < bx || (ax == bx && ay <= by);
+
+                lx[seg] = aFirst ? ax : bx;
+                ly[seg] = aFirst ? ay : by;
+                rx[seg] = aFirst ? bx : ax;
+                ry[seg] = aFirst ? by : ay;
+                edge[seg] = i;
+
+                // going counter clockwise the inside is on the left, which is above for edges going right
+                insideAbove[seg] = (area > 0) == (bx > ax);
+            }
+        }
+
+        /**
+         * Move the line over every edge end
+         *
+         * @return the first two edges found which meet, by index in their polygon, or null if there are none
+         */
+        private int[] run()
+        {
+            // each edge starts at its left end and stops at its right one
+            Integer[] events = new Integer[lx.length * 2];
+            for (int i = 0; i < events.length; i++)
+                events[i] = i;
+
+            Arrays.sort(events, new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer a, Integer b)
+                {
+                    long ax = ((a & 1) == 0) ? lx[a >> 1] : rx[a >> 1], bx = ((b & 1) == 0) ? lx[b >> 1] : rx[b >> 1];
+                    if (ax != bx) return ax < bx ? -1 : 1;
+                    if (rank(a) != rank(b)) return rank(a) - rank(b);
+
+                    long ay = ((a & 1) == 0) ? ly[a >> 1] : ry[a >> 1], by = ((b & 1) == 0) ? ly[b >> 1] : ry[b >> 1];
+                    return (ay < by) ? -1 : ((ay == by) ? 0 : 1);
+                }
+            });
+
+            Comparator<Integer> height = new Comparator<Integer>()
+            {
+                @Override
+                public int compare(Integer a, Integer b)
+                {
+                    return compareHeight(a, b);
+                }
+            };
+            crossed = new TreeSet<Integer>(height);
+            crossedFirst = new TreeSet<Integer>(height);
+            crossedSecond = new TreeSet<Integer>(height);
+
+            List<Integer> changed = new ArrayList<Integer>(); // edges with new neighbours at this x
+            for (int i = 0; i < events.length; i++)
+            {
+                int event = events[i];
+                Integer seg = event >> 1;
+                if ((event & 1) == 0)
+                {
+                    crossed.add(seg);
+                    changed.add(seg);
+                    if (gaps != 0) owner(seg).add(seg);
+
+                    Integer below = crossed.lower(seg), above = crossed.higher(seg);
+                    if (below != null && meet(below, seg)) return new int[] { edge[below], edge[seg] };
+                    if (above != null && meet(seg, above)) return new int[] { edge[seg], edge[above] };
+                }
+                else
+                {
+                    // the edges either side become neighbours
+                    Integer below = crossed.lower(seg), above = crossed.higher(seg);
+                    crossed.remove(seg);
+                    if (gaps != 0) owner(seg).remove(seg);
+                    if (below != null) changed.add(below);
+
+                    if (below != null && above != null && meet(below, above)) return new int[] { edge[below], edge[above] };
+                }
+
+                // gaps are only checked once every edge at an x is in, edges between events at an x may not be neighbours to the right of it
+                if (gaps != 0 && (i + 1 == events.length || x(events[i + 1]) != x(event)))
+                {
+                    for (Integer gapBelow : changed)
+                    {
+                        if (!crossed.contains(gapBelow)) continue;
+
+                        Integer lower = crossed.lower(gapBelow), higher = crossed.higher(gapBelow);
+                        if (lower != null && isReported(lower, gapBelow)) return new int[] { edge[lower], edge[gapBelow] };
+                        if (higher != null && isReported(gapBelow, higher)) return new int[] { edge[gapBelow], edge[higher] };
+                    }
+                    changed.clear();
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * @return edges crossed of the polygon an edge is from
+         */
+        private TreeSet<Integer> owner(int seg)
+        {
+            return (seg < firstSize) ? crossedFirst : crossedSecond;
+        }
+
+        /**
+         * @return x of an event
+         */
+        private long x(int event)
+        {
+            return ((event & 1) == 0) ? lx[event >> 1] : rx[event >> 1];
+        }
+
+        /**
+         * Check if the gap between two neighbouring edges is an area we're looking for
+         *
+         * Only edges going on to the right of the line are crossed when gaps are checked, and a simple polygon's edges don't overlap, so the
+         * nearest edge of a polygon at or below the gap tells if the gap is inside it.
+         *
+         * @param below
+         *            edge below the gap
+         * @param above
+         *            edge above the gap
+         * @return if the gap is reported
+         */
+        private boolean isReported(Integer below, Integer above)
+        {
+            // edges on the same line have no gap between them
+            if (onLine(below, above)) return false;
+
+            Integer nearFirst = crossedFirst.floor(below), nearSecond = crossedSecond.floor(below);
+            boolean first = nearFirst != null && insideAbove[nearFirst], second = nearSecond != null && insideAbove[nearSecond];
+
+            return (gaps == INSIDE_BOTH) ? first && second : !first && second;
+        }
+
+        /**
+         * @return if edge b is on the same line as edge a
+         */
+        private boolean onLine(int a, int b)
+        {
+            return orient(a, lx[b], ly[b]) == 0 && orient(a, rx[b], ry[b]) == 0;
+        }
+
+        /**
+         * Order of events at the same x
+         *
+         * Against itself, edges starting at an x go in before ones stopping there so edges only touching there are still compared. Against
+         * another polygon touching is fine, and edges stopping at an x come out first so every edge in the line goes on to the right and
+         * can be ordered by where it goes. Vertical edges only exist at their x so they stop last.
+         *
+         * @param event
+         *            edge times 2, plus 1 for its right end
+         * @return rank of the event, lower ranks go first
+         */
+        private int rank(int event)
+        {
+            if ((event & 1) == 0) return self ? 0 : 1;
+            if (self) return 1;
+
+            return (lx[event >> 1] == rx[event >> 1]) ? 2 : 0;
+        }
+
+        /**
+         * Order two edges the line crosses from bottom to top
+         *
+         * The edge which started later is compared against the line of the other where it starts. As long as no edges have crossed yet this
+         * order is the same wherever the line is.
+         *
+         * @return negative if a is below b, positive if above
+         */
+        private int compareHeight(int a, int b)
+        {
+            if (a == b) return 0;
+
+            boolean aLater = lx[a] > lx[b] || (lx[a] == lx[b] && (ly[a] > ly[b] || (ly[a] == ly[b] && a > b)));
+            int side = aLater ? side(b, a) : -side(a, b);
+
+            // edges on the same line are ordered by index
+            return (side != 0) ? side : (a < b ? -1 : 1);
+        }
+
+        /**
+         * @param seg
+         *            edge the other is compared to
+         * @param later
+         *            edge whose left end is within seg's span of x
+         * @return 1 if later is above seg, -1 if below, 0 if they are on the same line
+         */
+        private int side(int seg, int later)
+        {
+            if (lx[seg] == rx[seg])
+            { // vertical edges only meet the line at one x, compare heights there
+                if (ly[later] > ry[seg]) return 1;
+                if (ly[later] < ly[seg]) return -1;
+                if (lx[later] == rx[later]) return 0;
+
+                // starts on the vertical edge, only the top end of it counts as above
+                return (ly[later] == ry[seg]) ? 1 : -1;
+            }
+
+            long side = orient(seg, lx[later], ly[later]);
+            if (side == 0) side = orient(seg, rx[later], ry[later]);
+
+            return Long.signum(side);
+        }
+
+        /**
+         * Check if two edges meet in a way which is a problem
+         *
+         * @return if the edges meet
+         */
+        private boolean meet(int a, int b)
+        {
+            boolean sameOwner = (a < firstSize) == (b < firstSize);
+
+            // edges of different polygons may touch, just not cross through each other
+            if (!sameOwner) return crosses(a, b);
+            if (!self) return false;
+
+            // neighbouring edges share a vertex, they can't double back along each other though
+            int gap = Math.abs(edge[a] - edge[b]);
+            if (gap == 1 || gap == firstSize - 1) return overlapsAlong(a, b);
+
+            return touches(a, b);
+        }
+
+        /**
+         * @return if two edges cross at a point inside both, without either just touching the other
+         */
+        private boolean crosses(int a, int b)
+        {
+            long o1 = orient(a, lx[b], ly[b]), o2 = orient(a, rx[b], ry[b]), o3 = orient(b, lx[a], ly[a]), o4 = orient(b, rx[a], ry[a]);
+            return ((o1 > 0 && o2 < 0) || (o1 < 0 && o2 > 0)) && ((o3 > 0 && o4 < 0) || (o3 < 0 && o4 > 0));
+        }
+
+        /**
+         * @return if two edges have any point in common
+         */
+        private boolean touches(int a, int b)
+        {
+            if (crosses(a, b)) return true;
+
+            return (orient(a, lx[b], ly[b]) == 0 && within(a, lx[b], ly[b])) || (orient(a, rx[b], ry[b]) == 0 && within(a, rx[b], ry[b]))
+                    || (orient(b, lx[a], ly[a]) == 0 && within(b, lx[a], ly[a])) || (orient(b, rx[a], ry[a]) == 0 && within(b, rx[a], ry[a]));
+        }
+
+        /**
+         * @return if two edges are on the same line and have more than a point in common
+         */
+        private boolean overlapsAlong(int a, int b)
+        {
+            if (orient(a, lx[b], ly[b]) != 0 || orient(a, rx[b], ry[b]) != 0) return false;
+
+            // ends along a line are in the same order as their x(then y), overlapping if the later left end is before the earlier right end
+            boolean aLeftLater = lx[a] > lx[b] || (lx[a] == lx[b] && ly[a] > ly[b]);
+            boolean aRightEarlier = rx[a] < rx[b] || (rx[a] == rx[b] && ry[a] < ry[b]);
+            long leftX = aLeftLater ? lx[a] : lx[b], leftY = aLeftLater ? ly[a] : ly[b];
+            long rightX = aRightEarlier ? rx[a] : rx[b], rightY = aRightEarlier ? ry[a] : ry[b];
+
+            return leftX < rightX || (leftX == rightX && leftY < rightY);
+        }
+
+        /**
+         * @return positive if x, y is left of(above) edge seg going from its left end to its right end, negative if right, 0 if on its line
+         */
+        private long orient(int seg, long x, long y)
+        {
+            return (rx[seg] - lx[seg]) * (y - ly[seg]) - (ry[seg] - ly[seg]) * (x - lx[seg]);
+        }
+
+        /**
+         * @return if x, y is within the bounding box of edge seg
+         */
+        private boolean within(int seg, long x, long y)
+        {
+            return x >= lx[seg] && x <= rx[seg] && y >= Math.min(ly[seg], ry[seg]) && y <= Math.max(ly[seg], ry[seg]);
+        }
+    }
+}
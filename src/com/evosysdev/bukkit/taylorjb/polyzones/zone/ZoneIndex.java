@@ -0,0 +1,488 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneSnapshot.Node;
+
+/**
+ * Spatial index of a snapshot's zones partitioned by world and keyed by chunk
+ *
+ * Each world id has its own partition so a lookup only ever sees zones of its own world. Each chunk maps to the ids of the zones whose
+ * polygon bounds overlap it, so a lookup only has to test a handful of candidates. Zones spanning too many chunks, or zones in the
+ * "everywhere" world, are kept as wide zones which are included in every chunk of their world(s).
+ *
+ * An index is never changed once built, so any thread can read it. A snapshot's index is made from the last one's, sharing every partition
+ * and every region of REGION_BITS chunks a side which didn't change, so changing a zone only copies the regions it overlaps. Changing a
+ * wide zone copies its whole partition, or every partition for wide zones of everywhere.
+ *
+ * The only mutable part is a cache of chunk profiles, each slot holds an immutable profile so a reader either sees a whole profile or none.
+ * The cache is set associative, a chunk's profile can be in any of the PROFILE_WAYS slots of its set, so neighbouring chunks rarely push
+ * each other out. Profiles of chunks no changed zone overlaps are carried over to the next index.
+ *
+ * @author taylorjb
+ *
+ */
+class ZoneIndex
+{
+    public static final int EVERYWHERE = 0; // world id of zones in every world
+    private static final int MAX_CHUNKS = 1024; // zones covering more chunks than this are treated as wide
+    private static final int REGION_BITS = 5; // regions are 2^REGION_BITS chunks a side
+    private static final int REGION_MASK = (1 << REGION_BITS) - 1; // chunk coord bits of a chunk's place in its region
+    private static final int PROFILE_SLOTS = 1 << 15; // number of cached chunk profiles, a power of 2
+    private static final int PROFILE_WAYS = 8; // slots in each set of the profile cache, a power of 2
+    private static final int[] NONE = new int[0]; // no zones
+
+    private final Partition[] partitions; // partition of each world, by world id
+    private final int[] everywhereCandidates; // wide zones of everywhere, the candidates of worlds with no partition
+    private final AtomicReferenceArray<ChunkProfile> profiles; // cached chunk profiles, in sets of PROFILE_WAYS slots
+
+    /**
+     * Build the index from scratch
+     *
+     * @param nodes
+     *            zones to be indexed, parents before their children
+     * @param numWorlds
+     *            number of world ids handed out
+     */
+    public ZoneIndex(Collection<Node> nodes, int numWorlds)
+    {
+        List<List<Integer>> wide = new ArrayList<List<Integer>>(numWorlds); // zones too wide to index by chunk, by world
+        List<LongMap<List<Integer>>> chunks = new ArrayList<LongMap<List<Integer>>>(numWorlds); // chunk key -> zones overlapping chunk, by world
+        for (int id = 0; id < numWorlds; id++)
+        {
+            wide.add(new ArrayList<Integer>());
+            chunks.add(new LongMap<List<Integer>>());
+        }
+
+        for (Node node : nodes)
+        {
+            // empty zones(and everywhere) can't contain anything, nothing to index
+            if (!isIndexed(node)) continue;
+
+            ZonePolygon polygon = node.polygon;
+            if (isWide(node)) wide.get(node.worldId).add(node.id);
+            else
+            {
+                LongMap<List<Integer>> worldChunks = chunks.get(node.worldId);
+                for (int x = polygon.getMinX() >> 4; x <= polygon.getMaxX() >> 4; x++)
+                    for (int z = polygon.getMinY() >> 4; z <= polygon.getMaxY() >> 4; z++)
+                    {
+                        long key = key(x, z);
+                        List<Integer> chunk = worldChunks.get(key);
+                        if (chunk == null)
+                        {
+                            chunk = new ArrayList<Integer>();
+                            worldChunks.put(key, chunk);
+                        }
+                        chunk.add(node.id);
+                    }
+            }
+        }
+
+        // wide zones are part of every chunk in their world(s)
+        partitions = new Partition[numWorlds];
+        int[] everywhereWide = toArray(wide.get(EVERYWHERE));
+        for (int id = 0; id < numWorlds; id++)
+        {
+            int[] worldWide = toArray(wide.get(id));
+            partitions[id] = new Partition(worldWide, (id == EVERYWHERE) ? worldWide : concat(worldWide, everywhereWide), new LongMap<int[][]>());
+
+            LongMap<List<Integer>> worldChunks = chunks.get(id);
+            LongMap<int[][]> owned = new LongMap<int[][]>();
+            for (long key : worldChunks.keys())
+            {
+                int chunkX = (int) (key >> 32), chunkZ = (int) key;
+                getRegion(partitions[id], owned, chunkX, chunkZ)[slot(chunkX, chunkZ)] = concat(partitions[id].wideCandidates,
+                        toArray(worldChunks.get(key)));
+            }
+        }
+
+        everywhereCandidates = partitions[EVERYWHERE].wideCandidates;
+        profiles = new AtomicReferenceArray<ChunkProfile>(PROFILE_SLOTS);
+    }
+
+    /**
+     * Make an index from the one before it, changing only the partitions and regions the changed zones overlap
+     *
+     * @param previous
+     *            index of the last snapshot
+     * @param removed
+     *            nodes leaving the index, as they were indexed in previous
+     * @param added
+     *            nodes joining the index, a zone whose shape changed is both removed as it was and added as it is now
+     * @param numWorlds
+     *            number of world ids handed out
+     */
+    public ZoneIndex(ZoneIndex previous, Collection<Node> removed, Collection<Node> added, int numWorlds)
+    {
+        // worlds given ids since the last index start out with only the everywhere zones
+        partitions = Arrays.copyOf(previous.partitions, Math.max(numWorlds, previous.partitions.length));
+        for (int id = previous.partitions.length; id < partitions.length; id++)
+            partitions[id] = new Partition(NONE, previous.everywhereCandidates, new LongMap<int[][]>());
+
+        // wide zones are part of every chunk in their world(s), so a change to one rebuilds the whole partition(s)
+        int[][] wide = new int[partitions.length][];
+        boolean[] rebuilt = new boolean[partitions.length];
+        for (int id = 0; id < partitions.length; id++)
+            wide[id] = partitions[id].wide;
+        for (Node node : removed)
+            if (isIndexed(node) && isWide(node))
+            {
+                wide[node.worldId] = without(wide[node.worldId], node.id, 0);
+                rebuilt[node.worldId] = true;
+            }
+        for (Node node : added)
+            if (isIndexed(node) && isWide(node))
+            {
+                wide[node.worldId] = with(wide[node.worldId], node.id);
+                rebuilt[node.worldId] = true;
+            }
+        if (rebuilt[EVERYWHERE]) Arrays.fill(rebuilt, true);
+
+        // regions made for this index, by world, the rest may be shared with older indexes and can't be changed
+        List<LongMap<int[][]>> owned = new ArrayList<LongMap<int[][]>>(Collections.nCopies(partitions.length, (LongMap<int[][]>) null));
+        for (int id = 0; id < partitions.length; id++)
+            if (rebuilt[id])
+            {
+                owned.set(id, new LongMap<int[][]>());
+                partitions[id] = rebuild(partitions[id], wide[id], (id == EVERYWHERE) ? wide[id] : concat(wide[id], wide[EVERYWHERE]), owned.get(id));
+            }
+
+        // other zones are only in the chunks they overlap
+        for (Node node : removed)
+            if (isIndexed(node) && !isWide(node)) edit(node, false, owned);
+        for (Node node : added)
+            if (isIndexed(node) && !isWide(node)) edit(node, true, owned);
+
+        everywhereCandidates = partitions[EVERYWHERE].wideCandidates;
+
+        // profiles of chunks whose candidates didn't change still hold
+        profiles = new AtomicReferenceArray<ChunkProfile>(PROFILE_SLOTS);
+        if (rebuilt[EVERYWHERE]) return;
+
+        for (int slot = 0; slot < PROFILE_SLOTS; slot++)
+        {
+            // profiles of worlds without an id only have everywhere's zones
+            ChunkProfile profile = previous.profiles.get(slot);
+            if (profile != null && (profile.getWorld() < 0 || profile.getWorld() >= rebuilt.length || !rebuilt[profile.getWorld()]))
+                profiles.set(slot, profile);
+        }
+
+        // threads still using the previous index may have cached more profiles while they were copied, so drop the changed chunks after
+        for (Node node : removed)
+            if (isIndexed(node) && !isWide(node)) removeProfiles(node);
+        for (Node node : added)
+            if (isIndexed(node) && !isWide(node)) removeProfiles(node);
+    }
+
+    /**
+     * Get the ids of the zones which may contain blocks in a chunk
+     *
+     * @param world
+     *            id of the world the chunk is in, worlds without an id in the index only have the everywhere zones
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     * @return ids of the zones overlapping the chunk, not to be modified
+     */
+    public int[] getCandidates(int world, int chunkX, int chunkZ)
+    {
+        if (world < 0 || world >= partitions.length) return everywhereCandidates;
+
+        Partition partition = partitions[world];
+        int[][] region = partition.regions.get(key(chunkX >> REGION_BITS, chunkZ >> REGION_BITS));
+        int[] chunk = (region == null) ? null : region[slot(chunkX, chunkZ)];
+
+        // no chunk entry, only wide zones could contain it
+        return (chunk != null) ? chunk : partition.wideCandidates;
+    }
+
+    /**
+     * Get the cached profile of a chunk
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param key
+     *            key of the chunk
+     * @return profile of the chunk or null if there is none cached
+     */
+    public ChunkProfile getProfile(int world, long key)
+    {
+        int set = hash(world, key) & (PROFILE_SLOTS - PROFILE_WAYS);
+        for (int slot = set; slot < set + PROFILE_WAYS; slot++)
+        {
+            // the set holds other chunks' profiles too
+            ChunkProfile profile = profiles.get(slot);
+            if (profile != null && profile.isFor(world, key)) return profile;
+        }
+
+        return null;
+    }
+
+    /**
+     * Cache the profile of a chunk, replacing another profile in its set if the set is full
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param key
+     *            key of the chunk
+     * @param profile
+     *            profile of the chunk
+     */
+    public void putProfile(int world, long key, ChunkProfile profile)
+    {
+        int hash = hash(world, key), set = hash & (PROFILE_SLOTS - PROFILE_WAYS);
+        for (int slot = set; slot < set + PROFILE_WAYS; slot++)
+            if (profiles.get(slot) == null && profiles.compareAndSet(slot, null, profile)) return;
+
+        // set is full, hash bits the set wasn't picked with choose which profile goes
+        profiles.set(set + ((hash >>> 24) & (PROFILE_WAYS - 1)), profile);
+    }
+
+    /**
+     * Drop the cached profile of a chunk, e.g. when it unloads
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param key
+     *            key of the chunk
+     */
+    public void removeProfile(int world, long key)
+    {
+        int set = hash(world, key) & (PROFILE_SLOTS - PROFILE_WAYS);
+        for (int slot = set; slot < set + PROFILE_WAYS; slot++)
+        {
+            // threads caching the chunk at once may each have put it in the set, only clear slots still holding it
+            ChunkProfile profile = profiles.get(slot);
+            if (profile != null && profile.isFor(world, key)) profiles.compareAndSet(slot, profile, null);
+        }
+    }
+
+    /**
+     * @return key of the chunk at chunkX, chunkZ
+     */
+    public static long key(int chunkX, int chunkZ)
+    {
+        return ((long) chunkX << 32) | (chunkZ & 0xffffffffL);
+    }
+
+    /**
+     * @return hash of a chunk for the profile cache, spread with a multiplicative hash as neighbouring chunks differ only in low bits
+     */
+    private static int hash(int world, long key)
+    {
+        long hash = (key + world) * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Add or remove a zone in every chunk it overlaps
+     *
+     * @param node
+     *            node of the zone, not wide
+     * @param add
+     *            if the zone is added, otherwise it's removed
+     * @param owned
+     *            regions made for this index, by world
+     */
+    private void edit(Node node, boolean add, List<LongMap<int[][]>> owned)
+    {
+        // the partition may still be shared with the previous index, copy its region map before changing it
+        Partition partition = partitions[node.worldId];
+        LongMap<int[][]> regions = owned.get(node.worldId);
+        if (regions == null)
+        {
+            partition = new Partition(partition.wide, partition.wideCandidates, new LongMap<int[][]>(partition.regions));
+            partitions[node.worldId] = partition;
+            regions = new LongMap<int[][]>();
+            owned.set(node.worldId, regions);
+        }
+
+        ZonePolygon polygon = node.polygon;
+        int numWide = partition.wideCandidates.length;
+        for (int x = polygon.getMinX() >> 4; x <= polygon.getMaxX() >> 4; x++)
+            for (int z = polygon.getMinY() >> 4; z <= polygon.getMaxY() >> 4; z++)
+            {
+                int[][] region = getRegion(partition, regions, x, z);
+                int slot = slot(x, z);
+                int[] chunk = (region[slot] == null) ? partition.wideCandidates : region[slot];
+                chunk = add ? with(chunk, node.id) : without(chunk, node.id, numWide);
+
+                // chunks with only wide zones use the partition's wide candidates
+                region[slot] = (chunk.length == numWide) ? null : chunk;
+            }
+    }
+
+    /**
+     * Drop the cached profiles of every chunk a zone overlaps
+     *
+     * @param node
+     *            node of the zone, not wide
+     */
+    private void removeProfiles(Node node)
+    {
+        ZonePolygon polygon = node.polygon;
+        for (int x = polygon.getMinX() >> 4; x <= polygon.getMaxX() >> 4; x++)
+            for (int z = polygon.getMinY() >> 4; z <= polygon.getMaxY() >> 4; z++)
+                removeProfile(node.worldId, key(x, z));
+    }
+
+    /**
+     * Copy a partition with new wide zones, every chunk's candidates start with the wide ones so every region is copied
+     *
+     * @param partition
+     *            partition to copy
+     * @param wide
+     *            ids of the world's own wide zones
+     * @param wideCandidates
+     *            ids of the wide zones of the world and of everywhere
+     * @param owned
+     *            where the copied regions are put
+     * @return the copy
+     */
+    private static Partition rebuild(Partition partition, int[] wide, int[] wideCandidates, LongMap<int[][]> owned)
+    {
+        Partition rebuilt = new Partition(wide, wideCandidates, new LongMap<int[][]>());
+        int numWide = partition.wideCandidates.length;
+        for (long key : partition.regions.keys())
+        {
+            int[][] region = partition.regions.get(key).clone();
+            for (int slot = 0; slot < region.length; slot++)
+                if (region[slot] != null) region[slot] = concat(wideCandidates, Arrays.copyOfRange(region[slot], numWide, region[slot].length));
+
+            rebuilt.regions.put(key, region);
+            owned.put(key, region);
+        }
+
+        return rebuilt;
+    }
+
+    /**
+     * Get the region of a partition a chunk is in, to be changed
+     *
+     * @param partition
+     *            partition the chunk is in
+     * @param owned
+     *            regions made for this index in the partition, others are copied before they're changed
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     * @return candidates of each chunk in the region
+     */
+    private static int[][] getRegion(Partition partition, LongMap<int[][]> owned, int chunkX, int chunkZ)
+    {
+        long key = key(chunkX >> REGION_BITS, chunkZ >> REGION_BITS);
+        int[][] region = owned.get(key);
+        if (region == null)
+        {
+            int[][] shared = partition.regions.get(key);
+            region = (shared == null) ? new int[1 << (2 * REGION_BITS)][] : shared.clone();
+            owned.put(key, region);
+            partition.regions.put(key, region);
+        }
+
+        return region;
+    }
+
+    /**
+     * @return place of a chunk in its region
+     */
+    private static int slot(int chunkX, int chunkZ)
+    {
+        return (chunkX & REGION_MASK) << REGION_BITS | (chunkZ & REGION_MASK);
+    }
+
+    /**
+     * @return if a zone can contain anything, empty zones(and everywhere) aren't indexed
+     */
+    private static boolean isIndexed(Node node)
+    {
+        return node.polygon != null && node.polygon.size() > 0;
+    }
+
+    /**
+     * @return if a zone is in every world or covers too many chunks to index by chunk
+     */
+    private static boolean isWide(Node node)
+    {
+        ZonePolygon polygon = node.polygon;
+        long width = (polygon.getMaxX() >> 4) - (polygon.getMinX() >> 4) + 1, depth = (polygon.getMaxY() >> 4) - (polygon.getMinY() >> 4) + 1;
+        return node.worldId == EVERYWHERE || width * depth > MAX_CHUNKS;
+    }
+
+    /**
+     * @return ids followed by an id
+     */
+    private static int[] with(int[] ids, int id)
+    {
+        int[] copy = Arrays.copyOf(ids, ids.length + 1);
+        copy[ids.length] = id;
+        return copy;
+    }
+
+    /**
+     * @return ids without an id, only looking for it from index from on
+     */
+    private static int[] without(int[] ids, int id, int from)
+    {
+        for (int i = from; i < ids.length; i++)
+            if (ids[i] == id)
+            {
+                int[] copy = new int[ids.length - 1];
+                System.arraycopy(ids, 0, copy, 0, i);
+                System.arraycopy(ids, i + 1, copy, i, copy.length - i);
+                return copy;
+            }
+
+        return ids;
+    }
+
+    /**
+     * @return first ids followed by second ids
+     */
+    private static int[] concat(int[] first, int[] second)
+    {
+        int[] ids = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, ids, first.length, second.length);
+        return ids;
+    }
+
+    /**
+     * @return ids in a list
+     */
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = list.get(i);
+
+        return ids;
+    }
+
+    /**
+     * Zones of a single world
+     *
+     * @author taylorjb
+     *
+     */
+    private static class Partition
+    {
+        private final int[] wide; // ids of the world's own wide zones
+        private final int[] wideCandidates; // ids of the wide zones of the world and of everywhere, every chunk's candidates start with them
+        private final LongMap<int[][]> regions; // region key -> candidates of each chunk in the region, null for chunks with only wide zones
+
+        private Partition(int[] wide, int[] wideCandidates, LongMap<int[][]> regions)
+        {
+            this.wide = wide;
+            this.wideCandidates = wideCandidates;
+            this.regions = regions;
+        }
+    }
+}
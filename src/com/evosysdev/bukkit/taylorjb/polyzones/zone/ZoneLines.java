@@ -0,0 +1,190 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.UUID;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Line per zone text format, for exporting and importing every zone as one file
+ *
+ * Each zone is a line of tab separated fields: name, parent, world, floor, ceiling, greeting, farewell, flags(FLAG=STATE,...), points(x,y
+ * ...) and members(uuid=accesses or g:group=accesses ...). Tabs, line breaks and backslashes in text are escaped with a backslash and a
+ * missing parent, greeting or farewell is \N. Empty lines and lines starting with # are ignored, so a file can be read and written a line at
+ * a time.
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZoneLines
+{
+    public static final String HEADER = "# PolyZones zones v1"; // first line of an export
+    private static final int FIELDS = 10; // fields in a zone's line
+
+    private ZoneLines()
+    {
+    }
+
+    /**
+     * Write a zone as a line
+     *
+     * @param record
+     *            record of the zone
+     * @param out
+     *            where the line is written
+     * @throws IOException
+     *             if writing failed
+     */
+    public static void write(ZoneRecord record, Writer out) throws IOException
+    {
+        StringBuilder line = new StringBuilder(64 + record.getNumPoints() * 12);
+        escape(line, record.getName()).append('\t');
+        escape(line, record.getParent()).append('\t');
+        escape(line, record.getWorld()).append('\t');
+        line.append(record.getFloor()).append('\t').append(record.getCeiling()).append('\t');
+        escape(line, record.getGreeting()).append('\t');
+        escape(line, record.getFarewell()).append('\t');
+
+        boolean first = true;
+        for (Flag f : Flag.values())
+        {
+            if (record.getFlag(f) == null) continue;
+
+            line.append(first ? "" : ",").append(f.name()).append('=').append(record.getFlag(f).name());
+            first = false;
+        }
+        line.append('\t');
+
+        for (int i = 0; i < record.getNumPoints(); i++)
+            line.append((i == 0) ? "" : " ").append(record.getX(i)).append(',').append(record.getY(i));
+        line.append('\t');
+
+        ZoneMembers members = record.getMembers();
+        first = true;
+        for (UUID id : members.getPlayers())
+        {
+            line.append(first ? "" : " ").append(id).append('=').append(ZoneMembers.describe(members.getPlayer(id)));
+            first = false;
+        }
+        for (String group : members.getGroups())
+        {
+            line.append(first ? "" : " ").append("g:").append(group).append('=').append(ZoneMembers.describe(members.getGroup(group)));
+            first = false;
+        }
+
+        out.write(line.append('\n').toString());
+    }
+
+    /**
+     * Read a zone from its line
+     *
+     * @param line
+     *            line of the zone, without its line break
+     * @return record of the zone
+     * @throws InvalidConfigurationException
+     *             if the line isn't a zone
+     */
+    public static ZoneRecord read(String line) throws InvalidConfigurationException
+    {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != FIELDS) throw new InvalidConfigurationException("Expected " + FIELDS + " fields but found " + fields.length + "!");
+
+        try
+        {
+            State[] flags = new State[Flag.values().length];
+            if (!fields[7].isEmpty()) for (String flag : fields[7].split(","))
+            {
+                int split = flag.indexOf('=');
+                flags[Flag.valueOf(flag.substring(0, split)).ordinal()] = State.valueOf(flag.substring(split + 1));
+            }
+
+            String[] points = fields[8].isEmpty() ? new String[0] : fields[8].split(" ");
+            int[] xs = new int[points.length], ys = new int[points.length];
+            for (int i = 0; i < points.length; i++)
+            {
+                int split = points[i].indexOf(',');
+                xs[i] = Integer.parseInt(points[i].substring(0, split));
+                ys[i] = Integer.parseInt(points[i].substring(split + 1));
+            }
+
+            ZoneMembers members = new ZoneMembers();
+            if (!fields[9].isEmpty()) for (String member : fields[9].split(" "))
+            {
+                int split = member.lastIndexOf('=');
+                int accesses = ZoneMembers.parse(member.substring(split + 1));
+
+                if (member.startsWith("g:")) members.setGroup(member.substring(2, split), accesses);
+                else members.setPlayer(UUID.fromString(member.substring(0, split)), accesses);
+            }
+
+            String name = unescape(fields[0]), world = unescape(fields[2]);
+            if (name == null || name.isEmpty() || world == null) throw new InvalidConfigurationException("Zone has no name or world!");
+
+            return new ZoneRecord(name, unescape(fields[1]), world, unescape(fields[5]), unescape(fields[6]), Integer.parseInt(fields[3]),
+                    Integer.parseInt(fields[4]), xs, ys, flags, members);
+        }
+        catch (IllegalArgumentException iae)
+        { // bad number, flag, state, access or player id
+            throw new InvalidConfigurationException("Invalid zone: " + iae.getMessage(), iae);
+        }
+        catch (StringIndexOutOfBoundsException sioobe)
+        { // flag, point or member without its separator
+            throw new InvalidConfigurationException("Invalid zone: " + sioobe.getMessage(), sioobe);
+        }
+    }
+
+    /**
+     * Append text with tabs, line breaks and backslashes escaped, \N for null
+     */
+    private static StringBuilder escape(StringBuilder line, String text)
+    {
+        if (text == null) return line.append("\\N");
+
+        for (int i = 0; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c == '\\') line.append("\\\\");
+            else if (c == '\t') line.append("\\t");
+            else if (c == '\n') line.append("\\n");
+            else if (c == '\r') line.append("\\r");
+            else line.append(c);
+        }
+
+        return line;
+    }
+
+    /**
+     * Undo {@link #escape(StringBuilder, String)}
+     */
+    private static String unescape(String field) throws InvalidConfigurationException
+    {
+        if (field.equals("\\N")) return null;
+        if (field.indexOf('\\') < 0) return field;
+
+        StringBuilder text = new StringBuilder(field.length());
+        for (int i = 0; i < field.length(); i++)
+        {
+            char c = field.charAt(i);
+            if (c != '\\')
+            {
+                text.append(c);
+                continue;
+            }
+
+            if (++i == field.length()) throw new InvalidConfigurationException("Text ends in an escape!");
+
+            c = field.charAt(i);
+            if (c == '\\') text.append('\\');
+            else if (c == 't') text.append('\t');
+            else if (c == 'n') text.append('\n');
+            else if (c == 'r') text.append('\r');
+            else throw new InvalidConfigurationException("Unknown escape \\" + c + "!");
+        }
+
+        return text.toString();
+    }
+}
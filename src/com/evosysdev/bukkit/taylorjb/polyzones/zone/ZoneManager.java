@@ -4,31 +4,73 @@ import java.awt.Point;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Logger;
 
 import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
 import org.bukkit.configuration.InvalidConfigurationException;
-import org.bukkit.configuration.file.FileConfiguration;
-import org.bukkit.configuration.file.YamlConfiguration;
 
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
 import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
 
+/**
+ * Manages every zone, their hierarchy and where they're saved
+ * 
+ * Zones are only changed on the thread which made the manager(the main thread). Lookups are answered from an immutable snapshot of the
+ * zones which is remade whenever something changed, so lookups may be made from any thread, see {@link ZoneSnapshot}.
+ * 
+ * When the manager is told which worlds are loaded, zones of other worlds are only kept as their records(parked) until their world loads,
+ * and parked again when it unloads. Everywhere and zones in every world are always loaded, as is the parent of any loaded zone.
+ * 
+ * @author taylorjb
+ * 
+ */
 public class ZoneManager
 {
-    private Map<String, Zone> zones; // map of zones we're managing
-    private final String path; // path to zones/saving
+    private static final Charset UTF8 = Charset.forName("UTF-8"); // charset of exported zones
+
+    private Map<String, Zone> zones; // map of zones we're managing, by lowercased name
+    private final ZoneNames names; // names of every zone, loaded or parked
+    private Zone root; // zone every other zone descends from(everywhere)
+    private final Map<String, ZoneRecord> parked; // records of zones whose world isn't loaded by lowercased name, parents before children
+    private final Set<String> loadedWorlds; // worlds whose zones are loaded, null if every world's are
+    private final ZoneStore store; // where our zones are saved
+    private final ZonePersister persister; // saves changed zones to our store in the background
+    private final Map<String, Integer> worldIds; // world name -> world id, ids are never reused
+    private final Thread owner; // thread zones are changed on
+    private final ZoneMetrics metrics; // runtime metrics of our zones
+    private final Logger logger; // where we report problems loading and saving zones
+
+    private volatile ZoneSnapshot snapshot; // latest published snapshot of our zones
+    private boolean dirty; // if zones changed since the snapshot was published, only used on the owner thread
+    private final Set<Zone> changed; // zones changed or added since the snapshot was published, only used on the owner thread
+    private final Set<Zone> removed; // zones taken out since the snapshot was published, only used on the owner thread
+    private final List<Integer> freeIds; // node ids of zones no published snapshot has any more, handed out again first
+    private int numIds; // number of node ids handed out
+    private long version; // version of the latest snapshot
 
     /**
-     * Initialize our manager
+     * Initialize our manager with zones saved in the .pz layout
      * 
      * @param path
      *            path to zones/saving
@@ -37,8 +79,65 @@ public class ZoneManager
      */
     public ZoneManager(String path) throws InvalidConfigurationException, IOException
     {
+        this(new YamlZoneStore(path));
+    }
+
+    /**
+     * Initialize our manager
+     * 
+     * @param store
+     *            where our zones are saved
+     * @throws IOException @see {@link #loadZones()} 
+     * @throws InvalidConfigurationException @see {@link #loadZones()} 
+     */
+    public ZoneManager(ZoneStore store) throws InvalidConfigurationException, IOException
+    {
+        this(store, null);
+    }
+
+    /**
+     * Initialize our manager, only loading zones of the loaded worlds
+     * 
+     * @param store
+     *            where our zones are saved
+     * @param worlds
+     *            names of the loaded worlds, null to load zones of every world
+     * @throws IOException @see {@link #loadZones()} 
+     * @throws InvalidConfigurationException @see {@link #loadZones()} 
+     */
+    public ZoneManager(ZoneStore store, Collection<String> worlds) throws InvalidConfigurationException, IOException
+    {
+        this(store, worlds, Logger.getLogger(ZoneManager.class.getName()));
+    }
+
+    /**
+     * Initialize our manager, only loading zones of the loaded worlds
+     * 
+     * @param store
+     *            where our zones are saved
+     * @param worlds
+     *            names of the loaded worlds, null to load zones of every world
+     * @param logger
+     *            where to report problems loading and saving zones, e.g. the plugin's logger
+     * @throws IOException @see {@link #loadZones()} 
+     * @throws InvalidConfigurationException @see {@link #loadZones()} 
+     */
+    public ZoneManager(ZoneStore store, Collection<String> worlds, Logger logger) throws InvalidConfigurationException, IOException
+    {
+        this.logger = logger;
         zones = new HashMap<String, Zone>();
-        this.path = path;
+        names = new ZoneNames();
+        parked = new LinkedHashMap<String, ZoneRecord>();
+        loadedWorlds = (worlds == null) ? null : new HashSet<String>(worlds);
+        worldIds = new HashMap<String, Integer>();
+        changed = Collections.newSetFromMap(new IdentityHashMap<Zone, Boolean>());
+        removed = Collections.newSetFromMap(new IdentityHashMap<Zone, Boolean>());
+        freeIds = new ArrayList<Integer>();
+        owner = Thread.currentThread();
+        metrics = new ZoneMetrics();
+        getWorldId("everywhere"); // everywhere is always id 0
+        this.store = store;
+        persister = new ZonePersister(store, metrics, logger);
         loadZones();
     }
 
@@ -52,10 +151,270 @@ public class ZoneManager
      */
     public void addZone(Zone zone) throws IllegalArgumentException
     {
-        if (zones.containsKey(zone.getName())) throw new IllegalArgumentException("A zone with that name already exists!");
+        if (zones.containsKey(ZoneNames.key(zone.getName()))) throw new IllegalArgumentException("A zone with that name already exists!");
+        if (isParked(zone.getName())) throw new IllegalArgumentException("A zone with that name already exists in an unloaded world!");
+
+        register(zone);
+        saveZone(zone); // save our zone so it's in the zone list
+    }
+
+    /**
+     * Put a zone in our map and hierarchy
+     * 
+     * @param zone
+     *            zone to be registered
+     */
+    private void register(Zone zone)
+    {
+        zones.put(ZoneNames.key(zone.getName()), zone);
+        names.add(zone.getName());
+        dirty = true;
+
+        // a zone taken out and put back before the snapshot was published keeps its node id
+        if (!removed.remove(zone)) zone.setNodeId(freeIds.isEmpty() ? numIds++ : freeIds.remove(freeIds.size() - 1));
+        changed.add(zone);
+
+        // the only zone without a parent is everywhere
+        if (zone.getParent() == null) root = zone;
+        else zone.getParent().getChildren().add(zone);
+    }
+
+    /**
+     * Replace the points of a zone's polygon
+     * 
+     * @param zone
+     *            zone we're setting the points of
+     * @param points
+     *            new points of the zone
+     */
+    public void setPoints(Zone zone, List<Point> points)
+    {
+        zone.setPolygon(toPolygon(points));
+    }
+
+    /**
+     * Check points are fit to be a zone's before they're set, a zone's edges can't cross, it has to be inside its parent and its children
+     * have to stay inside it
+     * 
+     * @param zone
+     *            zone the points are for
+     * @param points
+     *            points we want the zone to have
+     * @return result of the check, with any siblings the zone would overlap
+     */
+    public ZoneCheck checkPoints(Zone zone, List<Point> points)
+    {
+        return checkPoints(zone, points, zone.getFloor(), zone.getCeiling());
+    }
+
+    /**
+     * Check points and heights are fit to be a zone's before they're set, as well as the points its floor and ceiling have to be inside its
+     * parent's and around its children's
+     * 
+     * @param zone
+     *            zone the points are for
+     * @param points
+     *            points we want the zone to have
+     * @param floor
+     *            floor we want the zone to have
+     * @param ceiling
+     *            ceiling we want the zone to have
+     * @return result of the check, with any siblings the zone would overlap
+     */
+    public ZoneCheck checkPoints(Zone zone, List<Point> points, int floor, int ceiling)
+    {
+        ZonePolygon polygon = toPolygon(points);
+        List<Zone> overlaps = new ArrayList<Zone>();
+
+        int[] crossing = ZoneGeometry.findSelfCrossing(polygon);
+        if (crossing != null)
+            return new ZoneCheck("Edges " + describeEdge(polygon, crossing[0]) + " and " + describeEdge(polygon, crossing[1]) + " cross!", overlaps);
+
+        // lookups only look for a zone inside its parent, so the zone's children can't be left outside it
+        for (Zone child : zone.getChildren())
+        {
+            if (child.getPolygon().size() > 0 && !ZoneGeometry.contains(polygon, child.getPolygon()))
+                return new ZoneCheck("Zone must still contain its child " + child.getName() + "!", overlaps);
+            if (child.getFloor() < floor || child.getCeiling() > ceiling)
+                return new ZoneCheck("Zone's floor and ceiling must still contain its child " + child.getName() + "!", overlaps);
+        }
+
+        // a zone has to be inside its parent, everywhere contains anything
+        Zone parent = zone.getParent();
+        if (parent == null) return new ZoneCheck(null, overlaps);
+        if (parent.getPolygon() != null && !ZoneGeometry.contains(parent.getPolygon(), polygon))
+            return new ZoneCheck("Zone must be inside its parent " + parent.getName() + "!", overlaps);
+        if (parent.getPolygon() != null && (floor < parent.getFloor() || ceiling > parent.getCeiling()))
+            return new ZoneCheck("Zone must be between the floor and ceiling of its parent " + parent.getName() + "!", overlaps);
+
+        for (Zone sibling : parent.getChildren())
+        {
+            // zones in different worlds or at different heights can't overlap, zones in every world share the other's world either way
+            boolean sameWorld = sibling.getWorldId() == zone.getWorldId() || sibling.getWorldId() == ZoneIndex.EVERYWHERE
+                    || zone.getWorldId() == ZoneIndex.EVERYWHERE;
+            if (sibling == zone || !sameWorld) continue;
+            if (Math.max(sibling.getFloor(), floor) + 1 >= Math.min(sibling.getCeiling(), ceiling)) continue;
+
+            if (sibling.getPolygon() != null && ZoneGeometry.overlaps(sibling.getPolygon(), polygon)) overlaps.add(sibling);
+        }
+
+        return new ZoneCheck(null, overlaps);
+    }
+
+    /**
+     * @return polygon with the points
+     */
+    private static ZonePolygon toPolygon(List<Point> points)
+    {
+        int[] xs = new int[points.size()], ys = new int[points.size()];
+        int i = 0;
+        for (Point p : points)
+        {
+            xs[i] = p.x;
+            ys[i++] = p.y;
+        }
+
+        return new ZonePolygon(xs, ys);
+    }
+
+    /**
+     * @return the ends of an edge of a polygon, for telling players
+     */
+    private static String describeEdge(ZonePolygon polygon, int edge)
+    {
+        int prev = (edge == 0 ? polygon.size() : edge) - 1;
+        return polygon.getX(prev) + "," + polygon.getY(prev) + "-" + polygon.getX(edge) + "," + polygon.getY(edge);
+    }
+
+    /**
+     * Note that a zone changed, lookups see the change once the next snapshot is published
+     * 
+     * @param zone
+     *            zone which changed
+     */
+    void invalidate(Zone zone)
+    {
+        // zones which aren't in the manager(e.g. being made with a wand) aren't in any snapshot
+        if (zones.get(ZoneNames.key(zone.getName())) == zone)
+        {
+            changed.add(zone);
+            dirty = true;
+        }
+    }
 
-        zones.put(zone.getName(), zone);
-        saveZones(); // save our zone to the zone list file
+    /**
+     * Note that a zone was taken out of the manager, lookups stop finding it once the next snapshot is published
+     * 
+     * @param zone
+     *            zone which was taken out
+     */
+    private void forget(Zone zone)
+    {
+        changed.remove(zone);
+        removed.add(zone);
+        dirty = true;
+    }
+
+    /**
+     * Get the id of a world, zones and lookups refer to worlds by id so they can be compared without comparing names
+     * 
+     * Only the main thread hands out ids, elsewhere a world without one gets an id no zone has(only zones in every world contain it), as
+     * any zone in it would have been given one when it was made.
+     * 
+     * @param world
+     *            name of the world
+     * @return id of the world
+     */
+    synchronized int getWorldId(String world)
+    {
+        Integer id = worldIds.get(world);
+        if (id != null) return id;
+        if (!isOwnerThread()) return ZoneSnapshot.UNKNOWN_WORLD;
+
+        // new worlds are only in the index of the snapshots published after them
+        id = worldIds.size();
+        worldIds.put(world, id);
+        return id;
+    }
+
+    /**
+     * @return if the current thread is the one zones are changed on
+     */
+    boolean isOwnerThread()
+    {
+        return Thread.currentThread() == owner;
+    }
+
+    /**
+     * Get the latest snapshot of our zones, for making several lookups which agree with each other
+     * 
+     * On the main thread any pending changes are published first, so the snapshot is always up to date there. Elsewhere it may be up to a
+     * tick behind.
+     * 
+     * @return latest snapshot of our zones
+     */
+    public ZoneSnapshot getSnapshot()
+    {
+        if (dirty && isOwnerThread()) publish();
+
+        return snapshot;
+    }
+
+    /**
+     * Publish a new snapshot if any zone changed since the last one, should be called regularly from the main thread
+     * 
+     * @throws IllegalStateException
+     *             if called from another thread
+     */
+    public void publish() throws IllegalStateException
+    {
+        if (!isOwnerThread()) throw new IllegalStateException("Zone snapshots can only be published from the main thread!");
+        if (!dirty && snapshot != null) return;
+
+        long start = System.nanoTime();
+
+        // other threads may be looking up world ids while we copy them
+        Map<String, Integer> ids;
+        synchronized (this)
+        {
+            ids = new HashMap<String, Integer>(worldIds);
+        }
+
+        // the next snapshot is made from the last one, unless most zones changed(importing replaces every zone, everywhere included)
+        boolean rebuild = snapshot == null || changed.size() + removed.size() > zones.size() / 2;
+        snapshot = rebuild ? new ZoneSnapshot(++version, root, numIds, ids, metrics) : snapshot.next(++version, changed, removed, numIds, ids);
+
+        // the removed zones' ids are free now the published snapshot doesn't have them, older snapshots check a node is the zone's
+        for (Zone zone : removed)
+            freeIds.add(zone.getNodeId());
+        changed.clear();
+        removed.clear();
+        dirty = false;
+
+        metrics.recordPublish(System.nanoTime() - start);
+    }
+
+    /**
+     * @return runtime metrics of our zones
+     */
+    public ZoneMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Drop cached lookups for a chunk when it unloads
+     * 
+     * @param world
+     *            world the chunk is in
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     */
+    public void unloadChunk(String world, int chunkX, int chunkZ)
+    {
+        getSnapshot().unloadChunk(world, chunkX, chunkZ);
     }
 
     /**
@@ -63,30 +422,81 @@ public class ZoneManager
      * 
      * @param zone
      *            zone to be deleted
+     * @throws IllegalArgumentException
+     *             if the zone is everywhere, which every other zone is inside of
      */
-    public void deleteZone(Zone zone)
+    public void deleteZone(Zone zone) throws IllegalArgumentException
     {
         // if we're deleting a null zone, exit out
         if (zone == null) return;
 
-        // go through zones to find all immediate children update parent
-        for (Zone z : zones.values())
-            if (z.getParent() == zone) z.setParent(zone.getParent());
+        // without everywhere the other zones have nowhere to move up to, and can't be loaded again
+        if (zone == root) throw new IllegalArgumentException("Zone " + zone.getName() + " can't be removed, every other zone is inside it!");
+
+        // move all immediate children up to our parent, each move takes the child out of our children, a child sticking out of its
+        // grandparent is moved anyway so the delete can't stop halfway
+        List<Zone> children = zone.getChildren();
+        while (!children.isEmpty())
+        {
+            Zone child = children.get(children.size() - 1);
+            child.reparent(zone.getParent());
+            saveZone(child); // save the child's new parent along with the deletion
+        }
+
+        // children in unloaded worlds move up too, their records are saved as they are
+        if (zone.getParent() != null) for (Map.Entry<String, ZoneRecord> entry : parked.entrySet())
+            if (zone.getName().equalsIgnoreCase(entry.getValue().getParent()))
+            {
+                entry.setValue(entry.getValue().withParent(zone.getParent().getName()));
+                persister.markDirty(entry.getValue());
+            }
 
-        zones.remove(zone.getName()); // remove from the list
-        (new File(path + "/zones/" + zone.getName().toLowerCase() + ".pz")).delete(); // delete file if one exists
+        if (zone.getParent() != null) zone.getParent().getChildren().remove(zone);
+        zones.remove(ZoneNames.key(zone.getName())); // remove from the list
+        names.remove(zone.getName());
+        forget(zone);
+        persister.markDeleted(zone.getName());
     }
 
     /**
      * Find the zone with given name
      * 
      * @param name
-     *            name of the zone we want to find
+     *            name of the zone we want to find, in any case
      * @return zone with given name or null if doesn't exist
      */
     public Zone getZone(String name)
     {
-        return zones.get(name);
+        // other threads can't read our map while it's being changed
+        return isOwnerThread() ? zones.get(ZoneNames.key(name)) : snapshot.getZone(name);
+    }
+
+    /**
+     * Count the zones whose name starts with a prefix, loaded or not, only on the main thread
+     * 
+     * @param prefix
+     *            prefix of the names, in any case
+     * @return number of zones with the prefix
+     */
+    public int countZones(String prefix)
+    {
+        return names.count(prefix);
+    }
+
+    /**
+     * Find names of zones starting with a prefix in alphabetical order, loaded or not, only on the main thread
+     * 
+     * @param prefix
+     *            prefix of the names, in any case
+     * @param from
+     *            how many matching names to skip, e.g. for a page of them
+     * @param max
+     *            most names to find
+     * @return names of the zones found
+     */
+    public List<String> findZones(String prefix, int from, int max)
+    {
+        return names.find(prefix, from, max);
     }
 
     /**
@@ -98,183 +508,589 @@ public class ZoneManager
      */
     public Zone getContainedInZone(Location loc)
     {
-        return getContainedInZone(loc, zones.values(), null);
+        return getSnapshot().getContainedInZone(loc);
     }
 
     /**
-     * Find the most specific zone this location is in
+     * Find the most specific zone a block is in, see {@link ZoneSnapshot#getContainedInZone(World, int, int, int)}
      * 
-     * @param loc
-     *            location we're looking for zone info for
-     * @param zones
-     *            the zone collection we're concerned with
-     * @param current
-     *            current zone location is a part of
-     * @return most specific zone for location loc
+     * @param world
+     *            world the block is in
+     * @param x
+     *            x coord of the block
+     * @param y
+     *            y(height) of the block
+     * @param z
+     *            z coord of the block
+     * @return most specific zone for the block
+     */
+    public Zone getContainedInZone(World world, int x, int y, int z)
+    {
+        return getSnapshot().getContainedInZone(world, x, y, z);
+    }
+
+    /**
+     * Check if a flag is on for a block, flags not set anywhere count as on
+     * 
+     * @param world
+     *            world the block is in
+     * @param x
+     *            x coord of the block
+     * @param y
+     *            y(height) of the block
+     * @param z
+     *            z coord of the block
+     * @param flag
+     *            flag we're checking
+     * @return if the flag is on in the most specific zone of the block
      */
-    private Zone getContainedInZone(Location loc, Collection<Zone> zones, Zone current)
+    public boolean isFlagOn(World world, int x, int y, int z, Flag flag)
     {
-        for (Zone z : zones)
-            if (z.inZone(loc.getBlockX(), loc.getBlockZ(), loc.getBlockY(), loc.getWorld().getName())) return getContainedInZone(loc,
-                    getImmediateChildren(z), z);
+        return getSnapshot().isFlagOn(world, x, y, z, flag);
+    }
 
-        return current;
+    /**
+     * Find the most specific zone of many blocks in a world at once, see {@link ZoneSnapshot#getContainedInZones(String, int[], int[], int[])}
+     * 
+     * @param world
+     *            name of the world the blocks are in
+     * @param xs
+     *            x coords of the blocks
+     * @param ys
+     *            y(height) of the blocks
+     * @param zs
+     *            z coords of the blocks
+     * @return most specific zone of each block, in the order given
+     * @throws IllegalArgumentException
+     *             if the coordinate arrays aren't the same length
+     */
+    public Zone[] getContainedInZones(String world, int[] xs, int[] ys, int[] zs) throws IllegalArgumentException
+    {
+        return getSnapshot().getContainedInZones(world, xs, ys, zs);
     }
 
     /**
-     * Find a zone's immediate children
+     * Find the most specific zone of many blocks in the same world at once, see {@link ZoneSnapshot#getContainedInZones(Collection)}
      * 
-     * @param parent
-     *            parent zone we're looking for children of
-     * @return parent's immediate children
+     * @param blocks
+     *            blocks we want the zones of, all in one world
+     * @return most specific zone of each block, in the collection's order
+     * @throws IllegalArgumentException
+     *             if the blocks aren't all in the same world
      */
-    private Collection<Zone> getImmediateChildren(Zone parent)
+    public Zone[] getContainedInZones(Collection<Block> blocks) throws IllegalArgumentException
     {
-        Set<Zone> children = new HashSet<Zone>();
+        return getSnapshot().getContainedInZones(blocks);
+    }
 
-        for (Zone z : zones.values())
-            if (z.getParent() == parent) children.add(z);
+    /**
+     * Find the state of a flag for many blocks in a world at once, see {@link ZoneSnapshot#getFlagStates(String, int[], int[], int[], Flag)}
+     * 
+     * @param world
+     *            name of the world the blocks are in
+     * @param xs
+     *            x coords of the blocks
+     * @param ys
+     *            y(height) of the blocks
+     * @param zs
+     *            z coords of the blocks
+     * @param flag
+     *            flag we want the state of
+     * @return state of the flag for each block, in the order given
+     * @throws IllegalArgumentException
+     *             if the coordinate arrays aren't the same length
+     */
+    public State[] getFlagStates(String world, int[] xs, int[] ys, int[] zs, Flag flag) throws IllegalArgumentException
+    {
+        return getSnapshot().getFlagStates(world, xs, ys, zs, flag);
+    }
 
-        return children;
+    /**
+     * Find the zones which overlap a box, see {@link ZoneSnapshot#getZonesOverlapping(String, int, int, int, int, int, int)}
+     * 
+     * Blocks should then be checked against the overlapping zones in the same snapshot, so take a snapshot and use it for both.
+     * 
+     * @param world
+     *            name of the world the box is in
+     * @param minX
+     *            lowest x coord in the box
+     * @param minY
+     *            lowest y(height) in the box
+     * @param minZ
+     *            lowest z coord in the box
+     * @param maxX
+     *            highest x coord in the box
+     * @param maxY
+     *            highest y(height) in the box
+     * @param maxZ
+     *            highest z coord in the box
+     * @return zones whose bounds overlap the box, everywhere isn't included as it overlaps everything
+     */
+    public List<Zone> getZonesOverlapping(String world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ)
+    {
+        return getSnapshot().getZonesOverlapping(world, minX, minY, minZ, maxX, maxY, maxZ);
     }
 
     /**
-     * Serialize zone to file
+     * Save a zone to our store, the zone is written in the background on the next flush
      * 
      * @param zone
-     *            zone to sale
-     * @return success
-     * @throws IOException if IOException when saving config
-     */
-    public void saveZone(Zone zone) throws IOException
-    {
-        System.out.println("Saving zone " + zone.getName());
-        
-        FileConfiguration save = new YamlConfiguration();
-        save.set("zone.name", zone.getName());
-        save.set("zone.parent", ((zone.getParent() == null) ? null : zone.getParent().getName()));
-        save.set("zone.world", zone.getWorld());
-        save.set("zone.greeting", zone.getGreeting());
-        save.set("zone.farewell", zone.getFarewell());
-        save.set("zone.ceiling", zone.getCeiling());
-        save.set("zone.floor", zone.getFloor());
-        save.set("zone.polygon.points", zone.getNumPoints());
-
-        // make sure we actually have points to save
-        if (zone.getNumPoints() > 0)
+     *            zone to save
+     */
+    public void saveZone(Zone zone)
+    {
+        persister.markDirty(zone);
+    }
+
+    /**
+     * Save all of our zones on the next flush
+     */
+    public void saveZones()
+    {
+        for (Zone zone : zones.values())
+            saveZone(zone);
+    }
+
+    /**
+     * Write zones changed since the last flush to our store in the background, should be called regularly from the main thread
+     */
+    public void flush()
+    {
+        persister.flush();
+    }
+
+    /**
+     * Write all changed zones and wait for them to be written, the manager can't save zones afterwards
+     */
+    public void close()
+    {
+        persister.drain();
+    }
+
+    /**
+     * Load zones into the manager
+     * @throws @see {@link ZoneStore#load()}
+     */
+    public void loadZones() throws InvalidConfigurationException, IOException
+    {
+        long start = System.nanoTime();
+        List<ZoneRecord> records = store.load();
+
+        if (records.isEmpty())
+        { // no zones stored, lets create our everywhere zone
+            logger.info("Zones data not found, generating default...");
+            Map<Flag, State> flags = new HashMap<Flag, State>();
+            flags.put(Zone.Flag.HEALING, State.OFF);
+            flags.put(Zone.Flag.MOBS, State.ON);
+            flags.put(Zone.Flag.PVP, State.OFF);
+            flags.put(Zone.Flag.SANCTUARY, State.OFF);
+            flags.put(Zone.Flag.FIRE, State.ON);
+            flags.put(Zone.Flag.LIGHTENING, State.ON);
+            flags.put(Zone.Flag.CREEPER, State.ON);
+            flags.put(Zone.Flag.TNT, State.ON);
+            Zone everywhere = new Zone("everywhere", "everywhere", this, flags);
+            addZone(everywhere);
+            publish();
+            return;
+        }
+
+        Set<String> moved = new HashSet<String>();
+        int loaded = build(linkParents(records, moved));
+
+        // save the new parent of any zone we had to move
+        for (String name : moved)
         {
-            int count = 0;
-            for (Point p : zone.getPoints())
-            {
-                save.set("zone.polygon.point" + (count) + ".x", p.getX());
-                save.set("zone.polygon.point" + (count++) + ".y", p.getY());
-            }
+            if (isParked(name)) persister.markDirty(parked.get(ZoneNames.key(name)));
+            else saveZone(getZone(name));
         }
 
-        for (Flag f : Flag.values())
-            save.set("zone.flags." + f.toString(), zone.getFlagState(f).toString());
-        
-        save.save(new File(path + "/zones/" + zone.getName().toLowerCase() + ".pz"));
+        metrics.recordLoad(loaded, System.nanoTime() - start);
+        publish();
     }
 
     /**
-     * Save the zones data
+     * Make the zones of records, parking those which can't be loaded yet
+     * 
+     * @param records
+     *            records of the zones, parents before their children
+     * @return number of zones loaded
      */
-    public boolean saveZones()
+    private int build(List<ZoneRecord> records)
     {
-        try
+        int loaded = 0;
+        for (ZoneRecord record : records)
         {
-            (new File(path)).mkdir();
-            File f = new File(path + "/zones.dat");
-            f.createNewFile();
-            BufferedWriter writer = new BufferedWriter(new FileWriter(f));
+            // stored before names were case insensitive
+            if (names.get(record.getName()) != null)
+            {
+                logger.warning("Zone " + record.getName() + " has the same name as zone " + names.get(record.getName()) + ", skipping it");
+                continue;
+            }
 
-            // add all zones to the list
-            for (String zone : zones.keySet())
+            if (isLoadable(record))
+            {
+                register(loadZone(record));
+                loaded++;
+            }
+            else
             {
-                writer.append(zone + ","); // add zone to the file
+                parked.put(ZoneNames.key(record.getName()), record);
+                names.add(record.getName());
             }
+        }
+
+        return loaded;
+    }
+
+    /**
+     * Write every zone, loaded or not, a line each, see {@link ZoneLines}
+     * 
+     * Zones are written as they're recorded so the export is never held in memory, parents before their children.
+     * 
+     * @param out
+     *            where the zones are written
+     * @return number of zones written
+     * @throws IOException
+     *             if writing failed
+     */
+    public int exportZones(Writer out) throws IOException
+    {
+        out.write(ZoneLines.HEADER + "\n");
+
+        // breadth first from everywhere, parked zones are already in order and their parents are loaded or parked before them
+        List<Zone> open = new ArrayList<Zone>();
+        open.add(root);
+        for (int i = 0; i < open.size(); i++)
+        {
+            open.addAll(open.get(i).getChildren());
+            ZoneLines.write(ZoneRecord.of(open.get(i)), out);
+        }
+
+        for (ZoneRecord record : parked.values())
+            ZoneLines.write(record, out);
+
+        return open.size() + parked.size();
+    }
 
-            writer.close();
-            return true;
+    /**
+     * Export every zone to a file, which is only replaced once the export is complete
+     * 
+     * @param file
+     *            file to export to
+     * @return number of zones exported
+     * @throws IOException
+     *             if writing the file failed
+     */
+    public int exportZones(File file) throws IOException
+    {
+        AtomicFile atomic = new AtomicFile(file);
+        FileOutputStream out = atomic.startWrite();
+        int exported;
+        try
+        {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+            exported = exportZones(writer);
+            writer.flush();
         }
         catch (IOException ioe)
         {
-            ioe.printStackTrace();
+            atomic.failWrite(out);
+            throw ioe;
         }
 
-        return false;
+        atomic.finishWrite(out);
+        return exported;
     }
 
     /**
-     * Load zones into the manager
-     * @throws @see {@link #loadZone(String)}
+     * Replace every zone with those in an exported file, see {@link #importZones(BufferedReader)}
+     * 
+     * @param file
+     *            file to import from
+     * @return number of zones imported
+     * @throws IOException
+     *             if reading the file failed
+     * @throws InvalidConfigurationException
+     *             if the file isn't a valid export
      */
-    public void loadZones() throws InvalidConfigurationException, IOException
+    public int importZones(File file) throws IOException, InvalidConfigurationException
     {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
         try
         {
-            BufferedReader reader = new BufferedReader(new FileReader(path + "/zones.dat"));
-            String[] zoneNames = reader.readLine().split(",");
+            return importZones(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Replace every zone with zones read a line at a time, see {@link ZoneLines}
+     * 
+     * The zones are only built once every line has been read, and are published and saved in one go rather than zone by zone. Nothing
+     * changes if the zones can't be read.
+     * 
+     * @param in
+     *            where the zones are read from
+     * @return number of zones imported
+     * @throws IOException
+     *             if reading failed
+     * @throws InvalidConfigurationException
+     *             if a line isn't a zone or there is no everywhere zone
+     */
+    public int importZones(BufferedReader in) throws IOException, InvalidConfigurationException
+    {
+        long start = System.nanoTime();
+        List<ZoneRecord> records = new ArrayList<ZoneRecord>();
+        String line;
+        for (int number = 1; (line = in.readLine()) != null; number++)
+        {
+            if (line.isEmpty() || line.startsWith("#")) continue;
 
-            // go through all zones in the list and load their zone files
-            for (String zoneName : zoneNames)
+            try
+            {
+                records.add(ZoneLines.read(line));
+            }
+            catch (InvalidConfigurationException ice)
             {
-                zones.put(zoneName, loadZone(zoneName));
+                throw new InvalidConfigurationException("Line " + number + ": " + ice.getMessage(), ice);
             }
-            
-            reader.close(); // close reader
         }
-        catch (FileNotFoundException fnfe)
-        { // the zones file not found, lets create our everywhere zone
-            System.out.println("Zones data not found, generating default...");
-            Map<Flag, State> flags = new HashMap<Flag, State>();
-            flags.put(Zone.Flag.HEALING, State.OFF);
-            flags.put(Zone.Flag.MOBS, State.ON);
-            flags.put(Zone.Flag.PVP, State.OFF);
-            flags.put(Zone.Flag.SANCTUARY, State.OFF);
-            Zone everywhere = new Zone("everywhere", "everywhere", this, flags);
-            addZone(everywhere);
-            saveZone(everywhere);
+
+        List<ZoneRecord> ordered = linkParents(records, new HashSet<String>());
+
+        // forget the zones we had
+        List<String> old = new ArrayList<String>(names.find("", 0, Integer.MAX_VALUE));
+        for (Zone zone : zones.values())
+            forget(zone);
+        zones.clear();
+        parked.clear();
+        names.clear();
+        root = null;
+
+        int loaded = build(ordered);
+
+        // stores may keep names as they were given, so a zone only renamed by case is deleted under its old name first
+        for (String name : old)
+            if (!name.equals(names.get(name))) persister.markDeleted(name);
+        for (ZoneRecord record : ordered)
+        {
+            if (isParked(record.getName())) persister.markDirty(parked.get(ZoneNames.key(record.getName())));
+            else persister.markDirty(zones.get(ZoneNames.key(record.getName())));
         }
-        catch (IOException ioe)
+
+        dirty = true;
+        publish();
+        persister.flush();
+        metrics.recordLoad(loaded, System.nanoTime() - start);
+
+        return zones.size() + parked.size();
+    }
+
+    /**
+     * Load the parked zones of a world which just loaded
+     * 
+     * @param world
+     *            name of the world
+     * @return number of zones loaded
+     */
+    public int loadWorld(String world)
+    {
+        if (loadedWorlds == null || !loadedWorlds.add(world)) return 0;
+
+        long start = System.nanoTime();
+        int loaded = 0;
+
+        // parked records have parents first, but a zone of another world may be waiting on one of this world's, so go until none load
+        for (boolean progress = true; progress;)
         {
-            ioe.printStackTrace();
+            progress = false;
+            for (Iterator<ZoneRecord> it = parked.values().iterator(); it.hasNext();)
+            {
+                ZoneRecord record = it.next();
+                if (!isLoadable(record)) continue;
+
+                it.remove();
+                register(loadZone(record));
+                loaded++;
+                progress = true;
+            }
         }
+
+        if (loaded > 0) metrics.recordLoad(loaded, System.nanoTime() - start);
+        return loaded;
     }
 
     /**
-     * Load a zone by name
+     * Park the zones of a world which is unloading, along with any zones inside them
+     * 
+     * @param world
+     *            name of the world
+     * @return number of zones parked
+     */
+    public int unloadWorld(String world)
+    {
+        if (loadedWorlds == null || !loadedWorlds.remove(world)) return 0;
+
+        // breadth first so parked records keep parents before children
+        List<Zone> parking = new ArrayList<Zone>();
+        List<Zone> open = new ArrayList<Zone>();
+        open.add(root);
+        for (int i = 0; i < open.size(); i++)
+            for (Zone child : open.get(i).getChildren())
+            {
+                if (child.getWorld().equals(world)) parking.add(child);
+                else open.add(child);
+            }
+
+        for (int i = 0; i < parking.size(); i++)
+            parking.addAll(parking.get(i).getChildren());
+
+        for (Zone zone : parking)
+        {
+            parked.put(ZoneNames.key(zone.getName()), ZoneRecord.of(zone));
+            zones.remove(ZoneNames.key(zone.getName()));
+            forget(zone);
+        }
+
+        // the tops of the parked branches are the only ones whose parent stays
+        for (Zone zone : parking)
+            if (zones.containsKey(ZoneNames.key(zone.getParent().getName()))) zone.getParent().getChildren().remove(zone);
+
+        return parking.size();
+    }
+
+    /**
+     * Check if a zone is parked because its world isn't loaded
      * 
      * @param name
-     *            name of zone to be loaded
-     * @throws @see {@link FileConfiguration#load(File)}
+     *            name of the zone
+     * @return if the zone is parked
      */
-    private Zone loadZone(String name) throws FileNotFoundException, IOException, InvalidConfigurationException
+    public boolean isParked(String name)
     {
-        FileConfiguration load = new YamlConfiguration();
-        load.load(new File(path + "/zones/" + name.toLowerCase() + ".pz"));
+        return parked.containsKey(ZoneNames.key(name));
+    }
 
-        // load necessary things to create zone
-        String world = load.getString("zone.world");
-        String parent = load.getString("zone.parent");
+    /**
+     * @return if a stored zone can be loaded, its world is loaded and so is its parent
+     */
+    private boolean isLoadable(ZoneRecord record)
+    {
+        if (record.getParent() == null) return true;
 
-        // make the zone instance
-        Zone zone = new Zone(name, world, this);
-        if (!name.equalsIgnoreCase("everywhere")) zone = new Zone(name, world, getZone(parent), this);
+        boolean worldLoaded = loadedWorlds == null || loadedWorlds.contains(record.getWorld()) || record.getWorld().equals("everywhere");
+        return worldLoaded && zones.containsKey(ZoneNames.key(record.getParent()));
+    }
+
+    /**
+     * Order zone records so every zone comes after its parent, whatever order they were stored in
+     * 
+     * Zones whose parent is missing or which are in a loop of parents are moved under everywhere.
+     * 
+     * @param records
+     *            records of the stored zones
+     * @param moved
+     *            filled with the names of zones moved under everywhere
+     * @return the records with parents first
+     * @throws InvalidConfigurationException
+     *             if there is no everywhere zone stored
+     */
+    private List<ZoneRecord> linkParents(List<ZoneRecord> records, Set<String> moved) throws InvalidConfigurationException
+    {
+        List<ZoneRecord> ordered = new ArrayList<ZoneRecord>(records.size());
+        Map<String, List<ZoneRecord>> waiting = new HashMap<String, List<ZoneRecord>>(); // records waiting on their parent, by lowercased parent name
+
+        for (ZoneRecord record : records)
+        {
+            if (record.getParent() == null)
+            {
+                if (!ordered.isEmpty()) throw new InvalidConfigurationException("More than one zone without a parent stored!");
+                ordered.add(record);
+                continue;
+            }
+
+            List<ZoneRecord> siblings = waiting.get(ZoneNames.key(record.getParent()));
+            if (siblings == null)
+            {
+                siblings = new ArrayList<ZoneRecord>();
+                waiting.put(ZoneNames.key(record.getParent()), siblings);
+            }
+            siblings.add(record);
+        }
+
+        if (ordered.isEmpty()) throw new InvalidConfigurationException("No everywhere zone stored!");
+        String everywhere = ordered.get(0).getName();
 
-        zone.setCeil(load.getInt("zone.ceiling", 128));
-        zone.setFloor(load.getInt("zone.floor", 0));
-        zone.setGreeting(load.getString("zone.greeting"));
-        zone.setFarewell(load.getString("zone.farewell"));
+        for (int linked = 0;;)
+        {
+            // breadth first from everywhere, each zone's children go after it
+            for (; linked < ordered.size(); linked++)
+            {
+                List<ZoneRecord> children = waiting.remove(ZoneNames.key(ordered.get(linked).getName()));
+                if (children != null) ordered.addAll(children);
+            }
+
+            if (waiting.isEmpty()) return ordered;
+
+            // anything left can't reach everywhere, prefer a missing parent so loops aren't broken needlessly
+            Set<String> unlinked = new HashSet<String>();
+            for (List<ZoneRecord> siblings : waiting.values())
+                for (ZoneRecord record : siblings)
+                    unlinked.add(ZoneNames.key(record.getName()));
+
+            String parent = null;
+            for (String name : waiting.keySet())
+            {
+                parent = name;
+                if (!unlinked.contains(name)) break;
+            }
+
+            List<ZoneRecord> orphans = waiting.get(parent);
+            ZoneRecord orphan = orphans.remove(orphans.size() - 1);
+            if (orphans.isEmpty()) waiting.remove(parent);
+
+            logger.warning("Parent " + parent + " of zone " + orphan.getName() + " can't be loaded, moving it under " + everywhere);
+            ordered.add(orphan.withParent(everywhere));
+            moved.add(orphan.getName());
+        }
+    }
 
-        // load and set points
-        for (int i = 0; i < load.getInt("zone.polygon.points", 0); i++)
-            zone.addPoint(load.getInt("zone.polygon.point" + i + ".x", 0), load.getInt("zone.polygon.point" + i + ".y", 0));
+    /**
+     * Make a zone from its record
+     * 
+     * @param record
+     *            record of zone to be loaded
+     * @return the zone
+     */
+    private Zone loadZone(ZoneRecord record)
+    {
+        // make the zone instance
+        Zone zone;
+        if (record.getParent() == null) zone = new Zone(record.getName(), record.getWorld(), this);
+        else zone = new Zone(record.getName(), record.getWorld(), getZone(record.getParent()), this);
+
+        // set floor and ceiling in whichever order keeps the floor below the ceiling
+        if (record.getCeiling() >= zone.getFloor())
+        {
+            zone.setCeil(record.getCeiling());
+            zone.setFloor(record.getFloor());
+        }
+        else
+        {
+            zone.setFloor(record.getFloor());
+            zone.setCeil(record.getCeiling());
+        }
+        zone.setGreeting(record.getGreeting());
+        zone.setFarewell(record.getFarewell());
+        zone.setPolygon(record.getPolygon());
 
-        // load and set the flags
+        // set the flags set on the zone, anything else is inherited
         for (Flag f : Flag.values())
-            zone.setFlag(f, State.valueOf(load.getString("zone.flags." + f.toString())));
+            zone.setFlag(f, (record.getFlag(f) == null) ? State.INHERIT : record.getFlag(f));
+        zone.setMembers(record.getMembers());
 
         return zone;
     }
@@ -284,6 +1100,6 @@ public class ZoneManager
      */
     public String toString()
     {
-        return zones.keySet().toString();
+        return names.find("", 0, Integer.MAX_VALUE).toString();
     }
 }
@@ -0,0 +1,212 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.bukkit.permissions.Permissible;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Access;
+
+/**
+ * Players and groups given access to a zone
+ *
+ * Each member has the accesses they were given as a bitset, a bit per access(see {@link Access#getBit()}). Players are kept by id so
+ * checking a player is one map lookup. A group is anyone with the group's permission node, group.&lt;name&gt; as permissions plugins give
+ * them, built once when the group is added.
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZoneMembers
+{
+    private final Map<UUID, Integer> players; // player id -> accesses
+    private final Map<String, Group> groups; // lowercased group name -> group
+
+    /**
+     * Initialize with no members
+     */
+    public ZoneMembers()
+    {
+        players = new HashMap<UUID, Integer>();
+        groups = new HashMap<String, Group>();
+    }
+
+    /**
+     * Initialize with the same members as another
+     *
+     * @param members
+     *            members to be copied
+     */
+    public ZoneMembers(ZoneMembers members)
+    {
+        players = new HashMap<UUID, Integer>(members.players);
+        groups = new HashMap<String, Group>(members.groups);
+    }
+
+    /**
+     * @param player
+     *            id of the player
+     * @return accesses the player was given, 0 if not a member
+     */
+    public int getPlayer(UUID player)
+    {
+        Integer accesses = players.get(player);
+        return (accesses == null) ? 0 : accesses;
+    }
+
+    /**
+     * Set the accesses of a player
+     *
+     * @param player
+     *            id of the player
+     * @param accesses
+     *            accesses the player is given, 0 to remove them
+     */
+    public void setPlayer(UUID player, int accesses)
+    {
+        if (accesses == 0) players.remove(player);
+        else players.put(player, accesses);
+    }
+
+    /**
+     * @param group
+     *            name of the group, in any case
+     * @return accesses the group was given, 0 if not a member
+     */
+    public int getGroup(String group)
+    {
+        Group g = groups.get(group.toLowerCase());
+        return (g == null) ? 0 : g.accesses;
+    }
+
+    /**
+     * Set the accesses of a group
+     *
+     * @param group
+     *            name of the group, in any case
+     * @param accesses
+     *            accesses the group is given, 0 to remove it
+     */
+    public void setGroup(String group, int accesses)
+    {
+        group = group.toLowerCase();
+
+        if (accesses == 0) groups.remove(group);
+        else groups.put(group, new Group(group, accesses));
+    }
+
+    /**
+     * @return ids of the player members
+     */
+    public Set<UUID> getPlayers()
+    {
+        return Collections.unmodifiableSet(players.keySet());
+    }
+
+    /**
+     * @return lowercased names of the group members
+     */
+    public Set<String> getGroups()
+    {
+        return Collections.unmodifiableSet(groups.keySet());
+    }
+
+    /**
+     * @return if there are no members
+     */
+    public boolean isEmpty()
+    {
+        return players.isEmpty() && groups.isEmpty();
+    }
+
+    /**
+     * Check if a player was given any of some accesses, themselves or through a group
+     *
+     * @param id
+     *            id of the player
+     * @param player
+     *            the player, asked for their groups
+     * @param accesses
+     *            accesses we're looking for
+     * @return if the player was given any of them
+     */
+    public boolean allows(UUID id, Permissible player, int accesses)
+    {
+        if ((getPlayer(id) & accesses) != 0) return true;
+
+        for (Group group : groups.values())
+            if ((group.accesses & accesses) != 0 && player.hasPermission(group.node)) return true;
+
+        return false;
+    }
+
+    /**
+     * @param accesses
+     *            accesses as a bitset
+     * @return the accesses' names, comma separated
+     */
+    public static String describe(int accesses)
+    {
+        StringBuilder names = new StringBuilder();
+        for (Access access : Access.values())
+        {
+            if ((accesses & access.getBit()) == 0) continue;
+
+            if (names.length() > 0) names.append(',');
+            names.append(access.getNode());
+        }
+
+        return names.toString();
+    }
+
+    /**
+     * @param names
+     *            access names, comma separated in any case
+     * @return the accesses as a bitset
+     * @throws IllegalArgumentException
+     *             if a name isn't an access
+     */
+    public static int parse(String names) throws IllegalArgumentException
+    {
+        int accesses = 0;
+        for (String name : names.split(","))
+            if (!name.trim().isEmpty()) accesses |= Access.valueOf(name.trim().toUpperCase()).getBit();
+
+        return accesses;
+    }
+
+    /**
+     * @return every access name, for completion and usage
+     */
+    public static List<String> accessNames()
+    {
+        List<String> names = new ArrayList<String>();
+        for (Access access : Access.values())
+            names.add(access.getNode());
+
+        return names;
+    }
+
+    /**
+     * A group member, immutable so copies of the members can share it
+     *
+     * @author taylorjb
+     *
+     */
+    private static final class Group
+    {
+        private final String node; // permission node of players in the group
+        private final int accesses; // accesses the group was given
+
+        private Group(String name, int accesses)
+        {
+            node = "group." + name;
+            this.accesses = accesses;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of zone names for case insensitive lookups and prefix searches
+ *
+ * Names are kept by their lowercased form, which is also how zones are stored, so two zones can't differ only by case. Prefix searches use
+ * the lowercased names in a sorted array, so a search is two binary searches and any page of its results is read straight out of the array.
+ *
+ * Removed names are taken out of the array straight away. Added names wait until the next search and are then sorted on their own and
+ * merged in, each finding its place with a binary search and moving the names after it up with one copy. A single change costs a copy of
+ * part of the array instead of sorting every name again, and loading many names at once is still a single sort.
+ *
+ * @author taylorjb
+ *
+ */
+final class ZoneNames
+{
+    private final Map<String, String> names; // lowercased name -> name
+    private String[] sorted; // lowercased names in order, the first size of them are used
+    private int size; // number of names in sorted
+    private final List<String> added; // lowercased names added since the last search, not in sorted yet
+
+    /**
+     * Initialize the index with no names
+     */
+    ZoneNames()
+    {
+        names = new HashMap<String, String>();
+        sorted = new String[0];
+        added = new ArrayList<String>();
+    }
+
+    /**
+     * @return the key of a name, names with the same key are the same name
+     */
+    static String key(String name)
+    {
+        return name.toLowerCase();
+    }
+
+    /**
+     * Add a name to the index
+     *
+     * @param name
+     *            name to be added
+     */
+    void add(String name)
+    {
+        if (names.put(key(name), name) == null) added.add(key(name));
+    }
+
+    /**
+     * Remove a name from the index
+     *
+     * @param name
+     *            name to be removed, in any case
+     */
+    void remove(String name)
+    {
+        String key = key(name);
+        if (names.remove(key) == null || added.remove(key)) return;
+
+        // close the gap in the sorted names
+        int index = Arrays.binarySearch(sorted, 0, size, key);
+        System.arraycopy(sorted, index + 1, sorted, index, size - index - 1);
+        sorted[--size] = null;
+    }
+
+    /**
+     * Remove every name from the index
+     */
+    void clear()
+    {
+        names.clear();
+        added.clear();
+        Arrays.fill(sorted, 0, size, null);
+        size = 0;
+    }
+
+    /**
+     * @param name
+     *            name we're looking for, in any case
+     * @return the name as it was added, null if it isn't in the index
+     */
+    String get(String name)
+    {
+        return names.get(key(name));
+    }
+
+    /**
+     * @param prefix
+     *            prefix of the names, in any case
+     * @return number of names starting with the prefix
+     */
+    int count(String prefix)
+    {
+        String[] sorted = sorted();
+        prefix = key(prefix);
+
+        return bound(sorted, size, prefix, true) - bound(sorted, size, prefix, false);
+    }
+
+    /**
+     * Find names starting with a prefix, in order
+     *
+     * @param prefix
+     *            prefix of the names, in any case
+     * @param from
+     *            how many matching names to skip, e.g. for a page of them
+     * @param max
+     *            most names to find
+     * @return the names found, as they were added
+     */
+    List<String> find(String prefix, int from, int max)
+    {
+        String[] sorted = sorted();
+        prefix = key(prefix);
+
+        int start = bound(sorted, size, prefix, false) + Math.max(from, 0);
+        int end = (int) Math.min(bound(sorted, size, prefix, true), (long) start + max);
+        List<String> found = new ArrayList<String>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++)
+            found.add(names.get(sorted[i]));
+
+        return found;
+    }
+
+    /**
+     * @return lowercased names in order, the first size of them, merging in names added since the last search
+     */
+    private String[] sorted()
+    {
+        if (added.isEmpty()) return sorted;
+
+        String[] adding = added.toArray(new String[added.size()]);
+        added.clear();
+        Arrays.sort(adding);
+        if (size + adding.length > sorted.length) sorted = Arrays.copyOf(sorted, Math.max(size + adding.length, sorted.length * 2));
+
+        // place the added names from the last, names after each move up past it and the added names before it in one copy
+        int end = size; // names from end on are in place
+        for (int i = adding.length - 1; i >= 0; i--)
+        {
+            int index = -Arrays.binarySearch(sorted, 0, end, adding[i]) - 1;
+            System.arraycopy(sorted, index, sorted, index + i + 1, end - index);
+            sorted[index + i] = adding[i];
+            end = index;
+        }
+        size += adding.length;
+
+        return sorted;
+    }
+
+    /**
+     * Binary search for either end of the names starting with a prefix, the names before it, the names with it and the rest are each
+     * together in order
+     *
+     * @param sorted
+     *            lowercased names in order
+     * @param size
+     *            number of names in sorted
+     * @param prefix
+     *            lowercased prefix
+     * @param after
+     *            if we want the end of the names with the prefix, otherwise the start
+     * @return index of the first name with the prefix, or of the first name after them
+     */
+    private static int bound(String[] sorted, int size, String prefix, boolean after)
+    {
+        int low = 0, high = size;
+        while (low < high)
+        {
+            int mid = (low + high) >>> 1;
+            boolean before = sorted[mid].compareTo(prefix) < 0 || (after && sorted[mid].startsWith(prefix));
+
+            if (before) low = mid + 1;
+            else high = mid;
+        }
+
+        return low;
+    }
+}
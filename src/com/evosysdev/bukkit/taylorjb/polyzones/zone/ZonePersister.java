@@ -0,0 +1,236 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics;
+
+/**
+ * Write-behind persistence of zones to a store
+ *
+ * Changed zones are only marked dirty, so repeated edits of a zone between flushes are saved once. Flushing takes records of the dirty
+ * zones on the calling(main) thread and writes them to the store on a background thread.
+ *
+ * @author taylorjb
+ *
+ */
+public class ZonePersister
+{
+    private static final long DRAIN_TIMEOUT = 60; // seconds to wait for pending writes when draining
+
+    private final ZoneStore store; // store we write to, only used by the writer thread once we're running
+    private final ExecutorService writer; // thread writing to the store
+    private final ZoneMetrics metrics; // where we record saves
+    private final Logger logger; // where we report failed saves
+
+    private Map<String, Zone> dirty; // zones changed since the last flush, by name
+    private Map<String, ZoneRecord> dirtyRecords; // records changed since the last flush of zones which aren't loaded, by name
+    private Set<String> deleted; // names of zones deleted since the last flush
+
+    private Map<String, ZoneRecord> failedChanged; // records of failed writes to be retried by the next write, guarded by this
+    private Set<String> failedDeleted; // deletions of failed writes to be retried by the next write, guarded by this
+
+    /**
+     * Initialize the persister
+     *
+     * @param store
+     *            store to write zones to
+     * @param metrics
+     *            where to record saves
+     * @param logger
+     *            where to report failed saves, e.g. the plugin's logger
+     */
+    public ZonePersister(ZoneStore store, ZoneMetrics metrics, Logger logger)
+    {
+        this.store = store;
+        this.metrics = metrics;
+        this.logger = logger;
+        dirty = new LinkedHashMap<String, Zone>();
+        dirtyRecords = new LinkedHashMap<String, ZoneRecord>();
+        deleted = new LinkedHashSet<String>();
+        failedChanged = new LinkedHashMap<String, ZoneRecord>();
+        failedDeleted = new LinkedHashSet<String>();
+
+        writer = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread thread = new Thread(r, "PolyZones zone writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Mark a zone as changed so it's saved on the next flush
+     *
+     * @param zone
+     *            zone which changed
+     */
+    public void markDirty(Zone zone)
+    {
+        deleted.remove(zone.getName());
+        dirtyRecords.remove(zone.getName());
+        dirty.put(zone.getName(), zone);
+    }
+
+    /**
+     * Mark a zone which isn't loaded as changed so its record is saved on the next flush
+     *
+     * @param record
+     *            new record of the zone
+     */
+    public void markDirty(ZoneRecord record)
+    {
+        deleted.remove(record.getName());
+        dirty.remove(record.getName());
+        dirtyRecords.put(record.getName(), record);
+    }
+
+    /**
+     * Mark a zone as deleted so it's removed from the store on the next flush
+     *
+     * @param name
+     *            name of the deleted zone
+     */
+    public void markDeleted(String name)
+    {
+        dirty.remove(name);
+        dirtyRecords.remove(name);
+        deleted.add(name);
+    }
+
+    /**
+     * Take records of everything changed and write them in the background, along with anything from a failed write
+     */
+    public void flush()
+    {
+        final List<ZoneRecord> changed = new ArrayList<ZoneRecord>();
+        final List<String> removed = new ArrayList<String>();
+
+        for (Zone zone : dirty.values())
+            changed.add(ZoneRecord.of(zone));
+        changed.addAll(dirtyRecords.values());
+        removed.addAll(deleted);
+
+        dirty.clear();
+        dirtyRecords.clear();
+        deleted.clear();
+
+        boolean retry;
+        synchronized (this)
+        {
+            retry = !failedChanged.isEmpty() || !failedDeleted.isEmpty();
+        }
+
+        if (changed.isEmpty() && removed.isEmpty() && !retry) return;
+
+        writer.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                write(changed, removed);
+            }
+        });
+    }
+
+    /**
+     * Write changes to the store along with anything from failed writes, keeping them all to retry if it fails
+     * 
+     * Writes run one at a time in the order they were flushed, so anything from a failed write is older than this write's changes to the
+     * same zones and is dropped in favour of them.
+     *
+     * @param changed
+     *            records of changed zones
+     * @param removed
+     *            names of deleted zones
+     */
+    private void write(Collection<ZoneRecord> changed, Collection<String> removed)
+    {
+        List<ZoneRecord> writing = new ArrayList<ZoneRecord>();
+        List<String> removing = new ArrayList<String>();
+        synchronized (this)
+        {
+            Set<String> names = new HashSet<String>(removed);
+            for (ZoneRecord record : changed)
+                names.add(record.getName());
+
+            for (ZoneRecord record : failedChanged.values())
+                if (!names.contains(record.getName())) writing.add(record);
+            for (String name : failedDeleted)
+                if (!names.contains(name)) removing.add(name);
+
+            failedChanged.clear();
+            failedDeleted.clear();
+        }
+
+        writing.addAll(changed);
+        removing.addAll(removed);
+        if (writing.isEmpty() && removing.isEmpty()) return;
+
+        try
+        {
+            long start = System.nanoTime();
+            store.save(writing, removing);
+            metrics.recordSave(writing.size() + removing.size(), System.nanoTime() - start);
+        }
+        catch (IOException ioe)
+        {
+            logger.log(Level.WARNING, "Error saving " + (writing.size() + removing.size()) + " zones, will retry", ioe);
+
+            synchronized (this)
+            {
+                for (ZoneRecord record : writing)
+                    failedChanged.put(record.getName(), record);
+                failedDeleted.addAll(removing);
+            }
+        }
+    }
+
+    /**
+     * Flush everything and wait for it to be written, the persister can't be used afterwards
+     */
+    public void drain()
+    {
+        flush();
+        writer.shutdown();
+
+        try
+        {
+            if (!writer.awaitTermination(DRAIN_TIMEOUT, TimeUnit.SECONDS))
+            {
+                logger.warning("Timed out waiting for zones to be saved!");
+                return;
+            }
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        // one last try at anything which failed, the writer has stopped so this is the only write
+        write(new ArrayList<ZoneRecord>(), new ArrayList<String>());
+        synchronized (this)
+        {
+            if (!failedChanged.isEmpty() || !failedDeleted.isEmpty())
+                logger.warning((failedChanged.size() + failedDeleted.size()) + " zones could not be saved!");
+        }
+    }
+}
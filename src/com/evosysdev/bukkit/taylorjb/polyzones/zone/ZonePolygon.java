@@ -0,0 +1,280 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.Arrays;
+
+/**
+ * Immutable polygon used for zone containment tests
+ *
+ * Containment follows the same even-odd rules as java.awt.Polygon, but the polygon also keeps its bounding box for fast rejection and
+ * splits itself into horizontal slabs at each vertex y. Each slab knows which edges cross it, so a point query finds its slab with a
+ * binary search and only walks the few edges crossing that slab.
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZonePolygon
+{
+    public static final ZonePolygon EMPTY = new ZonePolygon(new int[0], new int[0]); // polygon with no points
+
+    private static final int MAX_SLAB_EDGES = 32; // most edges per vertex we'll store in slabs before walking all edges instead
+
+    private final int[] xs, ys; // vertices of the polygon
+    private final int minX, minY, maxX, maxY; // bounding box of the vertices
+
+    private final int[] slabYs; // sorted distinct vertex y values, slab i covers [slabYs[i], slabYs[i + 1])
+    private final int[] slabStart; // index in slabEdges where each slab's edges start, one extra entry marks the end
+    private final int[] slabEdges; // edges crossing each slab, edge i runs from vertex i - 1 to vertex i
+
+    /**
+     * Initialize the polygon
+     *
+     * @param xs
+     *            x coords of the vertices
+     * @param ys
+     *            y coords of the vertices, must be as long as xs
+     */
+    public ZonePolygon(int[] xs, int[] ys)
+    {
+        if (xs.length != ys.length) throw new IllegalArgumentException("Polygon needs as many y coords as x coords!");
+
+        this.xs = xs.clone();
+        this.ys = ys.clone();
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < xs.length; i++)
+        {
+            minX = Math.min(minX, xs[i]);
+            minY = Math.min(minY, ys[i]);
+            maxX = Math.max(maxX, xs[i]);
+            maxY = Math.max(maxY, ys[i]);
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+
+        // sorted distinct y values are the slab boundaries
+        int[] sorted = this.ys.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i++)
+            if (i == 0 || sorted[i] != sorted[distinct - 1]) sorted[distinct++] = sorted[i];
+        int[] slabYs = Arrays.copyOf(sorted, distinct);
+
+        // count edges in each slab, giving up on slabs if there are too many
+        int slabs = Math.max(distinct - 1, 0);
+        int[] slabStart = new int[slabs + 1];
+        long total = 0;
+        for (int i = 0; i < xs.length; i++)
+        {
+            int from = slab(slabYs, Math.min(ys[i], ys[prev(i)])), to = slab(slabYs, Math.max(ys[i], ys[prev(i)]));
+            total += to - from;
+            for (int s = from; s < to; s++)
+                slabStart[s + 1]++;
+        }
+
+        if (total > (long) MAX_SLAB_EDGES * xs.length)
+        {
+            this.slabYs = null;
+            this.slabStart = null;
+            this.slabEdges = null;
+            return;
+        }
+
+        for (int s = 0; s < slabs; s++)
+            slabStart[s + 1] += slabStart[s];
+
+        int[] slabEdges = new int[(int) total], fill = slabStart.clone();
+        for (int i = 0; i < xs.length; i++)
+        {
+            int from = slab(slabYs, Math.min(ys[i], ys[prev(i)])), to = slab(slabYs, Math.max(ys[i], ys[prev(i)]));
+            for (int s = from; s < to; s++)
+                slabEdges[fill[s]++] = i;
+        }
+
+        this.slabYs = slabYs;
+        this.slabStart = slabStart;
+        this.slabEdges = slabEdges;
+    }
+
+    /**
+     * Get a copy of this polygon with a point added
+     *
+     * @param x
+     *            x coord of the point to be added
+     * @param y
+     *            y coord of the point to be added
+     * @return new polygon with the point added
+     */
+    public ZonePolygon withPoint(int x, int y)
+    {
+        int[] newXs = Arrays.copyOf(xs, xs.length + 1), newYs = Arrays.copyOf(ys, ys.length + 1);
+        newXs[xs.length] = x;
+        newYs[ys.length] = y;
+
+        return new ZonePolygon(newXs, newYs);
+    }
+
+    /**
+     * Check if a point is inside the polygon
+     *
+     * @param x
+     *            x coord of the point
+     * @param y
+     *            y coord of the point
+     * @return if the point is inside, matching java.awt.Polygon#contains(int, int)
+     */
+    public boolean contains(int x, int y)
+    {
+        // need an area and to be in the bounding box
+        if (xs.length <= 2 || x < minX || y < minY || x >= maxX || y >= maxY) return false;
+
+        boolean inside = false;
+
+        if (slabYs == null)
+        { // too many edges crossing slabs, walk them all
+            for (int i = 0; i < xs.length; i++)
+                if (crosses(i, x, y)) inside = !inside;
+        }
+        else
+        {
+            int s = slab(slabYs, y);
+            for (int i = slabStart[s]; i < slabStart[s + 1]; i++)
+                if (crosses(slabEdges[i], x, y)) inside = !inside;
+        }
+
+        return inside;
+    }
+
+    /**
+     * Check if a ray going left from a point crosses an edge, same as each step of java.awt.Polygon#contains(double, double)
+     *
+     * @param edge
+     *            edge we're checking, from vertex edge - 1 to vertex edge
+     * @param x
+     *            x coord of the point
+     * @param y
+     *            y coord of the point
+     * @return if the edge counts as a crossing
+     */
+    private boolean crosses(int edge, double x, double y)
+    {
+        int curx = xs[edge], cury = ys[edge], lastx = xs[prev(edge)], lasty = ys[prev(edge)];
+
+        if (cury == lasty) return false;
+
+        int leftx;
+        if (curx < lastx)
+        {
+            if (x >= lastx) return false;
+            leftx = curx;
+        }
+        else
+        {
+            if (x >= curx) return false;
+            leftx = lastx;
+        }
+
+        double test1, test2;
+        if (cury < lasty)
+        {
+            if (y < cury || y >= lasty) return false;
+            if (x < leftx) return true;
+            test1 = x - curx;
+            test2 = y - cury;
+        }
+        else
+        {
+            if (y < lasty || y >= cury) return false;
+            if (x < leftx) return true;
+            test1 = x - lastx;
+            test2 = y - lasty;
+        }
+
+        return test1 < (test2 / (lasty - cury) * (lastx - curx));
+    }
+
+    /**
+     * @return index of the vertex before vertex i
+     */
+    private int prev(int i)
+    {
+        return (i == 0 ? xs.length : i) - 1;
+    }
+
+    /**
+     * Find the slab containing a y value
+     *
+     * @param slabYs
+     *            slab boundaries
+     * @param y
+     *            y value we're finding the slab of
+     * @return index of the last boundary at or below y
+     */
+    private static int slab(int[] slabYs, int y)
+    {
+        int index = Arrays.binarySearch(slabYs, y);
+        return (index >= 0) ? index : -index - 2;
+    }
+
+    /**
+     * @return number of points in the polygon
+     */
+    public int size()
+    {
+        return xs.length;
+    }
+
+    /**
+     * @param i
+     *            index of the vertex
+     * @return x coord of vertex i
+     */
+    public int getX(int i)
+    {
+        return xs[i];
+    }
+
+    /**
+     * @param i
+     *            index of the vertex
+     * @return y coord of vertex i
+     */
+    public int getY(int i)
+    {
+        return ys[i];
+    }
+
+    /**
+     * @return smallest x coord of the polygon
+     */
+    public int getMinX()
+    {
+        return minX;
+    }
+
+    /**
+     * @return smallest y coord of the polygon
+     */
+    public int getMinY()
+    {
+        return minY;
+    }
+
+    /**
+     * @return largest x coord of the polygon
+     */
+    public int getMaxX()
+    {
+        return maxX;
+    }
+
+    /**
+     * @return largest y coord of the polygon
+     */
+    public int getMaxY()
+    {
+        return maxY;
+    }
+}
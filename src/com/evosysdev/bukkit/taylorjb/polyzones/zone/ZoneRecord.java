@@ -0,0 +1,257 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.Arrays;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Plain, immutable copy of a zone's saved data
+ *
+ * Records are what zone stores read and write, so they can be handled away from the live zones.
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZoneRecord
+{
+    private final String name, // zone name
+            parent, // name of the zone's parent, null for everywhere
+            world, // zone's world
+            greeting, // zone greeting
+            farewell; // zone farewell
+    private final int floor, // bottom of the zone
+            ceiling; // top height of the zone
+    private final int[] xs, ys; // polygon points
+    private final State[] flags; // flag states set on the zone, by flag ordinal
+    private final ZoneMembers members; // players and groups given access to the zone
+
+    /**
+     * Initialize the record
+     *
+     * @param name
+     *            zone name
+     * @param parent
+     *            name of the zone's parent, null for everywhere
+     * @param world
+     *            zone's world
+     * @param greeting
+     *            zone greeting
+     * @param farewell
+     *            zone farewell
+     * @param floor
+     *            bottom of the zone
+     * @param ceiling
+     *            top height of the zone
+     * @param xs
+     *            x coords of the polygon points
+     * @param ys
+     *            y coords of the polygon points
+     * @param flags
+     *            flag states set on the zone, by flag ordinal
+     * @param members
+     *            players and groups given access to the zone, copied
+     */
+    public ZoneRecord(String name, String parent, String world, String greeting, String farewell, int floor, int ceiling, int[] xs, int[] ys,
+            State[] flags, ZoneMembers members)
+    {
+        this.name = name;
+        this.parent = parent;
+        this.world = world;
+        this.greeting = greeting;
+        this.farewell = farewell;
+        this.floor = floor;
+        this.ceiling = ceiling;
+        this.xs = xs;
+        this.ys = ys;
+        this.flags = flags;
+        this.members = new ZoneMembers(members);
+    }
+
+    /**
+     * Initialize the record of a zone without members
+     *
+     * @see #ZoneRecord(String, String, String, String, String, int, int, int[], int[], State[], ZoneMembers)
+     */
+    public ZoneRecord(String name, String parent, String world, String greeting, String farewell, int floor, int ceiling, int[] xs, int[] ys,
+            State[] flags)
+    {
+        this(name, parent, world, greeting, farewell, floor, ceiling, xs, ys, flags, new ZoneMembers());
+    }
+
+    /**
+     * Make a record of a zone's current state
+     *
+     * @param zone
+     *            zone we're recording
+     * @return record of the zone
+     */
+    public static ZoneRecord of(Zone zone)
+    {
+        int[] xs = new int[zone.getNumPoints()], ys = new int[xs.length];
+        for (int i = 0; i < xs.length; i++)
+        {
+            xs[i] = zone.getPolygon().getX(i);
+            ys[i] = zone.getPolygon().getY(i);
+        }
+
+        State[] flags = new State[Flag.values().length];
+        for (Flag f : Flag.values())
+            flags[f.ordinal()] = zone.getOwnFlagState(f);
+
+        return new ZoneRecord(zone.getName(), (zone.getParent() == null) ? null : zone.getParent().getName(), zone.getWorld(), zone.getGreeting(),
+                zone.getFarewell(), zone.getFloor(), zone.getCeiling(), xs, ys, flags, zone.getMembers());
+    }
+
+    /**
+     * Make a copy of this record with a different parent
+     *
+     * @param parent
+     *            name of the new parent
+     * @return record of the zone under the new parent
+     */
+    public ZoneRecord withParent(String parent)
+    {
+        return new ZoneRecord(name, parent, world, greeting, farewell, floor, ceiling, xs, ys, flags, members);
+    }
+
+    /**
+     * @return copy of this record without points
+     */
+    ZoneRecord withoutPoints()
+    {
+        return new ZoneRecord(name, parent, world, greeting, farewell, floor, ceiling, new int[0], new int[0], flags, members);
+    }
+
+    /**
+     * Make a copy of this record with the points of another
+     *
+     * @param record
+     *            record whose points are used
+     * @return record of the zone with the other's points
+     */
+    ZoneRecord withPointsOf(ZoneRecord record)
+    {
+        return new ZoneRecord(name, parent, world, greeting, farewell, floor, ceiling, record.xs, record.ys, flags, members);
+    }
+
+    /**
+     * @param record
+     *            record to compare to
+     * @return if this record has the same points as another, in the same order
+     */
+    boolean hasPointsOf(ZoneRecord record)
+    {
+        return Arrays.equals(xs, record.xs) && Arrays.equals(ys, record.ys);
+    }
+
+    /**
+     * @return zone name
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return name of the zone's parent, null for everywhere
+     */
+    public String getParent()
+    {
+        return parent;
+    }
+
+    /**
+     * @return zone's world
+     */
+    public String getWorld()
+    {
+        return world;
+    }
+
+    /**
+     * @return zone greeting
+     */
+    public String getGreeting()
+    {
+        return greeting;
+    }
+
+    /**
+     * @return zone farewell
+     */
+    public String getFarewell()
+    {
+        return farewell;
+    }
+
+    /**
+     * @return bottom of the zone
+     */
+    public int getFloor()
+    {
+        return floor;
+    }
+
+    /**
+     * @return top height of the zone
+     */
+    public int getCeiling()
+    {
+        return ceiling;
+    }
+
+    /**
+     * @return number of polygon points
+     */
+    public int getNumPoints()
+    {
+        return xs.length;
+    }
+
+    /**
+     * @param i
+     *            index of the point
+     * @return x coord of point i
+     */
+    public int getX(int i)
+    {
+        return xs[i];
+    }
+
+    /**
+     * @param i
+     *            index of the point
+     * @return y coord of point i
+     */
+    public int getY(int i)
+    {
+        return ys[i];
+    }
+
+    /**
+     * @return the record's polygon
+     */
+    public ZonePolygon getPolygon()
+    {
+        return new ZonePolygon(xs, ys);
+    }
+
+    /**
+     * @param flag
+     *            flag we want the state of
+     * @return state set on the zone for the flag, null if not set
+     */
+    public State getFlag(Flag flag)
+    {
+        return flags[flag.ordinal()];
+    }
+
+    /**
+     * @return players and groups given access to the zone, a copy
+     */
+    public ZoneMembers getMembers()
+    {
+        return new ZoneMembers(members);
+    }
+}
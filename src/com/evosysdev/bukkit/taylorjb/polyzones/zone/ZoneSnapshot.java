@@ -0,0 +1,920 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Immutable view of every zone, the hierarchy and the spatial index at one point in time
+ *
+ * The manager builds a new snapshot on the main thread whenever a zone changes and publishes it through a single volatile reference. Once
+ * built nothing in a snapshot changes, so any thread can look zones up in it without locking and every answer it gives is consistent with
+ * the others, even while the main thread is changing zones.
+ *
+ * Zones themselves are mutable and only safe to use on the main thread, the snapshot keeps a copy of everything a lookup needs from each
+ * zone(polygon, heights, world, parent, children and resolved flags) and only hands out the zones as answers.
+ *
+ * Each snapshot is made from the last one, copying only the nodes of zones which changed and sharing the rest, see
+ * {@link #next(long, Collection, Collection, int, Map)}. Nodes refer to each other by node id, so a changed node doesn't mean copying
+ * every node which refers to it.
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZoneSnapshot
+{
+    static final int UNKNOWN_WORLD = -1; // world id of worlds the snapshot has no id for, only everywhere zones can contain them
+    private static final int NAME_SHARDS = 256; // number of maps the names are split between, a power of 2
+
+    private final long version; // version of the snapshot, increases with every snapshot published
+    private final List<Map<String, Zone>> names; // lowercased zone name -> zone, split between NAME_SHARDS maps so a change copies only one
+    private final Node[] nodes; // node of each zone by node id, null for ids no zone in the snapshot has
+    private final Node root; // node of everywhere
+    private final Map<String, Integer> worldIds; // world name -> world id
+    private final AtomicReferenceArray<World> handles; // last world handle looked up for each world id
+    private final ZoneIndex index; // spatial index of the zones
+    private final ZoneMetrics metrics; // where we record lookups
+
+    /**
+     * Build a snapshot of a manager's zones from scratch, must be called on the thread which changes them
+     *
+     * @param version
+     *            version of the snapshot
+     * @param root
+     *            zone every other zone descends from(everywhere)
+     * @param numIds
+     *            number of node ids handed out
+     * @param worldIds
+     *            world name -> world id, copied
+     * @param metrics
+     *            where to record lookups
+     */
+    ZoneSnapshot(long version, Zone root, int numIds, Map<String, Integer> worldIds, ZoneMetrics metrics)
+    {
+        this.version = version;
+        this.metrics = metrics;
+        this.worldIds = new HashMap<String, Integer>(worldIds);
+        handles = new AtomicReferenceArray<World>(worldIds.size());
+        nodes = new Node[numIds];
+        names = new ArrayList<Map<String, Zone>>(NAME_SHARDS);
+        for (int shard = 0; shard < NAME_SHARDS; shard++)
+            names.add(new HashMap<String, Zone>());
+
+        // copy the hierarchy breadth first from everywhere, so parents come before their children
+        List<Node> order = new ArrayList<Node>();
+        List<Zone> open = new ArrayList<Zone>();
+        open.add(root);
+        for (int i = 0; i < open.size(); i++)
+        {
+            Zone zone = open.get(i);
+            Node node = new Node(zone);
+            nodes[node.id] = node;
+            order.add(node);
+
+            String key = ZoneNames.key(zone.getName());
+            names.get(shard(key)).put(key, zone);
+            open.addAll(zone.getChildren());
+        }
+
+        this.root = nodes[root.getNodeId()];
+        index = new ZoneIndex(order, worldIds.size());
+    }
+
+    /**
+     * Initialize a snapshot made from the last one
+     */
+    private ZoneSnapshot(long version, List<Map<String, Zone>> names, Node[] nodes, Node root, Map<String, Integer> worldIds, ZoneIndex index,
+            ZoneMetrics metrics)
+    {
+        this.version = version;
+        this.names = names;
+        this.nodes = nodes;
+        this.root = root;
+        this.worldIds = new HashMap<String, Integer>(worldIds);
+        handles = new AtomicReferenceArray<World>(worldIds.size());
+        this.index = index;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Make the next snapshot from this one, must be called on the thread which changes zones
+     *
+     * Only nodes of the changed zones, of their old and new parents and of descendants whose inherited flags changed are copied again,
+     * every other node is shared. The index is shared too when no zone changed shape, otherwise only the regions of the index the changed
+     * zones overlap are copied.
+     *
+     * @param version
+     *            version of the snapshot
+     * @param changed
+     *            zones changed or added since this snapshot, all still in the manager
+     * @param removed
+     *            zones taken out of the manager since this snapshot
+     * @param numIds
+     *            number of node ids handed out, ids of removed zones aren't handed out again until the next snapshot is made
+     * @param worldIds
+     *            world name -> world id, copied
+     * @return the next snapshot
+     */
+    ZoneSnapshot next(long version, Collection<Zone> changed, Collection<Zone> removed, int numIds, Map<String, Integer> worldIds)
+    {
+        Node[] nodes = Arrays.copyOf(this.nodes, Math.max(numIds, this.nodes.length));
+        List<Map<String, Zone>> names = new ArrayList<Map<String, Zone>>(this.names);
+        boolean[] copied = new boolean[NAME_SHARDS]; // name maps copied for the next snapshot, the rest are shared
+        List<Node> unindexed = new ArrayList<Node>(), indexed = new ArrayList<Node>(); // nodes leaving and joining the index
+        Set<Zone> refresh = Collections.newSetFromMap(new IdentityHashMap<Zone, Boolean>()); // zones whose node is copied again
+
+        for (Zone zone : removed)
+        {
+            // zones added and removed again since this snapshot were never in it
+            Node old = getNode(zone);
+            if (old == null) continue;
+
+            nodes[old.id] = null;
+            unindexed.add(old);
+            getShard(names, copied, zone.getName()).remove(ZoneNames.key(zone.getName()));
+            if (old.parent != Node.NO_PARENT) refresh.add(this.nodes[old.parent].zone);
+        }
+
+        for (Zone zone : changed)
+        {
+            Node old = getNode(zone);
+            refresh.add(zone);
+            if (old == null) getShard(names, copied, zone.getName()).put(ZoneNames.key(zone.getName()), zone);
+
+            // a zone added or moved changes the children of its parents
+            int parent = (zone.getParent() == null) ? Node.NO_PARENT : zone.getParent().getNodeId();
+            if (old == null || old.parent != parent)
+            {
+                if (zone.getParent() != null) refresh.add(zone.getParent());
+                if (old != null && old.parent != Node.NO_PARENT) refresh.add(this.nodes[old.parent].zone);
+            }
+        }
+
+        for (Zone zone : removed)
+            refresh.remove(zone);
+
+        List<Zone> inheriting = new ArrayList<Zone>(); // zones whose parent's flags changed
+        for (Zone zone : refresh)
+        {
+            Node old = getNode(zone), node = new Node(zone);
+            nodes[node.id] = node;
+
+            // zones only move in the index when their shape changes, otherwise the index is shared
+            if (old == null || !node.isShapedLike(old))
+            {
+                if (old != null) unindexed.add(old);
+                indexed.add(node);
+            }
+            if (old == null || old.flags != node.flags) inheriting.addAll(zone.getChildren());
+        }
+
+        // children inheriting flags resolve them again, down to where the flags stop changing
+        for (int i = 0; i < inheriting.size(); i++)
+        {
+            Zone zone = inheriting.get(i);
+            Node node = nodes[zone.getNodeId()];
+            if (node == null || node.flags == zone.getResolvedFlags()) continue;
+
+            nodes[node.id] = new Node(node, zone.getResolvedFlags());
+            inheriting.addAll(zone.getChildren());
+        }
+
+        ZoneIndex next = (unindexed.isEmpty() && indexed.isEmpty()) ? index : new ZoneIndex(index, unindexed, indexed, worldIds.size());
+        return new ZoneSnapshot(version, names, nodes, nodes[root.id], worldIds, next, metrics);
+    }
+
+    /**
+     * @return version of the snapshot, later snapshots have higher versions
+     */
+    public long getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Find the zone with given name
+     *
+     * @param name
+     *            name of the zone we want to find, in any case
+     * @return zone with given name or null if it isn't in the snapshot
+     */
+    public Zone getZone(String name)
+    {
+        String key = ZoneNames.key(name);
+        return names.get(shard(key)).get(key);
+    }
+
+    /**
+     * @return zone every other zone is inside, whatever it's named
+     */
+    public Zone getRoot()
+    {
+        return root.zone;
+    }
+
+    /**
+     * @return every zone in the snapshot, gathered on each call
+     */
+    public Collection<Zone> getZones()
+    {
+        List<Zone> zones = new ArrayList<Zone>();
+        for (Map<String, Zone> shard : names)
+            zones.addAll(shard.values());
+
+        return zones;
+    }
+
+    /**
+     * @param zone
+     *            zone we want the parent of
+     * @return parent of the zone when the snapshot was taken, null for everywhere or zones not in the snapshot
+     */
+    public Zone getParent(Zone zone)
+    {
+        Node node = getNode(zone);
+        return (node == null || node.parent == Node.NO_PARENT) ? null : nodes[node.parent].zone;
+    }
+
+    /**
+     * Get the state of a flag for a zone, after inheritance, when the snapshot was taken
+     *
+     * @param zone
+     *            zone we want the flag state of
+     * @param flag
+     *            flag we're looking for the state of
+     * @return state of flag, or null if the zone isn't in the snapshot
+     */
+    public State getFlagState(Zone zone, Flag flag)
+    {
+        Node node = getNode(zone);
+        return (node == null) ? null : Zone.getFlagState(node.flags, flag);
+    }
+
+    /**
+     * Find the most specific zone this location is in
+     *
+     * @param loc
+     *            location we're looking for zone info for
+     * @return most specific zone for location loc
+     */
+    public Zone getContainedInZone(Location loc)
+    {
+        return getContainedInZone(loc.getWorld(), loc.getBlockX(), loc.getBlockY(), loc.getBlockZ());
+    }
+
+    /**
+     * Find the most specific zone a block is in, without allocating anything once the block's chunk has been looked up before
+     *
+     * @param world
+     *            world the block is in
+     * @param x
+     *            x coord of the block
+     * @param y
+     *            y(height) of the block
+     * @param z
+     *            z coord of the block
+     * @return most specific zone for the block
+     */
+    public Zone getContainedInZone(World world, int x, int y, int z)
+    {
+        return getNode(getWorldId(world), x, y, z).zone;
+    }
+
+    /**
+     * Check if a flag is on for a block, flags not set anywhere count as on
+     *
+     * @param world
+     *            world the block is in
+     * @param x
+     *            x coord of the block
+     * @param y
+     *            y(height) of the block
+     * @param z
+     *            z coord of the block
+     * @param flag
+     *            flag we're checking
+     * @return if the flag is on in the most specific zone of the block
+     */
+    public boolean isFlagOn(World world, int x, int y, int z, Flag flag)
+    {
+        return Zone.getFlagState(getNode(getWorldId(world), x, y, z).flags, flag) != State.OFF;
+    }
+
+    /**
+     * Find the most specific zone of many blocks in a world at once
+     *
+     * Blocks are grouped by chunk so each chunk's zones are only looked up once, which is much cheaper than looking up each block on its
+     * own when the blocks are close together.
+     *
+     * @param world
+     *            name of the world the blocks are in
+     * @param xs
+     *            x coords of the blocks
+     * @param ys
+     *            y(height) of the blocks
+     * @param zs
+     *            z coords of the blocks
+     * @return most specific zone of each block, in the order given
+     * @throws IllegalArgumentException
+     *             if the coordinate arrays aren't the same length
+     */
+    public Zone[] getContainedInZones(String world, int[] xs, int[] ys, int[] zs) throws IllegalArgumentException
+    {
+        Node[] found = getNodes(world, xs, ys, zs);
+        Zone[] zones = new Zone[found.length];
+        for (int i = 0; i < found.length; i++)
+            zones[i] = found[i].zone;
+
+        return zones;
+    }
+
+    /**
+     * Find the most specific zone of many blocks in the same world at once, see {@link #getContainedInZones(String, int[], int[], int[])}
+     *
+     * @param blocks
+     *            blocks we want the zones of, all in one world
+     * @return most specific zone of each block, in the collection's order
+     * @throws IllegalArgumentException
+     *             if the blocks aren't all in the same world
+     */
+    public Zone[] getContainedInZones(Collection<Block> blocks) throws IllegalArgumentException
+    {
+        if (blocks.isEmpty()) return new Zone[0];
+
+        String world = blocks.iterator().next().getWorld().getName();
+        int[] xs = new int[blocks.size()], ys = new int[xs.length], zs = new int[xs.length];
+        int i = 0;
+        for (Block block : blocks)
+        {
+            if (!block.getWorld().getName().equals(world)) throw new IllegalArgumentException("All blocks must be in the same world!");
+
+            xs[i] = block.getX();
+            ys[i] = block.getY();
+            zs[i++] = block.getZ();
+        }
+
+        return getContainedInZones(world, xs, ys, zs);
+    }
+
+    /**
+     * Find the state of a flag for many blocks in a world at once, see {@link #getContainedInZones(String, int[], int[], int[])}
+     *
+     * @param world
+     *            name of the world the blocks are in
+     * @param xs
+     *            x coords of the blocks
+     * @param ys
+     *            y(height) of the blocks
+     * @param zs
+     *            z coords of the blocks
+     * @param flag
+     *            flag we want the state of
+     * @return state of the flag for each block, in the order given
+     * @throws IllegalArgumentException
+     *             if the coordinate arrays aren't the same length
+     */
+    public State[] getFlagStates(String world, int[] xs, int[] ys, int[] zs, Flag flag) throws IllegalArgumentException
+    {
+        Node[] found = getNodes(world, xs, ys, zs);
+        State[] states = new State[found.length];
+        for (int i = 0; i < found.length; i++)
+            states[i] = Zone.getFlagState(found[i].flags, flag);
+
+        return states;
+    }
+
+    /**
+     * Find the zones which overlap a box, for checking many blocks in a small area against just those zones
+     *
+     * @param world
+     *            name of the world the box is in
+     * @param minX
+     *            lowest x coord in the box
+     * @param minY
+     *            lowest y(height) in the box
+     * @param minZ
+     *            lowest z coord in the box
+     * @param maxX
+     *            highest x coord in the box
+     * @param maxY
+     *            highest y(height) in the box
+     * @param maxZ
+     *            highest z coord in the box
+     * @return zones whose bounds overlap the box, everywhere isn't included as it overlaps everything
+     */
+    public List<Zone> getZonesOverlapping(String world, int minX, int minY, int minZ, int maxX, int maxY, int maxZ)
+    {
+        List<Zone> overlapping = new ArrayList<Zone>();
+        Set<Node> seen = new HashSet<Node>();
+        int worldId = getWorldId(world);
+
+        for (int chunkX = minX >> 4; chunkX <= maxX >> 4; chunkX++)
+            for (int chunkZ = minZ >> 4; chunkZ <= maxZ >> 4; chunkZ++)
+                for (int id : index.getCandidates(worldId, chunkX, chunkZ))
+                {
+                    Node node = nodes[id];
+                    ZonePolygon polygon = node.polygon;
+
+                    // blocks in a zone are above its floor and below its ceiling
+                    if (polygon.getMinX() <= maxX && polygon.getMaxX() >= minX && polygon.getMinY() <= maxZ && polygon.getMaxY() >= minZ
+                            && node.floor < maxY && node.ceiling > minY && seen.add(node)) overlapping.add(node.zone);
+                }
+
+        return overlapping;
+    }
+
+    /**
+     * Find the most specific zone a block is in, when the zones it could be in are already known
+     *
+     * @param x
+     *            x coord of the block
+     * @param y
+     *            y(height) of the block
+     * @param z
+     *            z coord of the block
+     * @param world
+     *            world the block is in
+     * @param overlapping
+     *            zones overlapping the block from this snapshot, see {@link #getZonesOverlapping(String, int, int, int, int, int, int)}
+     * @return most specific zone for the block
+     */
+    public Zone getContainedInZone(int x, int y, int z, String world, List<Zone> overlapping)
+    {
+        int worldId = getWorldId(world);
+        Node current = root;
+
+        // descend from everywhere through whichever overlapping zone contains the block
+        for (int i = 0; i < overlapping.size(); i++)
+        {
+            Node node = getNode(overlapping.get(i));
+            if (node != null && node.parent == current.id && node.contains(x, y, z, worldId))
+            {
+                current = node;
+                i = -1; // look for current's child from the start
+            }
+        }
+
+        return current.zone;
+    }
+
+    /**
+     * Drop the cached profile of a chunk when it unloads
+     *
+     * @param world
+     *            name of the world the chunk is in
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     */
+    void unloadChunk(String world, int chunkX, int chunkZ)
+    {
+        Integer id = worldIds.get(world);
+        if (id != null) index.removeProfile(id, ZoneIndex.key(chunkX, chunkZ));
+    }
+
+    /**
+     * @param zone
+     *            a zone
+     * @return the zone's node, or null if the zone isn't in the snapshot
+     */
+    private Node getNode(Zone zone)
+    {
+        // ids of removed zones are handed out again, so the node at the zone's id may be another zone's
+        int id = zone.getNodeId();
+        Node node = (id < 0 || id >= nodes.length) ? null : nodes[id];
+        return (node != null && node.zone == zone) ? node : null;
+    }
+
+    /**
+     * Get the id of a world from its handle, only comparing references for worlds we've seen before
+     *
+     * @param world
+     *            the world
+     * @return id of the world, or UNKNOWN_WORLD if the snapshot has none for it
+     */
+    private int getWorldId(World world)
+    {
+        for (int id = 0; id < handles.length(); id++)
+            if (handles.get(id) == world) return id;
+
+        // new handle(first lookup, or the world was reloaded), find it by name
+        int id = getWorldId(world.getName());
+        if (id != UNKNOWN_WORLD) handles.set(id, world);
+        return id;
+    }
+
+    /**
+     * @param world
+     *            name of the world
+     * @return id of the world, or UNKNOWN_WORLD if the snapshot has none for it
+     */
+    private int getWorldId(String world)
+    {
+        Integer id = worldIds.get(world);
+        return (id == null) ? UNKNOWN_WORLD : id;
+    }
+
+    /**
+     * Find the most specific zone a block is in
+     *
+     * @param world
+     *            id of the world the block is in
+     * @param x
+     *            x coord of the block
+     * @param y
+     *            y(height) of the block
+     * @param z
+     *            z coord of the block
+     * @return node of the most specific zone for the block
+     */
+    private Node getNode(int world, int x, int y, int z)
+    {
+        boolean sampled = metrics.countLookup(); // every lookup is counted, only some are timed
+        long start = sampled ? System.nanoTime() : 0;
+        Node current = root;
+        int tests = 0; // polygon tests made
+
+        // only zones overlapping the block's chunk can contain it
+        int[] candidates = index.getCandidates(world, x >> 4, z >> 4);
+        if (candidates.length > 0)
+        {
+            // chunks where every column is in the same zones can be answered by height alone
+            ChunkProfile profile = getProfile(world, x >> 4, z >> 4, candidates);
+            if (!profile.isMixed()) current = nodes[profile.getNodeId(y)];
+            else
+            {
+                // descend through whichever is smaller, current's children or the chunk's candidates
+                int[] ids = (current.children.length < candidates.length) ? current.children : candidates;
+                for (int i = 0; i < ids.length; i++)
+                {
+                    Node node = nodes[ids[i]];
+                    if (node.parent != current.id || !node.spans(y, world)) continue;
+
+                    tests++;
+                    if (node.polygon.contains(x, z))
+                    {
+                        current = node;
+                        ids = (current.children.length < candidates.length) ? current.children : candidates;
+                        i = -1; // look for current's child from the start
+                    }
+                }
+            }
+        }
+
+        if (sampled) metrics.recordLookup(System.nanoTime() - start, tests);
+        return current;
+    }
+
+    /**
+     * Find the most specific zone of many blocks in a world at once, see {@link #getContainedInZones(String, int[], int[], int[])}
+     *
+     * @return node of the most specific zone of each block, in the order given
+     */
+    private Node[] getNodes(String world, int[] xs, int[] ys, int[] zs) throws IllegalArgumentException
+    {
+        if (xs.length != ys.length || xs.length != zs.length) throw new IllegalArgumentException("Coordinate arrays must be the same length!");
+
+        Node[] found = new Node[xs.length];
+        if (found.length == 0) return found;
+        long start = System.nanoTime();
+        int worldId = getWorldId(world);
+
+        // key each block by its chunk, and find the distinct chunks in sorted order
+        long[] keys = new long[xs.length];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = ZoneIndex.key(xs[i] >> 4, zs[i] >> 4);
+
+        long[] chunks = keys.clone();
+        Arrays.sort(chunks);
+        int numChunks = 1;
+        for (int i = 1; i < chunks.length; i++)
+            if (chunks[i] != chunks[numChunks - 1]) chunks[numChunks++] = chunks[i];
+
+        // bucket the blocks by chunk, starts[c] is where chunk c's blocks begin in order
+        int[] chunkOf = new int[keys.length], starts = new int[numChunks + 1], order = new int[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            // blocks usually come in runs from the same chunk
+            chunkOf[i] = (i > 0 && keys[i] == keys[i - 1]) ? chunkOf[i - 1] : Arrays.binarySearch(chunks, 0, numChunks, keys[i]);
+            starts[chunkOf[i] + 1]++;
+        }
+        for (int c = 0; c < numChunks; c++)
+            starts[c + 1] += starts[c];
+
+        int[] next = Arrays.copyOf(starts, numChunks);
+        for (int i = 0; i < keys.length; i++)
+            order[next[chunkOf[i]]++] = i;
+
+        // answer a chunk at a time
+        // zones containing each column of a mixed chunk, by (x & 15) << 4 | (z & 15)
+        List<List<Node>> columns = new ArrayList<List<Node>>(Collections.nCopies(256, (List<Node>) null));
+        for (int c = 0; c < numChunks; c++)
+        {
+            int chunkX = (int) (chunks[c] >> 32), chunkZ = (int) chunks[c];
+            int[] candidates = index.getCandidates(worldId, chunkX, chunkZ);
+            ChunkProfile profile = (candidates.length == 0) ? null : getProfile(worldId, chunkX, chunkZ, candidates);
+            if (profile != null && profile.isMixed()) Collections.fill(columns, null);
+
+            for (int o = starts[c]; o < starts[c + 1]; o++)
+            {
+                int i = order[o];
+                if (profile == null) found[i] = root;
+                else if (!profile.isMixed()) found[i] = nodes[profile.getNodeId(ys[i])];
+                else
+                {
+                    // blocks in the same column share the polygon tests, only heights differ between them
+                    int column = (xs[i] & 15) << 4 | (zs[i] & 15);
+                    List<Node> covering = columns.get(column);
+                    if (covering == null)
+                    {
+                        covering = new ArrayList<Node>();
+                        for (int id : candidates)
+                            if (nodes[id].polygon.contains(xs[i], zs[i])) covering.add(nodes[id]);
+                        columns.set(column, covering);
+                    }
+
+                    found[i] = getNode(ys[i], covering, root);
+                }
+            }
+        }
+
+        metrics.recordBatch(found.length, numChunks, System.nanoTime() - start);
+        return found;
+    }
+
+    /**
+     * Get the profile of a chunk, working it out if it isn't cached
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     * @param candidates
+     *            ids of the zones overlapping the chunk
+     * @return profile of the chunk
+     */
+    private ChunkProfile getProfile(int world, int chunkX, int chunkZ, int[] candidates)
+    {
+        long key = ZoneIndex.key(chunkX, chunkZ);
+        ChunkProfile profile = index.getProfile(world, key);
+        if (profile == null)
+        {
+            // threads working out the same chunk at once get equal profiles, whichever is cached last wins
+            profile = classifyChunk(world, chunkX, chunkZ, candidates);
+            index.putProfile(world, key, profile);
+            metrics.countProfileBuild();
+        }
+
+        return profile;
+    }
+
+    /**
+     * Find the most specific zone a block is in, from the zones containing the block's column
+     *
+     * @param y
+     *            y(height) of the block
+     * @param covering
+     *            zones containing the block's column
+     * @param current
+     *            current zone the block is a part of
+     * @return node of the most specific zone for the block
+     */
+    private static Node getNode(int y, List<Node> covering, Node current)
+    {
+        for (int i = 0; i < covering.size(); i++)
+        {
+            Node node = covering.get(i);
+            if (node.parent == current.id && y > node.floor && y < node.ceiling) return getNode(y, covering, node);
+        }
+
+        return current;
+    }
+
+    /**
+     * Work out if every column of a chunk is in the same zones, and if so which zone each height is in
+     *
+     * @param world
+     *            id of the world the chunk is in
+     * @param chunkX
+     *            x coord of the chunk
+     * @param chunkZ
+     *            z coord of the chunk
+     * @param candidates
+     *            ids of the zones overlapping the chunk
+     * @return profile of the chunk
+     */
+    private ChunkProfile classifyChunk(int world, int chunkX, int chunkZ, int[] candidates)
+    {
+        long key = ZoneIndex.key(chunkX, chunkZ);
+        int baseX = chunkX << 4, baseZ = chunkZ << 4;
+        List<Node> covering = new ArrayList<Node>(); // candidates containing every column of the chunk
+
+        for (int id : candidates)
+        {
+            Node node = nodes[id];
+            int inside = 0;
+            for (int x = baseX; x < baseX + 16; x++)
+                for (int z = baseZ; z < baseZ + 16; z++)
+                    if (node.polygon.contains(x, z)) inside++;
+
+            if (inside == 256) covering.add(node);
+            else if (inside > 0) return ChunkProfile.mixed(world, key);
+        }
+
+        // the zone can only change with height where a covering zone's floor or ceiling is
+        TreeSet<Integer> starts = new TreeSet<Integer>();
+        starts.add(Integer.MIN_VALUE);
+        for (Node node : covering)
+        {
+            starts.add(node.floor + 1);
+            starts.add(node.ceiling);
+        }
+
+        List<Integer> rangeStarts = new ArrayList<Integer>(), rangeIds = new ArrayList<Integer>();
+        int last = -1; // node id of the last range's zone
+        for (int y : starts)
+        {
+            Node node = getNode(y, covering, root);
+
+            // merge ranges in the same zone
+            if (node.id != last)
+            {
+                rangeStarts.add(y);
+                rangeIds.add(node.id);
+                last = node.id;
+            }
+        }
+
+        int[] profileStarts = new int[rangeStarts.size()], profileIds = new int[rangeIds.size()];
+        for (int i = 0; i < profileStarts.length; i++)
+        {
+            profileStarts[i] = rangeStarts.get(i);
+            profileIds[i] = rangeIds.get(i);
+        }
+
+        return new ChunkProfile(world, key, profileStarts, profileIds);
+    }
+
+    /**
+     * @return which name map a lowercased name is in
+     */
+    private static int shard(String key)
+    {
+        int hash = key.hashCode();
+        return (hash ^ (hash >>> 16)) & (NAME_SHARDS - 1);
+    }
+
+    /**
+     * Get the name map a name is in, to be changed, copying it the first time as the last snapshot shares it
+     *
+     * @param names
+     *            name maps of the next snapshot
+     * @param copied
+     *            which maps have already been copied
+     * @param name
+     *            name of a zone
+     * @return map the name is in
+     */
+    private static Map<String, Zone> getShard(List<Map<String, Zone>> names, boolean[] copied, String name)
+    {
+        int shard = shard(ZoneNames.key(name));
+        if (!copied[shard])
+        {
+            names.set(shard, new HashMap<String, Zone>(names.get(shard)));
+            copied[shard] = true;
+        }
+
+        return names.get(shard);
+    }
+
+    /**
+     * Copy of a zone as it was when the snapshot was taken, the snapshot's hierarchy is made of these
+     *
+     * @author taylorjb
+     *
+     */
+    static final class Node
+    {
+        static final int NO_PARENT = -1; // parent of everywhere's node
+
+        final Zone zone; // zone this is a copy of
+        final int id; // node id of the zone, see Zone#getNodeId()
+        final int parent; // node id of the zone's parent, NO_PARENT for everywhere
+        final int[] children; // node ids of the zone's children
+        final ZonePolygon polygon; // polygonal area of the zone, null for everywhere
+        final int floor, ceiling; // bottom and top height of the zone
+        final int worldId; // id of the zone's world
+        final boolean allWorlds; // if the zone is in every world
+        final int flags; // resolved flags of the zone, see Zone#getFlagState(int, Flag)
+
+        /**
+         * Copy a zone
+         *
+         * @param zone
+         *            zone to copy
+         */
+        private Node(Zone zone)
+        {
+            this.zone = zone;
+            id = zone.getNodeId();
+            parent = (zone.getParent() == null) ? NO_PARENT : zone.getParent().getNodeId();
+            List<Zone> zoneChildren = zone.getChildren();
+            children = new int[zoneChildren.size()];
+            for (int c = 0; c < children.length; c++)
+                children[c] = zoneChildren.get(c).getNodeId();
+            polygon = zone.getPolygon();
+            floor = zone.getFloor();
+            ceiling = zone.getCeiling();
+            worldId = zone.getWorldId();
+            allWorlds = worldId == ZoneIndex.EVERYWHERE;
+            flags = zone.getResolvedFlags();
+        }
+
+        /**
+         * Copy a node with other flags
+         *
+         * @param node
+         *            node to copy
+         * @param flags
+         *            resolved flags of the copy
+         */
+        private Node(Node node, int flags)
+        {
+            zone = node.zone;
+            id = node.id;
+            parent = node.parent;
+            children = node.children;
+            polygon = node.polygon;
+            floor = node.floor;
+            ceiling = node.ceiling;
+            worldId = node.worldId;
+            allWorlds = node.allWorlds;
+            this.flags = flags;
+        }
+
+        /**
+         * @param other
+         *            another node of the same zone
+         * @return if both nodes contain the same blocks and sit in the same place in the hierarchy, so lookups can't tell them apart
+         */
+        boolean isShapedLike(Node other)
+        {
+            return polygon == other.polygon && floor == other.floor && ceiling == other.ceiling && worldId == other.worldId && parent == other.parent;
+        }
+
+        /**
+         * Check if a block is in the zone, see {@link Zone#inZone(int, int, int, int)}
+         *
+         * @param x
+         *            x coord of the block
+         * @param y
+         *            y(height) of the block
+         * @param z
+         *            z coord of the block
+         * @param worldId
+         *            id of the block's world
+         * @return if the block is in the zone
+         */
+        boolean contains(int x, int y, int z, int worldId)
+        {
+            // everywhere has no polygon and contains everything
+            if (polygon == null) return true;
+
+            return spans(y, worldId) && polygon.contains(x, z);
+        }
+
+        /**
+         * Check the cheap parts of {@link #contains(int, int, int, int)}, the block's height and world
+         *
+         * @param y
+         *            y(height) of the block
+         * @param worldId
+         *            id of the block's world
+         * @return if the block is between the zone's floor and ceiling in one of its worlds
+         */
+        boolean spans(int y, int worldId)
+        {
+            return y > floor && y < ceiling && (allWorlds || this.worldId == worldId);
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * Persistent storage for zone records
+ * 
+ * @author taylorjb
+ * 
+ */
+public interface ZoneStore
+{
+    /**
+     * Load all stored zones
+     * 
+     * @return records of all stored zones, empty if nothing has been stored yet
+     * @throws IOException
+     *             if reading the store failed
+     * @throws InvalidConfigurationException
+     *             if a stored zone could not be parsed
+     */
+    public List<ZoneRecord> load() throws IOException, InvalidConfigurationException;
+
+    /**
+     * Store changes to zones
+     * 
+     * @param changed
+     *            records of zones which were added or changed
+     * @param deleted
+     *            names of zones which were deleted
+     * @throws IOException
+     *             if writing the store failed
+     */
+    public void save(Collection<ZoneRecord> changed, Collection<String> deleted) throws IOException;
+}
@@ -0,0 +1,75 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+
+/**
+ * Console tool exporting and importing the zones of a stopped server
+ *
+ * Run with the plugin and server jars on the classpath: java -cp PolyZones.jar:server.jar
+ * com.evosysdev.bukkit.taylorjb.polyzones.zone.ZoneTool &lt;export|import&gt; &lt;plugin folder&gt; &lt;file&gt; [yaml|binary|journal]
+ *
+ * The storage format must match storage.format in the plugin's config, yaml if not given.
+ *
+ * @author taylorjb
+ *
+ */
+public final class ZoneTool
+{
+    private ZoneTool()
+    {
+    }
+
+    /**
+     * Export or import zones
+     *
+     * @param args
+     *            export or import, plugin folder, export file and optionally the storage format
+     */
+    public static void main(String[] args)
+    {
+        if (args.length < 3 || !args[0].matches("(?i)export|import"))
+        {
+            System.err.println("Usage: ZoneTool <export|import> <plugin folder> <file> [yaml|binary|journal]");
+            System.exit(2);
+        }
+
+        String format = (args.length > 3) ? args[3] : "yaml";
+        ZoneStore store;
+        if (format.equalsIgnoreCase("binary")) store = new BinaryZoneStore(args[1]);
+        else if (format.equalsIgnoreCase("journal")) store = new JournalZoneStore(args[1]);
+        else store = new YamlZoneStore(args[1]);
+        File file = new File(args[2]);
+
+        try
+        {
+            long start = System.nanoTime();
+            ZoneManager manager = new ZoneManager(store);
+            int zones;
+            try
+            {
+                if (args[0].equalsIgnoreCase("export")) zones = manager.exportZones(file);
+                else zones = manager.importZones(file);
+            }
+            finally
+            {
+                manager.close(); // imported zones are written here
+            }
+
+            System.out.println((args[0].equalsIgnoreCase("export") ? "Exported " : "Imported ") + zones + " zones in "
+                    + (System.nanoTime() - start) / 1000000 + "ms");
+        }
+        catch (IOException ioe)
+        {
+            System.err.println("Error reading or writing zones: " + ioe.getMessage());
+            System.exit(1);
+        }
+        catch (InvalidConfigurationException ice)
+        {
+            System.err.println("Invalid zones: " + ice.getMessage());
+            System.exit(1);
+        }
+    }
+}
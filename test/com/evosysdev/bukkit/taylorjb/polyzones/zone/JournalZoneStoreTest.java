@@ -0,0 +1,272 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * A journal torn in its last save loads as of the commit before and keeps taking saves, one corrupted before its last commit isn't loaded
+ *
+ * @author taylorjb
+ *
+ */
+public class JournalZoneStoreTest
+{
+    private static final long SEED = 25; // seed of the saves and damage, fixed so failures can be repeated
+    private static final int TRIALS = 200; // journals written and damaged
+    private static final int SAVES = 8; // saves committed to each journal
+    private static final int HEADER = 4; // bytes of the journal before its first entry
+    private static final int COMMIT = 9; // bytes of a commit entry, the header of an entry without payload
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder(); // parent of each trial's zone folder
+
+    private List<String> warnings; // warnings the store reported
+    private Logger logger; // where the store reports them
+
+    @Before
+    public void setUp()
+    {
+        warnings = new ArrayList<String>();
+        logger = Logger.getAnonymousLogger();
+        logger.setUseParentHandlers(false);
+        logger.addHandler(new Handler()
+        {
+            @Override
+            public void publish(LogRecord record)
+            {
+                warnings.add(record.getMessage());
+            }
+
+            @Override
+            public void flush()
+            {
+            }
+
+            @Override
+            public void close()
+            {
+            }
+        });
+    }
+
+    /**
+     * Cutting the journal short, or corrupting a byte of its last commit, recovers exactly the saves committed before that offset, drops the
+     * rest of the journal and appends later saves where they replay. Corrupting a byte with a commit after it fails the load and leaves the
+     * journal as it is
+     */
+    @Test
+    public void recoversLastCommittedSave() throws Exception
+    {
+        Random random = new Random(SEED);
+        for (int trial = 0; trial < TRIALS; trial++)
+        {
+            String path = folder.newFolder().getPath();
+            File journal = new File(path, "zones.pzj");
+            JournalZoneStore store = new JournalZoneStore(path, logger);
+            store.load();
+
+            // zones and journal length after each save, the first before any save
+            List<Map<String, String>> states = new ArrayList<Map<String, String>>();
+            List<Long> ends = new ArrayList<Long>();
+            states.add(new TreeMap<String, String>());
+            ends.add(journal.length());
+            for (int save = 0; save < SAVES; save++)
+            {
+                Map<String, String> state = new TreeMap<String, String>(states.get(save));
+                save(store, random, state);
+                states.add(state);
+                ends.add(journal.length());
+            }
+
+            // the header is only cut, never corrupted, as a journal of another format is refused rather than recovered
+            int length = (int) journal.length();
+            boolean truncate = random.nextBoolean();
+            int offset = truncate ? random.nextInt(length) : HEADER + random.nextInt(length - HEADER);
+            damage(journal, offset, truncate);
+            long damaged = journal.length();
+            String trialName = "trial " + trial + ", " + (truncate ? "cut" : "corrupted") + " at " + offset + " of " + length;
+
+            // saves are synced one after another, so damage with a commit after it isn't from a crash
+            if (!truncate && offset < ends.get(SAVES) - COMMIT)
+            {
+                byte[] bytes = Files.readAllBytes(journal.toPath());
+                try
+                {
+                    new JournalZoneStore(path, logger).load();
+                    fail(trialName + " was loaded");
+                }
+                catch (InvalidConfigurationException ice)
+                { // expected
+                }
+
+                assertArrayEquals(trialName, bytes, Files.readAllBytes(journal.toPath()));
+                continue;
+            }
+
+            int recovered = 0;
+            while (recovered < SAVES && ends.get(recovered + 1) <= offset)
+                recovered++;
+
+            warnings.clear();
+            store = new JournalZoneStore(path, logger);
+            assertEquals(trialName, states.get(recovered), lines(store.load()));
+
+            // the tail is cut off, then whatever was replayed is compacted into the snapshot
+            long dropped = damaged - ends.get(recovered);
+            if (dropped > 0)
+                assertEquals(trialName, "Zone journal ends in a partial save, dropping its last " + dropped + " bytes", warnings.get(0));
+            else assertTrue(trialName, warnings.isEmpty());
+            assertEquals(trialName, HEADER, journal.length());
+
+            Map<String, String> state = new TreeMap<String, String>(states.get(recovered));
+            save(store, random, state);
+            assertEquals(trialName, state, lines(new JournalZoneStore(path, logger).load()));
+        }
+    }
+
+    /**
+     * Changing a flag of a zone with many points appends its record without them, and replays with the points it had, whether they're in
+     * the journal or the snapshot
+     */
+    @Test
+    public void flagChangeSkipsPoints() throws Exception
+    {
+        String path = folder.newFolder().getPath();
+        File journal = new File(path, "zones.pzj");
+        JournalZoneStore store = new JournalZoneStore(path, logger);
+        store.load();
+
+        int[] xs = new int[10000], ys = new int[xs.length];
+        for (int i = 0; i < xs.length; i++)
+        {
+            xs[i] = i;
+            ys[i] = (i % 2) * 1000;
+        }
+        State[] flags = new State[Zone.Flag.values().length];
+        ZoneRecord record = new ZoneRecord("big", "everywhere", "world", null, null, 0, 128, xs, ys, flags);
+        store.save(Arrays.asList(record), new ArrayList<String>());
+
+        for (int i = 0; i < 2; i++)
+        {
+            flags = flags.clone();
+            flags[Zone.Flag.PVP.ordinal()] = (i == 0) ? State.OFF : State.ON;
+            record = new ZoneRecord("big", "everywhere", "world", null, null, 0, 100 + i, xs, ys, flags);
+
+            long before = journal.length();
+            store.save(Arrays.asList(record), new ArrayList<String>());
+            assertTrue("patch of " + (journal.length() - before) + " bytes", journal.length() - before < 200);
+
+            // the first patch is over the record in the journal, the second over the record compacted into the snapshot
+            store = new JournalZoneStore(path, logger);
+            assertEquals(lines(Arrays.asList(record)), lines(store.load()));
+        }
+    }
+
+    /**
+     * Save a few random changes to zones, applying them to the zones expected
+     *
+     * @param state
+     *            lines of the zones expected, by name
+     */
+    private static void save(JournalZoneStore store, Random random, Map<String, String> state) throws IOException
+    {
+        List<ZoneRecord> changed = new ArrayList<ZoneRecord>();
+        Set<String> deleted = new LinkedHashSet<String>();
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 1 + random.nextInt(3); i > 0; i--)
+            names.add("zone" + random.nextInt(10));
+
+        for (String name : names)
+        {
+            if (state.containsKey(name) && random.nextInt(3) == 0)
+            {
+                deleted.add(name);
+                state.remove(name);
+            }
+            else
+            {
+                // the same points as before half the time, so saves mix whole records with patches
+                int size = random.nextBoolean() ? 10 : 20;
+                ZoneRecord record = new ZoneRecord(name, "everywhere", "world", "greeting " + random.nextInt(1000), null, 0, 128,
+                        new int[] { 0, size, size, 0 }, new int[] { 0, 0, size, size }, new State[Zone.Flag.values().length]);
+                changed.add(record);
+                state.put(name, line(record));
+            }
+        }
+
+        store.save(changed, deleted);
+    }
+
+    /**
+     * Cut a file short at an offset, or flip the bits of the byte there
+     */
+    private static void damage(File file, int offset, boolean truncate) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try
+        {
+            if (truncate) raf.setLength(offset);
+            else
+            {
+                raf.seek(offset);
+                int b = raf.read();
+                raf.seek(offset);
+                raf.write(~b);
+            }
+        }
+        finally
+        {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return lines of records, by name
+     */
+    private static Map<String, String> lines(Collection<ZoneRecord> records) throws IOException
+    {
+        Map<String, String> lines = new TreeMap<String, String>();
+        for (ZoneRecord record : records)
+            lines.put(record.getName(), line(record));
+
+        return lines;
+    }
+
+    /**
+     * @return line a record is written as
+     */
+    private static String line(ZoneRecord record) throws IOException
+    {
+        StringWriter out = new StringWriter();
+        ZoneLines.write(record, out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,33 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Zone store keeping records in memory, for tests of the manager
+ *
+ * @author taylorjb
+ *
+ */
+class MemoryZoneStore implements ZoneStore
+{
+    private final Map<String, ZoneRecord> records = new LinkedHashMap<String, ZoneRecord>(); // every stored zone, by name
+
+    @Override
+    public synchronized List<ZoneRecord> load()
+    {
+        return new ArrayList<ZoneRecord>(records.values());
+    }
+
+    @Override
+    public synchronized void save(Collection<ZoneRecord> changed, Collection<String> deleted)
+    {
+        for (String name : deleted)
+            records.remove(name);
+        for (ZoneRecord record : changed)
+            records.put(record.getName(), record);
+    }
+}
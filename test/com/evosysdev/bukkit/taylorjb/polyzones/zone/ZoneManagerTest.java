@@ -0,0 +1,181 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Point;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Changing the zone hierarchy through the manager
+ *
+ * @author taylorjb
+ *
+ */
+public class ZoneManagerTest
+{
+    private MemoryZoneStore store; // where the manager saves zones
+    private ZoneManager manager; // manager under test, starting with only everywhere
+    private Zone everywhere; // zone every other zone is inside
+
+    @Before
+    public void setUp() throws Exception
+    {
+        store = new MemoryZoneStore();
+        manager = new ZoneManager(store);
+        everywhere = manager.getZone("everywhere");
+    }
+
+    /**
+     * Everywhere can't be deleted, its children would have nowhere to go and the zones couldn't be loaded again
+     */
+    @Test
+    public void everywhereCantBeDeleted() throws Exception
+    {
+        Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+
+        try
+        {
+            manager.deleteZone(everywhere);
+            fail("Everywhere was deleted");
+        }
+        catch (IllegalArgumentException iae)
+        { // expected
+        }
+
+        assertSame(everywhere, town.getParent());
+        manager.close();
+        assertNotNull(new ZoneManager(store).getZone("town"));
+    }
+
+    /**
+     * Deleting a zone moves its children up to its parent
+     */
+    @Test
+    public void deleteMovesChildrenUp() throws Exception
+    {
+        Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        Zone plot = addZone("plot", town, 10, 10, 20, 20);
+
+        manager.deleteZone(town);
+        assertSame(everywhere, plot.getParent());
+        manager.close();
+
+        ZoneManager loaded = new ZoneManager(store);
+        assertEquals("everywhere", loaded.getZone("plot").getParent().getName());
+        assertEquals(null, loaded.getZone("town"));
+    }
+
+    /**
+     * A child saved sticking out of its grandparent, before containment was checked, still moves up when its parent is deleted
+     */
+    @Test
+    public void deleteMovesUpChildOutsideGrandparent() throws Exception
+    {
+        Zone city = addZone("city", everywhere, 0, 0, 100, 100);
+        Zone town = addZone("town", city, 0, 0, 50, 50);
+        Zone plot = addZone("plot", town, 10, 10, 20, 20);
+        manager.setPoints(plot, rect(40, 40, 150, 150));
+
+        manager.deleteZone(town);
+        assertSame(city, plot.getParent());
+        assertEquals(Arrays.asList(plot), city.getChildren());
+        assertEquals(null, manager.getZone("town"));
+        manager.close();
+
+        ZoneManager loaded = new ZoneManager(store);
+        assertEquals("city", loaded.getZone("plot").getParent().getName());
+        assertEquals(null, loaded.getZone("town"));
+    }
+
+    /**
+     * Points leaving a zone's children outside it, or its children above or below it, are refused
+     */
+    @Test
+    public void checkKeepsChildrenInside()
+    {
+        Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        Zone plot = addZone("plot", town, 10, 10, 20, 20);
+
+        assertFalse(manager.checkPoints(town, rect(30, 30, 100, 100)).isValid());
+        assertTrue(manager.checkPoints(town, rect(0, 0, 50, 50)).isValid());
+
+        plot.setCeil(200);
+        assertFalse(manager.checkPoints(town, rect(0, 0, 50, 50)).isValid());
+    }
+
+    /**
+     * A zone has to be between its parent's floor and ceiling
+     */
+    @Test
+    public void checkKeepsInsideParentHeights()
+    {
+        Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        town.setCeil(100);
+        Zone plot = new Zone("plot", "world", town, manager); // ceiling of 128, above town's
+
+        assertFalse(manager.checkPoints(plot, rect(10, 10, 20, 20)).isValid());
+        plot.setCeil(90);
+        assertTrue(manager.checkPoints(plot, rect(10, 10, 20, 20)).isValid());
+    }
+
+    /**
+     * Heights a wand would set are checked before the zone has them
+     */
+    @Test
+    public void checkHeightsBeforeSet()
+    {
+        Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        town.setCeil(100);
+        Zone plot = addZone("plot", town, 10, 10, 20, 20);
+        plot.setCeil(90);
+
+        assertFalse(manager.checkPoints(plot, rect(10, 10, 20, 20), 0, 110).isValid());
+        assertFalse(manager.checkPoints(town, rect(0, 0, 100, 100), 0, 80).isValid());
+        assertTrue(manager.checkPoints(town, rect(0, 0, 100, 100), 0, 95).isValid());
+        assertEquals(90, plot.getCeiling());
+        assertEquals(100, town.getCeiling());
+    }
+
+    /**
+     * Zones in every world overlap siblings of any world, whichever of the two is being checked
+     */
+    @Test
+    public void everyWorldZonesOverlapEitherWay()
+    {
+        Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        Zone spawn = new Zone("spawn", "everywhere", everywhere, manager);
+        manager.setPoints(spawn, rect(50, 50, 150, 150));
+        manager.addZone(spawn);
+
+        assertEquals(Arrays.asList(spawn), manager.checkPoints(town, rect(0, 0, 100, 100)).getOverlaps());
+        assertEquals(Arrays.asList(town), manager.checkPoints(spawn, rect(50, 50, 150, 150)).getOverlaps());
+    }
+
+    /**
+     * Add a rectangular zone to the manager
+     */
+    private Zone addZone(String name, Zone parent, int x0, int z0, int x1, int z1)
+    {
+        Zone zone = new Zone(name, "world", parent, manager);
+        manager.setPoints(zone, rect(x0, z0, x1, z1));
+        manager.addZone(zone);
+        return zone;
+    }
+
+    /**
+     * @return corners of a rectangle
+     */
+    private static List<Point> rect(int x0, int z0, int x1, int z1)
+    {
+        return Arrays.asList(new Point(x0, z0), new Point(x1, z0), new Point(x1, z1), new Point(x0, z1));
+    }
+}
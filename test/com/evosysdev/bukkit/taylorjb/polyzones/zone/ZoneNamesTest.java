@@ -0,0 +1,101 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+/**
+ * Prefix searches of zone names stay in order as names are added and removed
+ *
+ * @author taylorjb
+ *
+ */
+public class ZoneNamesTest
+{
+    private static final long SEED = 21; // seed of the random names, fixed so failures can be repeated
+
+    /**
+     * Names are found in any case, and searched by prefix in any case
+     */
+    @Test
+    public void caseInsensitive()
+    {
+        ZoneNames names = new ZoneNames();
+        names.add("Town");
+        names.add("tower");
+        names.add("Castle");
+
+        assertEquals("Town", names.get("TOWN"));
+        assertEquals(2, names.count("TO"));
+        assertEquals(Arrays.asList("tower", "Town"), names.find("t", 0, 10));
+        assertEquals(Arrays.asList("Town"), names.find("To", 1, 10));
+
+        names.remove("TOWN");
+        assertNull(names.get("town"));
+        assertEquals(Arrays.asList("Castle", "tower"), names.find("", 0, 10));
+    }
+
+    /**
+     * Random adds, removes and clears with searches between them give the same pages as a sorted map of every name, a name added again
+     * in another case is kept as it was last added
+     */
+    @Test
+    public void matchesSortedMap()
+    {
+        Random random = new Random(SEED);
+        ZoneNames names = new ZoneNames();
+        TreeMap<String, String> expected = new TreeMap<String, String>(); // lowercased name -> name
+
+        for (int step = 0; step < 20000; step++)
+        {
+            // a few changes at a time, sometimes many, between searches
+            int changes = (random.nextInt(50) == 0) ? 500 : random.nextInt(4);
+            for (int c = 0; c < changes; c++)
+            {
+                String name = randomName(random);
+                if (random.nextInt(3) == 0)
+                {
+                    names.remove(name);
+                    expected.remove(ZoneNames.key(name));
+                }
+                else
+                {
+                    names.add(name);
+                    expected.put(ZoneNames.key(name), name);
+                }
+            }
+            if (random.nextInt(2000) == 0)
+            {
+                names.clear();
+                expected.clear();
+            }
+
+            String prefix = randomName(random).substring(0, random.nextInt(3));
+            int from = random.nextInt(5), max = 1 + random.nextInt(20);
+            List<String> matching = new ArrayList<String>(expected.subMap(ZoneNames.key(prefix), ZoneNames.key(prefix) + '\uffff').values());
+
+            assertEquals("count of " + prefix, matching.size(), names.count(prefix));
+            assertEquals("page of " + prefix, matching.subList(Math.min(from, matching.size()), Math.min(from + max, matching.size())),
+                    names.find(prefix, from, max));
+        }
+    }
+
+    /**
+     * @return short random name in mixed case, so names collide and share prefixes often
+     */
+    private static String randomName(Random random)
+    {
+        char[] name = new char[3 + random.nextInt(3)];
+        for (int i = 0; i < name.length; i++)
+            name[i] = (char) ((random.nextBoolean() ? 'a' : 'A') + random.nextInt(4));
+
+        return new String(name);
+    }
+}
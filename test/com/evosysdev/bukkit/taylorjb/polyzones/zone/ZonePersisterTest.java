@@ -0,0 +1,163 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.InvalidConfigurationException;
+import org.junit.Test;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.metrics.ZoneMetrics;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Failed writes are retried, but never over anything written after them
+ *
+ * @author taylorjb
+ *
+ */
+public class ZonePersisterTest
+{
+    private static final Logger LOGGER = Logger.getLogger(ZonePersisterTest.class.getName()); // where the persister reports failed saves
+
+    /**
+     * A write failing after a newer write of the same zone was queued mustn't be retried over the newer one
+     */
+    @Test
+    public void failedWriteNotRetriedOverNewer() throws Exception
+    {
+        GatedStore store = new GatedStore();
+        ZonePersister persister = new ZonePersister(store, new ZoneMetrics(), LOGGER);
+
+        persister.markDirty(record("a", "v1"));
+        persister.flush(); // write 1 waits in the store
+        store.started.await();
+
+        persister.markDirty(record("a", "v2"));
+        persister.flush(); // write 2 queued behind it
+
+        store.failNext = true;
+        store.gate.release(2); // write 1 fails, write 2 succeeds
+        assertTrue(store.written.tryAcquire(2, 10, TimeUnit.SECONDS));
+
+        persister.flush(); // nothing changed, so nothing may be retried
+        store.gate.release(100);
+        persister.drain();
+
+        assertEquals("v2", store.zones.get("a").getGreeting());
+        assertEquals(1, store.saves.size());
+    }
+
+    /**
+     * A deletion failing after a failed write of the same zone is retried as a deletion, not as the older write
+     */
+    @Test
+    public void failedDeleteReplacesFailedWrite() throws Exception
+    {
+        GatedStore store = new GatedStore();
+        store.gate.release(100);
+        ZonePersister persister = new ZonePersister(store, new ZoneMetrics(), LOGGER);
+
+        store.failNext = true;
+        persister.markDirty(record("a", "v1"));
+        persister.flush();
+        assertTrue(store.written.tryAcquire(1, 10, TimeUnit.SECONDS));
+
+        store.failNext = true;
+        persister.markDeleted("a");
+        persister.flush();
+        assertTrue(store.written.tryAcquire(1, 10, TimeUnit.SECONDS));
+
+        persister.drain(); // retries what failed
+        assertTrue(!store.zones.containsKey("a"));
+        for (List<String> save : store.saves)
+            assertTrue(!save.contains("v1"));
+    }
+
+    /**
+     * A failed write with nothing newer is retried on the next flush
+     */
+    @Test
+    public void failedWriteRetried() throws Exception
+    {
+        GatedStore store = new GatedStore();
+        store.gate.release(100);
+        ZonePersister persister = new ZonePersister(store, new ZoneMetrics(), LOGGER);
+
+        store.failNext = true;
+        persister.markDirty(record("a", "v1"));
+        persister.flush();
+        assertTrue(store.written.tryAcquire(1, 10, TimeUnit.SECONDS));
+
+        persister.flush();
+        persister.drain();
+        assertEquals("v1", store.zones.get("a").getGreeting());
+    }
+
+    /**
+     * @return record of a zone under everywhere, with the greeting telling versions apart
+     */
+    private static ZoneRecord record(String name, String greeting)
+    {
+        return new ZoneRecord(name, "everywhere", "world", greeting, null, 0, 128, new int[] { 0, 10, 10, 0 }, new int[] { 0, 0, 10, 10 },
+                new State[Zone.Flag.values().length]);
+    }
+
+    /**
+     * Store holding zones in memory, each save waits for a permit and can be made to fail
+     */
+    private static class GatedStore implements ZoneStore
+    {
+        final Semaphore gate = new Semaphore(0); // a permit per save allowed to go ahead
+        final Semaphore written = new Semaphore(0); // a permit per save finished, failed or not
+        final CountDownLatch started = new CountDownLatch(1); // counted down when the first save starts
+        final Map<String, ZoneRecord> zones = new LinkedHashMap<String, ZoneRecord>(); // zones saved, by name
+        final List<List<String>> saves = new ArrayList<List<String>>(); // greetings written, or names deleted, by each successful save
+        volatile boolean failNext; // if the next save fails
+
+        @Override
+        public List<ZoneRecord> load() throws IOException, InvalidConfigurationException
+        {
+            return new ArrayList<ZoneRecord>(zones.values());
+        }
+
+        @Override
+        public void save(Collection<ZoneRecord> changed, Collection<String> deleted) throws IOException
+        {
+            started.countDown();
+            gate.acquireUninterruptibly();
+            try
+            {
+                if (failNext)
+                {
+                    failNext = false;
+                    throw new IOException("Failing on purpose");
+                }
+
+                List<String> save = new ArrayList<String>();
+                for (String name : deleted)
+                    zones.remove(name);
+                for (ZoneRecord record : changed)
+                {
+                    zones.put(record.getName(), record);
+                    save.add(record.getGreeting());
+                }
+                saves.add(save);
+            }
+            finally
+            {
+                written.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Polygon;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * ZonePolygon has to agree with java.awt.Polygon, which zones used before it, on every point
+ *
+ * @author taylorjb
+ *
+ */
+public class ZonePolygonTest
+{
+    private static final long SEED = 5; // seed of the random polygons, fixed so failures can be repeated
+
+    /**
+     * Rectangles include their low edges and exclude their high edges, as java.awt.Polygon does
+     */
+    @Test
+    public void rectangleEdges()
+    {
+        ZonePolygon polygon = new ZonePolygon(new int[] { 0, 10, 10, 0 }, new int[] { 0, 0, 10, 10 });
+
+        assertTrue(polygon.contains(0, 0));
+        assertTrue(polygon.contains(9, 9));
+        assertFalse(polygon.contains(10, 5));
+        assertFalse(polygon.contains(5, 10));
+        assertFalse(polygon.contains(-1, 5));
+    }
+
+    /**
+     * Polygons without an area contain nothing
+     */
+    @Test
+    public void degenerate()
+    {
+        assertFalse(ZonePolygon.EMPTY.contains(0, 0));
+        assertFalse(new ZonePolygon(new int[] { 3 }, new int[] { 3 }).contains(3, 3));
+        assertFalse(new ZonePolygon(new int[] { 0, 10 }, new int[] { 0, 10 }).contains(5, 5));
+        assertFalse(new ZonePolygon(new int[] { 0, 10, 20 }, new int[] { 0, 0, 0 }).contains(5, 0));
+    }
+
+    /**
+     * Random polygons, most of them self intersecting, tested on every point of their bounding box and a margin around it
+     */
+    @Test
+    public void matchesAwtOnRandomPolygons()
+    {
+        Random random = new Random(SEED);
+        for (int p = 0; p < 2000; p++)
+        {
+            int size = 3 + random.nextInt(12), range = 4 + random.nextInt(60);
+            compare(randomPolygon(random, size, range), 2);
+        }
+    }
+
+    /**
+     * Polygons with so many edges crossing each slab that they walk every edge instead
+     */
+    @Test
+    public void matchesAwtWithoutSlabs()
+    {
+        Random random = new Random(SEED + 1);
+        for (int p = 0; p < 20; p++)
+            compare(randomPolygon(random, 200 + random.nextInt(200), 100), 1);
+    }
+
+    /**
+     * Zone shaped polygons far from the origin, where coordinates need more than a short
+     */
+    @Test
+    public void matchesAwtAwayFromOrigin()
+    {
+        Random random = new Random(SEED + 2);
+        for (int p = 0; p < 200; p++)
+        {
+            int offsetX = random.nextInt(60000000) - 30000000, offsetY = random.nextInt(60000000) - 30000000;
+            int[][] points = randomPolygon(random, 4 + random.nextInt(8), 80);
+            for (int i = 0; i < points[0].length; i++)
+            {
+                points[0][i] += offsetX;
+                points[1][i] += offsetY;
+            }
+
+            compare(points, 3);
+        }
+    }
+
+    /**
+     * Adding points one at a time gives the same polygon as building it from every point
+     */
+    @Test
+    public void withPointMatchesConstructor()
+    {
+        Random random = new Random(SEED + 3);
+        int[][] points = randomPolygon(random, 10, 40);
+
+        ZonePolygon built = ZonePolygon.EMPTY;
+        for (int i = 0; i < points[0].length; i++)
+            built = built.withPoint(points[0][i], points[1][i]);
+
+        ZonePolygon polygon = new ZonePolygon(points[0], points[1]);
+        assertEquals(polygon.size(), built.size());
+        for (int x = polygon.getMinX() - 1; x <= polygon.getMaxX() + 1; x++)
+            for (int y = polygon.getMinY() - 1; y <= polygon.getMaxY() + 1; y++)
+                assertEquals(polygon.contains(x, y), built.contains(x, y));
+    }
+
+    /**
+     * @return xs then ys of a polygon with random vertices in a square of range
+     */
+    private static int[][] randomPolygon(Random random, int size, int range)
+    {
+        int[][] points = new int[2][size];
+        for (int i = 0; i < size; i++)
+        {
+            points[0][i] = random.nextInt(range) - range / 2;
+            points[1][i] = random.nextInt(range) - range / 2;
+        }
+
+        return points;
+    }
+
+    /**
+     * Check ZonePolygon and java.awt.Polygon agree on every point of the polygon's bounding box and a margin around it
+     */
+    private static void compare(int[][] points, int margin)
+    {
+        ZonePolygon polygon = new ZonePolygon(points[0], points[1]);
+        Polygon awt = new Polygon(points[0], points[1], points[0].length);
+
+        for (int x = polygon.getMinX() - margin; x <= polygon.getMaxX() + margin; x++)
+            for (int y = polygon.getMinY() - margin; y <= polygon.getMaxY() + margin; y++)
+                if (polygon.contains(x, y) != awt.contains(x, y))
+                    throw new AssertionError("Polygon " + describe(points) + " disagrees with java.awt.Polygon at " + x + "," + y);
+    }
+
+    /**
+     * @return the polygon's points, for failure messages
+     */
+    private static String describe(int[][] points)
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < points[0].length; i++)
+            text.append(i == 0 ? "" : " ").append(points[0][i]).append(',').append(points[1][i]);
+
+        return text.toString();
+    }
+}
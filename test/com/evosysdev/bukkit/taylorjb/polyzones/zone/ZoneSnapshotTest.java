@@ -0,0 +1,469 @@
+package com.evosysdev.bukkit.taylorjb.polyzones.zone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Point;
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.bukkit.World;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.Flag;
+import com.evosysdev.bukkit.taylorjb.polyzones.zone.Zone.State;
+
+/**
+ * Reading zones from other threads only ever goes through published snapshots
+ *
+ * @author taylorjb
+ *
+ */
+public class ZoneSnapshotTest
+{
+    private static final long SEED = 15; // seed of the random edits, fixed so failures can be repeated
+    private static final String[] WORLDS = { "world", "nether", "end" }; // worlds blocks are looked up in, end has no zones of its own
+    private static final State[] STATES = { State.ON, State.OFF, State.INHERIT }; // states flags are set to
+
+    private ZoneManager manager; // manager under test, starting with only everywhere
+    private Zone everywhere; // zone every other zone is inside
+    private ExecutorService other; // a thread other than the one which made the manager
+
+    @Before
+    public void setUp() throws Exception
+    {
+        manager = new ZoneManager(new MemoryZoneStore());
+        everywhere = manager.getZone("everywhere");
+        other = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown()
+    {
+        other.shutdownNow();
+        manager.close();
+    }
+
+    /**
+     * Off the main thread flags come from the snapshot, even when the zone has changed since
+     */
+    @Test
+    public void flagsOffThreadComeFromSnapshot() throws Exception
+    {
+        final Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        manager.publish();
+        town.setFlag(Flag.PVP, State.ON); // not published yet
+
+        assertEquals(State.OFF, onOtherThread(new Callable<State>()
+        {
+            @Override
+            public State call()
+            {
+                return town.getFlagState(Flag.PVP);
+            }
+        }));
+
+        manager.publish();
+        assertEquals(State.ON, onOtherThread(new Callable<State>()
+        {
+            @Override
+            public State call()
+            {
+                return town.getFlagState(Flag.PVP);
+            }
+        }));
+    }
+
+    /**
+     * The root is found by being the root, an imported one needn't be named everywhere
+     */
+    @Test
+    public void rootFoundWhateverItsName() throws Exception
+    {
+        State[] flags = new State[Flag.values().length];
+        flags[Flag.TNT.ordinal()] = State.OFF;
+        StringWriter lines = new StringWriter();
+        ZoneLines.write(new ZoneRecord("all", null, "everywhere", null, null, 0, 128, new int[0], new int[0], flags), lines);
+        manager.importZones(new BufferedReader(new StringReader(lines.toString())));
+
+        ZoneSnapshot snapshot = manager.getSnapshot();
+        assertEquals("all", snapshot.getRoot().getName());
+        assertEquals(State.OFF, snapshot.getFlagState(snapshot.getRoot(), Flag.TNT));
+    }
+
+    /**
+     * Zones which were never published can't have their flags read off the main thread, resolving them there would race the main thread
+     */
+    @Test
+    public void unpublishedFlagsOffThreadFail() throws Exception
+    {
+        final Zone editing = new Zone("editing", "world", everywhere, manager); // like a zone being made with a wand
+
+        try
+        {
+            onOtherThread(new Callable<State>()
+            {
+                @Override
+                public State call()
+                {
+                    return editing.getFlagState(Flag.PVP);
+                }
+            });
+            throw new AssertionError("Flags of an unpublished zone were read off the main thread");
+        }
+        catch (ExecutionException ee)
+        {
+            assertTrue(ee.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    /**
+     * Other threads can look up worlds without ids but only the main thread hands them out
+     */
+    @Test
+    public void worldIdsOnlyAddedOnMainThread() throws Exception
+    {
+        final Zone town = addZone("town", everywhere, 0, 0, 100, 100);
+        int id = onOtherThread(new Callable<Integer>()
+        {
+            @Override
+            public Integer call()
+            {
+                return manager.getWorldId("nether");
+            }
+        });
+
+        assertEquals(ZoneSnapshot.UNKNOWN_WORLD, id);
+        assertFalse(onOtherThread(new Callable<Boolean>()
+        {
+            @Override
+            public Boolean call()
+            {
+                return town.inZone(5, 64, 5, "nether");
+            }
+        }));
+        assertTrue(manager.getWorldId("nether") > 0);
+        assertEquals(manager.getWorldId("nether"), manager.getWorldId("nether"));
+    }
+
+    /**
+     * Snapshots made from the last one answer every lookup as the zones are, through random adds, deletes, reshapes, flag changes and a
+     * world unloading, checked against walking the zones themselves. Lookups made before each change are made again after it, so stale
+     * chunk profiles would be found.
+     */
+    @Test
+    public void lookupsFollowEdits() throws Exception
+    {
+        Random random = new Random(SEED);
+        ZoneManager edited = new ZoneManager(new MemoryZoneStore(), Arrays.asList("world", "nether"));
+        Zone root = edited.getZone("everywhere");
+        Map<String, int[]> cells = new HashMap<String, int[]>(); // zone name -> x, z and size of the square its points are kept in
+        Map<String, Set<Integer>> used = new HashMap<String, Set<Integer>>(); // zone name -> sixteenths of its cell taken by children
+        List<String> names = new ArrayList<String>(); // every zone ever added
+        cells.put("everywhere", new int[] { 0, 0, 1024 });
+        used.put("everywhere", new HashSet<Integer>());
+
+        // a zone covering too many chunks to index by chunk, and one in every world, with room for children
+        Zone wide = new Zone("wide", "world", root, edited);
+        edited.setPoints(wide, rect(2048, 0, 3072, 1024));
+        edited.addZone(wide);
+        Zone all = new Zone("all", "everywhere", root, edited);
+        edited.setPoints(all, rect(4096, 0, 4600, 700));
+        edited.addZone(all);
+        for (String name : Arrays.asList("wide", "all"))
+        {
+            names.add(name);
+            cells.put(name, new int[] { name.equals("wide") ? 2048 : 4096, 0, 1024 });
+            used.put(name, new HashSet<Integer>());
+        }
+
+        for (int i = 0; i < 150; i++)
+            addRandomZone(edited, random, cells, used, names);
+        edited.publish();
+
+        Map<String, World> handles = new HashMap<String, World>();
+        for (String world : WORLDS)
+            handles.put(world, world(world));
+        int[][] points = new int[2000][];
+        for (int p = 0; p < points.length; p++)
+            points[p] = randomPoint(edited, random, cells, names);
+
+        for (int step = 0; step < 150; step++)
+        {
+            for (int edit = random.nextInt(5); edit >= 0; edit--)
+            {
+                List<Zone> live = new ArrayList<Zone>();
+                for (String name : names)
+                    if (edited.getZone(name) != null) live.add(edited.getZone(name));
+                Zone zone = live.get(random.nextInt(live.size()));
+                int[] cell = cells.get(zone.getName());
+
+                int kind = random.nextInt(10);
+                if (kind < 3) zone.setFlag(Flag.values()[random.nextInt(Flag.values().length)], STATES[random.nextInt(STATES.length)]);
+                else if (kind < 5 && zone != root) edited.setPoints(zone, randomRect(random, cell, zone));
+                else if (kind < 6)
+                {
+                    int floor = random.nextInt(60) - 5, ceiling = floor + 1 + random.nextInt(100);
+                    zone.setFloor(Integer.MIN_VALUE);
+                    zone.setCeil(ceiling);
+                    zone.setFloor(floor);
+                }
+                else if (kind < 7) edited.deleteZone(zone == root ? null : zone);
+                else if (kind < 8 && random.nextInt(8) == 0)
+                {
+                    if (edited.unloadWorld("nether") == 0) edited.loadWorld("nether");
+                }
+                else addRandomZone(edited, random, cells, used, names);
+            }
+
+            edited.publish();
+            checkSnapshot(edited, handles, points, names, "step " + step);
+
+            // lookups of this step are made again after the next
+            for (int p = 0; p < 200; p++)
+                points[random.nextInt(points.length)] = randomPoint(edited, random, cells, names);
+        }
+
+        edited.close();
+    }
+
+    /**
+     * Changing zones keeps the profiles of chunks none of them overlap, and drops those of chunks they do
+     */
+    @Test
+    public void untouchedProfilesCarriedOver()
+    {
+        Zone near = addZone("near", everywhere, 0, 0, 64, 64);
+        Zone far = addZone("far", everywhere, 1000, 1000, 1064, 1064);
+        World world = world("world");
+        ZoneSnapshot first = manager.getSnapshot();
+        assertSame(near, first.getContainedInZone(world, 20, 64, 20));
+        assertSame(far, first.getContainedInZone(world, 1020, 64, 1020));
+        long builds = manager.getMetrics().getProfileBuilds();
+
+        // flags don't change which zone a block is in, no profile is worked out again
+        far.setFlag(Flag.PVP, State.ON);
+        ZoneSnapshot flagged = manager.getSnapshot();
+        assertTrue(flagged.isFlagOn(world, 1020, 64, 1020, Flag.PVP));
+        assertFalse(flagged.isFlagOn(world, 20, 64, 20, Flag.PVP));
+        assertEquals(builds, manager.getMetrics().getProfileBuilds());
+
+        // moving far leaves near's chunk alone
+        manager.setPoints(far, rect(2000, 2000, 2064, 2064));
+        ZoneSnapshot moved = manager.getSnapshot();
+        assertSame(near, moved.getContainedInZone(world, 20, 64, 20));
+        assertEquals(builds, manager.getMetrics().getProfileBuilds());
+        assertSame(far, moved.getContainedInZone(world, 2020, 64, 2020));
+        assertEquals(builds + 1, manager.getMetrics().getProfileBuilds());
+        assertSame(everywhere, moved.getContainedInZone(world, 1020, 64, 1020));
+
+        // the snapshot before still answers as it was
+        assertSame(far, first.getContainedInZone(world, 1020, 64, 1020));
+        assertFalse(first.isFlagOn(world, 1020, 64, 1020, Flag.PVP));
+    }
+
+    /**
+     * Compare every answer of the manager's snapshot with walking its zones
+     */
+    private static void checkSnapshot(ZoneManager manager, Map<String, World> handles, int[][] points, List<String> names, String when)
+    {
+        ZoneSnapshot snapshot = manager.getSnapshot();
+        Zone root = manager.getZone("everywhere");
+        for (String world : WORLDS)
+        {
+            List<int[]> inWorld = new ArrayList<int[]>();
+            for (int[] point : points)
+                if (WORLDS[point[3]].equals(world)) inWorld.add(point);
+
+            int[] xs = new int[inWorld.size()], ys = new int[xs.length], zs = new int[xs.length];
+            for (int p = 0; p < xs.length; p++)
+            {
+                int[] point = inWorld.get(p);
+                xs[p] = point[0];
+                ys[p] = point[1];
+                zs[p] = point[2];
+            }
+
+            Zone[] batch = snapshot.getContainedInZones(world, xs, ys, zs);
+            for (int p = 0; p < xs.length; p++)
+            {
+                Zone expected = walk(root, xs[p], ys[p], zs[p], world);
+                String at = when + " at " + xs[p] + "," + ys[p] + "," + zs[p] + " in " + world;
+                assertSame(at, expected, snapshot.getContainedInZone(handles.get(world), xs[p], ys[p], zs[p]));
+                assertSame(at + " in a batch", expected, batch[p]);
+            }
+        }
+
+        for (String name : names)
+        {
+            Zone zone = manager.getZone(name);
+            assertSame(when + " finding " + name, zone, snapshot.getZone(name));
+            if (zone == null) continue;
+
+            assertSame(when + " parent of " + name, zone.getParent(), snapshot.getParent(zone));
+            for (Flag flag : Flag.values())
+                assertEquals(when + " " + flag + " of " + name, zone.getFlagState(flag), snapshot.getFlagState(zone, flag));
+        }
+    }
+
+    /**
+     * @return most specific zone containing a block, found by walking down from a zone through whichever child contains it
+     */
+    private static Zone walk(Zone zone, int x, int y, int z, String world)
+    {
+        for (Zone child : zone.getChildren())
+            if (y > child.getFloor() && y < child.getCeiling() && (child.getWorld().equals("everywhere") || child.getWorld().equals(world))
+                    && child.getPolygon().contains(x, z)) return walk(child, x, y, z, world);
+
+        return zone;
+    }
+
+    /**
+     * Add a zone in a free sixteenth of a random zone's cell, with random points in that part and its parent so it never overlaps its
+     * siblings
+     */
+    private static void addRandomZone(ZoneManager manager, Random random, Map<String, int[]> cells, Map<String, Set<Integer>> used,
+            List<String> names)
+    {
+        List<String> parents = new ArrayList<String>();
+        for (String name : cells.keySet())
+            if (manager.getZone(name) != null && cells.get(name)[2] >= 16 && used.get(name).size() < 16) parents.add(name);
+        if (parents.isEmpty()) return;
+
+        String parentName = parents.get(random.nextInt(parents.size()));
+        Zone parent = manager.getZone(parentName);
+        int[] cell = cells.get(parentName);
+        int part;
+        do
+            part = random.nextInt(16);
+        while (used.get(parentName).contains(part));
+        used.get(parentName).add(part);
+
+        // children of everywhere go in either world, other children in their parent's
+        String world = (parent.getParent() != null) ? parent.getWorld() : (random.nextBoolean() ? "world" : "nether");
+        String name = "zone" + names.size();
+        int size = cell[2] / 4;
+        int[] childCell = { cell[0] + (part % 4) * size, cell[1] + (part / 4) * size, size };
+
+        Zone zone = new Zone(name, world, parent, manager);
+        List<Point> points = randomRect(random, childCell, zone);
+        if (points == null) return;
+        manager.setPoints(zone, points);
+        zone.setFloor(random.nextInt(40) - 5);
+        zone.setCeil(zone.getFloor() + 20 + random.nextInt(100));
+        manager.addZone(zone);
+
+        names.add(name);
+        cells.put(name, childCell);
+        used.put(name, new HashSet<Integer>());
+    }
+
+    /**
+     * @return x, y, z and world index of a block, mostly in a random zone's cell
+     */
+    private static int[] randomPoint(ZoneManager manager, Random random, Map<String, int[]> cells, List<String> names)
+    {
+        int[] cell = cells.get(names.get(random.nextInt(names.size())));
+        if (random.nextInt(4) == 0) cell = new int[] { -64, -64, 5300 };
+
+        return new int[] { cell[0] + random.nextInt(cell[2]), random.nextInt(150) - 10, cell[1] + random.nextInt(cell[2]),
+                random.nextInt(WORLDS.length) };
+    }
+
+    /**
+     * @return corners of a random rectangle for a zone, inside both its cell and its parent and around its children, or null if there is none
+     */
+    private static List<Point> randomRect(Random random, int[] cell, Zone zone)
+    {
+        // everything here is a rectangle, so bounds are enough
+        int minX = cell[0], minZ = cell[1], maxX = cell[0] + cell[2], maxZ = cell[1] + cell[2];
+        ZonePolygon parent = zone.getParent().getPolygon();
+        if (parent != null)
+        {
+            minX = Math.max(minX, parent.getMinX());
+            minZ = Math.max(minZ, parent.getMinY());
+            maxX = Math.min(maxX, parent.getMaxX());
+            maxZ = Math.min(maxZ, parent.getMaxY());
+        }
+
+        int innerMinX = maxX - 1, innerMinZ = maxZ - 1, innerMaxX = minX + 1, innerMaxZ = minZ + 1;
+        for (Zone child : zone.getChildren())
+        {
+            innerMinX = Math.min(innerMinX, child.getPolygon().getMinX());
+            innerMinZ = Math.min(innerMinZ, child.getPolygon().getMinY());
+            innerMaxX = Math.max(innerMaxX, child.getPolygon().getMaxX());
+            innerMaxZ = Math.max(innerMaxZ, child.getPolygon().getMaxY());
+        }
+        if (minX >= maxX || minZ >= maxZ) return null;
+
+        int x0 = minX + random.nextInt(Math.min(innerMinX, maxX - 1) - minX + 1);
+        int z0 = minZ + random.nextInt(Math.min(innerMinZ, maxZ - 1) - minZ + 1);
+        int x1 = Math.max(innerMaxX, x0 + 1), z1 = Math.max(innerMaxZ, z0 + 1);
+        return rect(x0, z0, x1 + random.nextInt(maxX - x1 + 1), z1 + random.nextInt(maxZ - z1 + 1));
+    }
+
+    /**
+     * @return handle of a world, only its name is used by lookups
+     */
+    private static World world(final String name)
+    {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class }, new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+            {
+                if (method.getName().equals("getName")) return name;
+                if (method.getName().equals("equals")) return proxy == args[0];
+                if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /**
+     * @return result of a task run on the other thread
+     */
+    private <T> T onOtherThread(Callable<T> task) throws Exception
+    {
+        return other.submit(task).get();
+    }
+
+    /**
+     * Add a rectangular zone to the manager
+     */
+    private Zone addZone(String name, Zone parent, int x0, int z0, int x1, int z1)
+    {
+        Zone zone = new Zone(name, "world", parent, manager);
+        manager.setPoints(zone, rect(x0, z0, x1, z1));
+        manager.addZone(zone);
+        return zone;
+    }
+
+    /**
+     * @return corners of a rectangle
+     */
+    static List<Point> rect(int x0, int z0, int x1, int z1)
+    {
+        return Arrays.asList(new Point(x0, z0), new Point(x1, z0), new Point(x1, z1), new Point(x0, z1));
+    }
+}